@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.benchmarks;
+
+import io.termd.core.io.BinaryDecoder;
+import io.termd.core.io.BinaryEncoder;
+import io.termd.core.util.CodePointSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+
+/**
+ * {@link BinaryDecoder} and {@link BinaryEncoder} throughput for a 4KB chunk of text.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class CodecBenchmark extends BenchmarkBase {
+
+  @Param({"UTF-8", "ISO-8859-1", "IBM437", "GB18030"})
+  public String charset;
+
+  @Param({"ascii", "mixed"})
+  public String text;
+
+  private byte[] bytes;
+  private int[] codePoints;
+  private BinaryDecoder decoder;
+  private BinaryEncoder encoder;
+  private BinaryEncoder translatingEncoder;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    Charset cs = Charset.forName(charset);
+    String s = text(4096, text.equals("ascii") ? "abcdefghijklmnopqrstuvwxyz0123456789 \n" : "abc déf àç € ─│ xyz\n");
+    s = new String(s.getBytes(cs), cs); // Only keep what the charset can encode
+    bytes = s.getBytes(cs);
+    codePoints = s.codePoints().toArray();
+    decoder = new BinaryDecoder(512, cs, (CodePointSink) (data, offset, length) -> blackhole.consume(data));
+    encoder = new BinaryEncoder(cs, blackhole::consume);
+    translatingEncoder = new BinaryEncoder(cs, blackhole::consume).setFlags(BinaryEncoder.ONLCR);
+  }
+
+  @Benchmark
+  public void decode() {
+    decoder.write(bytes);
+  }
+
+  @Benchmark
+  public void encode() {
+    encoder.accept(codePoints, 0, codePoints.length);
+  }
+
+  @Benchmark
+  public void encodeOnlcr() {
+    translatingEncoder.accept(codePoints, 0, codePoints.length);
+  }
+}
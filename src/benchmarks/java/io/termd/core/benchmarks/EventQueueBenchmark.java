@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.benchmarks;
+
+import io.termd.core.readline.EventQueue;
+import io.termd.core.readline.Keymap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link EventQueue} matching of typed chars and escape sequences against the default <i>inputrc</i> keymap.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class EventQueueBenchmark extends BenchmarkBase {
+
+  private static final int[] KEYSTROKES = "echo hello\033[D\033[D\033[3~\001\005\r".codePoints().toArray();
+
+  private EventQueue queue;
+
+  @Setup
+  public void setup() {
+    queue = new EventQueue(Keymap.getDefault());
+  }
+
+  @Benchmark
+  public void match(Blackhole blackhole) {
+    queue.append(KEYSTROKES, 0, KEYSTROKES.length);
+    while (queue.hasNext()) {
+      blackhole.consume(queue.next());
+    }
+  }
+}
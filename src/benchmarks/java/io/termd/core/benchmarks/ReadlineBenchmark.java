@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.benchmarks;
+
+import io.termd.core.io.BinaryEncoder;
+import io.termd.core.io.PreEncoded;
+import io.termd.core.readline.Function;
+import io.termd.core.readline.Keymap;
+import io.termd.core.readline.Readline;
+import io.termd.core.tty.TtyConnection;
+import io.termd.core.tty.TtyEvent;
+import io.termd.core.util.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * {@link Readline} handling a line typed key by key: the <i>keystrokes</i> benchmark types and accepts a line, the
+ * <i>redraw</i> benchmark also moves the cursor and deletes chars in the middle of the line.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class ReadlineBenchmark extends BenchmarkBase {
+
+  private static final int[] TYPING = "echo hello world\r".codePoints().toArray();
+  private static final int[] EDITING = "echo hello world\033[D\033[D\033[D\033[D\177\177\001\005\r".codePoints().toArray();
+
+  private Readline readline;
+  private Connection conn;
+  private Consumer<String> requestHandler;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    readline = new Readline(Keymap.getDefault()).addFunctions(Function.loadDefaults());
+    conn = new Connection(new BinaryEncoder(StandardCharsets.UTF_8, blackhole::consume).setFlags(BinaryEncoder.ONLCR));
+    requestHandler = blackhole::consume;
+  }
+
+  @Benchmark
+  public void keystrokes() {
+    type(TYPING);
+  }
+
+  @Benchmark
+  public void redraw() {
+    type(EDITING);
+  }
+
+  private void type(int[] keys) {
+    readline.readline(conn, "% ", requestHandler);
+    for (int i = 0;i < keys.length;i++) {
+      conn.stdinHandler.accept(new int[]{keys[i]});
+    }
+  }
+
+  /**
+   * A connection running tasks synchronously and encoding its output.
+   */
+  private static class Connection implements TtyConnection {
+
+    private final Vector size = new Vector(80, 24);
+    private final BinaryEncoder stdout;
+    private Consumer<String> terminalTypeHandler;
+    private Consumer<Vector> sizeHandler;
+    private BiConsumer<TtyEvent, Integer> eventHandler;
+    private Consumer<int[]> stdinHandler;
+    private Consumer<Void> closeHandler;
+
+    Connection(BinaryEncoder stdout) {
+      this.stdout = stdout;
+    }
+
+    @Override
+    public long lastAccessedTime() {
+      return 0;
+    }
+
+    @Override
+    public Vector size() {
+      return size;
+    }
+
+    @Override
+    public Charset inputCharset() {
+      return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public Charset outputCharset() {
+      return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public String terminalType() {
+      return "xterm";
+    }
+
+    @Override
+    public Consumer<String> getTerminalTypeHandler() {
+      return terminalTypeHandler;
+    }
+
+    @Override
+    public void setTerminalTypeHandler(Consumer<String> handler) {
+      terminalTypeHandler = handler;
+    }
+
+    @Override
+    public Consumer<Vector> getSizeHandler() {
+      return sizeHandler;
+    }
+
+    @Override
+    public void setSizeHandler(Consumer<Vector> handler) {
+      sizeHandler = handler;
+    }
+
+    @Override
+    public BiConsumer<TtyEvent, Integer> getEventHandler() {
+      return eventHandler;
+    }
+
+    @Override
+    public void setEventHandler(BiConsumer<TtyEvent, Integer> handler) {
+      eventHandler = handler;
+    }
+
+    @Override
+    public Consumer<int[]> getStdinHandler() {
+      return stdinHandler;
+    }
+
+    @Override
+    public void setStdinHandler(Consumer<int[]> handler) {
+      stdinHandler = handler;
+    }
+
+    @Override
+    public Consumer<int[]> stdoutHandler() {
+      return stdout;
+    }
+
+    @Override
+    public TtyConnection write(PreEncoded sequence) {
+      stdout.write(sequence);
+      return this;
+    }
+
+    @Override
+    public void setCloseHandler(Consumer<Void> closeHandler) {
+      this.closeHandler = closeHandler;
+    }
+
+    @Override
+    public Consumer<Void> getCloseHandler() {
+      return closeHandler;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.benchmarks;
+
+import io.termd.core.term.Capability;
+import io.termd.core.term.Device;
+import io.termd.core.term.Sequence;
+import io.termd.core.term.TermInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * {@link Sequence#eval(String...)} of common <i>xterm</i> capabilities.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class SequenceBenchmark extends BenchmarkBase {
+
+  private Sequence cursorAddress;
+  private Sequence foreground;
+  private Sequence clearScreen;
+
+  @Setup
+  public void setup() {
+    Device device = TermInfo.defaultInfo().getDevice("xterm");
+    cursorAddress = device.getFeature(Capability.cursor_address);
+    foreground = device.getFeature(Capability.set_a_foreground);
+    clearScreen = device.getFeature(Capability.clear_screen);
+  }
+
+  @Benchmark
+  public String cursorAddress() {
+    return cursorAddress.eval("24", "80");
+  }
+
+  @Benchmark
+  public String foreground() {
+    return foreground.eval("3");
+  }
+
+  @Benchmark
+  public String clearScreen() {
+    return clearScreen.eval();
+  }
+}
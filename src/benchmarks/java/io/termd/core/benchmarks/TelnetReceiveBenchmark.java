@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.benchmarks;
+
+import io.termd.core.telnet.TelnetConnection;
+import io.termd.core.telnet.TelnetHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TelnetConnection#receive(byte[])} for plain data and for data interleaved with escaped {@code IAC} and
+ * {@code NOP} commands.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class TelnetReceiveBenchmark extends BenchmarkBase {
+
+  @Param({"false", "true"})
+  public boolean iac;
+
+  private byte[] data;
+  private TelnetConnection conn;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    byte[] chunk = text(4096, "abcdefghijklmnopqrstuvwxyz0123456789 \r\n").getBytes();
+    if (iac) {
+      // IAC NOP every 16 bytes
+      data = new byte[chunk.length + (chunk.length / 16) * 2];
+      for (int i = 0, j = 0;i < chunk.length;i++) {
+        if (i % 16 == 0) {
+          data[j++] = TelnetConnection.BYTE_IAC;
+          data[j++] = (byte) 0xF1;
+        }
+        data[j++] = chunk[i];
+      }
+    } else {
+      data = chunk;
+    }
+    conn = new TelnetConnection(new TelnetHandler() {
+      @Override
+      protected void onData(byte[] data) {
+        blackhole.consume(data);
+      }
+      @Override
+      protected void onCommand(byte command) {
+        blackhole.consume(command);
+      }
+    }) {
+      @Override
+      public void close() {
+      }
+      @Override
+      protected void execute(Runnable task) {
+        task.run();
+      }
+      @Override
+      protected void schedule(Runnable task, long delay, TimeUnit unit) {
+      }
+      @Override
+      protected void send(byte[] data) {
+        blackhole.consume(data);
+      }
+    };
+  }
+
+  @Benchmark
+  public void receive() {
+    conn.receive(data);
+  }
+}
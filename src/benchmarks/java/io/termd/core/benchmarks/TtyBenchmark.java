@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.benchmarks;
+
+import io.termd.core.tty.TtyEventDecoder;
+import io.termd.core.tty.TtyOutputMode;
+import io.termd.core.util.CodePointSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link TtyEventDecoder} on input with a few control chars and {@link TtyOutputMode} on multi line output.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class TtyBenchmark extends BenchmarkBase {
+
+  private int[] input;
+  private int[] output;
+  private TtyEventDecoder eventDecoder;
+  private TtyOutputMode outputMode;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    input = text(512, "ls -al /tmp\r\003").codePoints().toArray();
+    output = text(4096, "-rw-r--r--  1 julien  staff  1024 Oct 16 12:00 file.txt\n").codePoints().toArray();
+    CodePointSink sink = (codePoints, offset, length) -> blackhole.consume(codePoints);
+    eventDecoder = new TtyEventDecoder(3, 26, 4).setReadHandler(sink);
+    eventDecoder.setEventHandler((event, key) -> blackhole.consume(event));
+    outputMode = new TtyOutputMode(sink);
+  }
+
+  @Benchmark
+  public void eventDecoder() {
+    eventDecoder.accept(input, 0, input.length);
+  }
+
+  @Benchmark
+  public void outputMode() {
+    outputMode.accept(output, 0, output.length);
+  }
+}
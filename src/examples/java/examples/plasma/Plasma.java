@@ -1,9 +1,10 @@
 package examples.plasma;
 
+import io.termd.core.screen.Screen;
+import io.termd.core.tty.FrameScheduler;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.tty.TtyEvent;
 
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static java.lang.Math.cos;
@@ -23,16 +24,31 @@ public class Plasma implements Consumer<TtyConnection> {
       }
     });
     if (conn.size() != null) {
-      run(conn);
+      start(conn);
     } else {
-      conn.setSizeHandler(size -> run(conn));
+      conn.setSizeHandler(size -> start(conn));
     }
   }
 
-  public void run(TtyConnection conn) {
+  private void start(TtyConnection conn) {
+    Screen screen = new Screen(conn.size().x(), conn.size().y()).setCursorVisible(false);
+    // Up to 20 frames per second, slowed down when the client does not keep up
+    FrameScheduler.get().register(conn, 20, () -> run(conn, screen));
+  }
+
+  public void run(TtyConnection conn, Screen screen) {
+
+    // Closing the connection cancels the frames
+    if (interrupted) {
+      conn.close();
+      return;
+    }
 
     int width = conn.size().x();
     int height = conn.size().y();
+    if (width != screen.width() || height != screen.height()) {
+      screen.resize(width, height);
+    }
 
     long t = System.currentTimeMillis();
     double a = 0.10 * 128 / width;
@@ -59,35 +75,23 @@ public class Plasma implements Consumer<TtyConnection> {
       }
     }
 
-    // Refresh the screen using Ansi magic + the unicode block code points
-    StringBuilder sb = new StringBuilder();
+    // Draw the frame with the unicode block code points, only the changed cells are written
     for (int y = 0; y < height; y++) {
-      sb.append("\033[").append(y + 1).append(";1H");
       for (int x = 0; x < width; x++) {
         double val = abc[x][y];
         if (val < 51) {
-          sb.append('\u2588');
+          screen.set(x, y, '\u2588');
         } else if (val < 102) {
-          sb.append('\u2593');
+          screen.set(x, y, '\u2593');
         } else if (val < 153) {
-          sb.append('\u2592');
+          screen.set(x, y, '\u2592');
         } else if (val < 204) {
-          sb.append('\u2591');
+          screen.set(x, y, '\u2591');
         } else {
-          sb.append(' ');
+          screen.set(x, y, ' ');
         }
       }
     }
-
-    conn.write(sb.toString());
-
-    //
-    if (!interrupted) {
-      conn.schedule(() -> {
-        run(conn);
-      }, 50, TimeUnit.MILLISECONDS);
-    } else {
-      conn.close();
-    }
+    screen.render(conn);
   }
 }
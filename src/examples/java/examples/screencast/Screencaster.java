@@ -1,11 +1,12 @@
 package examples.screencast;
 
+import io.termd.core.screen.Screen;
+import io.termd.core.tty.FrameScheduler;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.util.Vector;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Createa a screencast of the current screen to the TTY.
@@ -16,6 +17,8 @@ public class Screencaster {
 
   private final Robot robot;
   private final TtyConnection conn;
+  private Screen screen;
+  private FrameScheduler.Session session;
   private boolean interrupted;
 
   public Screencaster(Robot robot, TtyConnection conn) {
@@ -26,14 +29,20 @@ public class Screencaster {
 
   public void handle() {
     if (conn.size() != null) {
-      broadcast();
+      start();
     } else {
-      conn.setSizeHandler(size -> broadcast());
+      conn.setSizeHandler(size -> start());
     }
   }
 
+  private void start() {
+    // Up to 10 frames per second, slowed down when the client does not keep up
+    session = FrameScheduler.get().register(conn, 10, this::broadcast);
+  }
+
   private void broadcast() {
     if (interrupted) {
+      session.cancel();
       conn.close();
       return;
     }
@@ -44,9 +53,12 @@ public class Screencaster {
     Graphics2D g2d = scaled.createGraphics();
     g2d.drawImage(temp, 0, 0, null);
     g2d.dispose();
-    StringBuilder sb = new StringBuilder();
+    if (screen == null) {
+      screen = new Screen(size.x(), size.y()).setCursorVisible(false);
+    } else if (screen.width() != size.x() || screen.height() != size.y()) {
+      screen.resize(size.x(), size.y());
+    }
     for (int y = 0; y < size.y(); y++) {
-      sb.append("\033[").append(y + 1).append(";1H");
       for (int x = 0; x < size.x(); x++) {
         Color pixel = new Color(scaled.getRGB(x, y));
         int r = pixel.getRed();
@@ -54,19 +66,18 @@ public class Screencaster {
         int b = pixel.getBlue();
         double grey = (r + g + b) / 3.0;
         if (grey < 51) {
-          sb.append('\u2588');
+          screen.set(x, y, '\u2588');
         } else if (grey < 102) {
-          sb.append('\u2593');
+          screen.set(x, y, '\u2593');
         } else if (grey < 153) {
-          sb.append('\u2592');
+          screen.set(x, y, '\u2592');
         } else if (grey < 204) {
-          sb.append('\u2591');
+          screen.set(x, y, '\u2591');
         } else {
-          sb.append(' ');
+          screen.set(x, y, ' ');
         }
       }
     }
-    conn.write(sb.toString());
-    conn.schedule(this::broadcast, 100, TimeUnit.MILLISECONDS);
+    screen.render(conn);
   }
 }
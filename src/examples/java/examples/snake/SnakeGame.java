@@ -1,5 +1,6 @@
 package examples.snake;
 
+import io.termd.core.screen.Screen;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.util.Vector;
 
@@ -95,6 +96,7 @@ public class SnakeGame implements Consumer<TtyConnection> {
   class Game {
 
     final TtyConnection conn;
+    Screen screen;
     GameState game;
     boolean interrupted;
 
@@ -149,21 +151,17 @@ public class SnakeGame implements Consumer<TtyConnection> {
       }
       GameState game = this.game;
 
-      // Compute the ANSI magic string that draws the game
-      StringBuilder buf = new StringBuilder();
-      for (int y = 0;y < game.height;y++) {
-        buf.append("\033[").append(y + 1).append(";1H\033[K");
-      }
+      // Draw the game, only the cells that changed since the last iteration are written
+      screen.clear();
       for (Vector tile : game.tiles) {
-        buf.append("\033[").append(tile.y() + 1).append(";").append(tile.x() + 1).append("H").append("X");
+        screen.set(tile.x(), tile.y(), 'X');
       }
       for (Vector tile : game.snake) {
-        buf.append("\033[").append(tile.y() + 1).append(";").append(tile.x() + 1).append("H").append('0');
+        screen.set(tile.x(), tile.y(), '0');
       }
-      buf.append("\033[").append(game.height).append(";").append(game.width).append("H\033[K");
 
       // Update screen
-      conn.write(buf.toString());
+      screen.render(conn);
 
       // Now update game and handle losing the game
       try {
@@ -179,6 +177,11 @@ public class SnakeGame implements Consumer<TtyConnection> {
     }
 
     private void reset(Vector size) {
+      if (screen == null) {
+        screen = new Screen(size.x(), size.y()).setCursorVisible(false);
+      } else {
+        screen.resize(size.x(), size.y());
+      }
       // Fill factory area / 25
       game = new GameState(size.x(), size.y(), (size.x() * size.y()) / 10);
     }
@@ -17,18 +17,34 @@
 package io.termd.core.http;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.termd.core.io.BinaryDecoder;
 import io.termd.core.io.BinaryEncoder;
+import io.termd.core.io.PreEncoded;
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.metrics.StallDetector;
+import io.termd.core.metrics.TtyMetrics;
+import io.termd.core.tty.CloseListeners;
+import io.termd.core.tty.FlushScheduler;
+import io.termd.core.tty.LineDiscipline;
+import io.termd.core.tty.OutputFlowControl;
+import io.termd.core.tty.OutputScheduler;
+import io.termd.core.tty.ReadBuffer;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.tty.TtyEvent;
-import io.termd.core.tty.TtyEventDecoder;
-import io.termd.core.tty.TtyOutputMode;
+import io.termd.core.tty.TtyOutputLane;
+import io.termd.core.tty.Termios;
+import io.termd.core.util.Helper;
 import io.termd.core.util.Vector;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -61,10 +77,18 @@ public abstract class HttpTtyConnection implements TtyConnection {
   private Charset charset;
   private Vector size;
   private Consumer<Vector> sizeHandler;
-  private final TtyEventDecoder eventDecoder;
+  private final ReadBuffer readBuffer;
+  private final LineDiscipline lineDiscipline;
   private final BinaryDecoder decoder;
-  private final Consumer<int[]> stdout;
+  private final OutputScheduler stdout;
+  private final FlushScheduler flushScheduler;
+  private final long id = Helper.nextConnectionId();
+  private final StallDetector stallDetector = StallDetector.get();
+  private final String transport;
+  private final ConnectionMetrics metrics;
+  private final EchoTracer echoTracer;
   private Consumer<Void> closeHandler;
+  private final CloseListeners closeListeners = new CloseListeners();
   private Consumer<String> termHandler;
   private long lastAccessedTime = System.currentTimeMillis();
 
@@ -73,11 +97,82 @@ public abstract class HttpTtyConnection implements TtyConnection {
   }
 
   public HttpTtyConnection(Charset charset, Vector size) {
+    this(charset, size, null);
+  }
+
+  /**
+   * Create a connection, when an {@code allocator} is provided the output is encoded straight into buffers
+   * obtained from it, written with {@link #write(ByteBuf, boolean)} and flushed by a {@link FlushScheduler}.
+   *
+   * @param charset the charset
+   * @param size the initial size
+   * @param allocator the allocator or {@code null}
+   */
+  public HttpTtyConnection(Charset charset, Vector size, ByteBufAllocator allocator) {
+    this(charset, size, allocator, TtyMetrics.WEBSOCKET);
+  }
+
+  /**
+   * Create a connection like {@link #HttpTtyConnection(Charset, Vector, ByteBufAllocator)}.
+   *
+   * @param charset the charset
+   * @param size the initial size
+   * @param allocator the allocator or {@code null}
+   * @param transport the transport reported to the metrics, the echo tracer and the stall detector
+   */
+  public HttpTtyConnection(Charset charset, Vector size, ByteBufAllocator allocator, String transport) {
     this.charset = charset;
     this.size = size;
-    this.eventDecoder = new TtyEventDecoder(3, 26, 4);
-    this.decoder = new BinaryDecoder(512, charset, eventDecoder);
-    this.stdout = new TtyOutputMode(new BinaryEncoder(charset, this::write));
+    this.transport = transport;
+    this.metrics = TtyMetrics.get().connectionOpened(transport);
+    this.echoTracer = EchoTracer.create(id, transport);
+    this.readBuffer = new ReadBuffer(this::execute);
+    this.readBuffer.setFlowControlHandler(this::setReadPaused);
+    this.lineDiscipline = new LineDiscipline(new Termios()).setReadHandler(readBuffer).setMetrics(metrics).setEchoTracer(echoTracer);
+    this.decoder = new BinaryDecoder(512, charset, lineDiscipline);
+    BinaryEncoder encoder;
+    if (allocator != null) {
+      flushScheduler = new FlushScheduler(this, buf -> {
+        metrics.bytesWritten(buf.readableBytes());
+        write(buf, false);
+      }, () -> {
+        flushTransport();
+        echoTracer.flushed();
+      });
+      encoder = new BinaryEncoder(charset, allocator, flushScheduler);
+    } else {
+      flushScheduler = null;
+      encoder = new BinaryEncoder(charset, bytes -> {
+        metrics.bytesWritten(bytes.length);
+        write(bytes);
+        echoTracer.flushed();
+      });
+    }
+    this.stdout = new OutputScheduler(new OutputFlowControl(encoder.setFlags(BinaryEncoder.ONLCR)), this::execute)
+        .setMetrics(metrics);
+    this.lineDiscipline.setEchoHandler(stdout).setStopHandler(stdout::setStopped).setFlushHandler(this::flush);
+  }
+
+  @Override
+  public long id() {
+    return id;
+  }
+
+  /**
+   * @return the transport of this connection
+   */
+  public String transport() {
+    return transport;
+  }
+
+  @Override
+  public ConnectionMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public EchoTracer echoTracer() {
+    return echoTracer;
   }
 
   @Override
@@ -102,6 +197,70 @@ public abstract class HttpTtyConnection implements TtyConnection {
 
   protected abstract void write(byte[] buffer);
 
+  /**
+   * @return the flush scheduler of this connection or {@code null} when the output is written as byte arrays
+   */
+  public FlushScheduler getFlushScheduler() {
+    return flushScheduler;
+  }
+
+  /**
+   * Flush the output written to the transport now, this should be called before the transport is closed.
+   */
+  protected void flushOutput() {
+    if (flushScheduler != null) {
+      flushScheduler.flush();
+    }
+  }
+
+  /**
+   * Return a future completed when the data written so far has been written by the transport, the default
+   * implementation returns a completed future.
+   *
+   * @return the future
+   */
+  protected CompletableFuture<Void> whenSent() {
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Stop or resume reading data from the client, the default implementation does nothing.
+   *
+   * @param paused true to stop reading
+   */
+  protected void setReadPaused(boolean paused) {
+  }
+
+  /**
+   * Write a buffer, the buffer ownership is transferred to this method. The default implementation copies
+   * the buffer to a byte array.
+   *
+   * @param buffer the buffer
+   */
+  protected void write(ByteBuf buffer) {
+    byte[] bytes = ByteBufUtil.getBytes(buffer);
+    buffer.release();
+    write(bytes);
+  }
+
+  /**
+   * Write a buffer, the buffer ownership is transferred to this method. When {@code flush} is false the buffer
+   * can be held until {@link #flushTransport()} is called, the default implementation writes it with
+   * {@link #write(ByteBuf)}.
+   *
+   * @param buffer the buffer
+   * @param flush whether to flush the buffer
+   */
+  protected void write(ByteBuf buffer, boolean flush) {
+    write(buffer);
+  }
+
+  /**
+   * Flush the buffers written without being flushed, the default implementation does nothing.
+   */
+  protected void flushTransport() {
+  }
+
   /**
    * Special case to handle tty events.
    *
@@ -109,10 +268,26 @@ public abstract class HttpTtyConnection implements TtyConnection {
    */
   public void writeToDecoder(byte[] bytes) {
     lastAccessedTime = System.currentTimeMillis();
-    decoder.write(bytes);
+    echoTracer.received();
+    metrics.bytesRead(bytes.length);
+    stallDetector.enter(id, transport);
+    try {
+      decoder.write(bytes);
+    } finally {
+      stallDetector.exit();
+    }
   }
 
   public void writeToDecoder(String msg) {
+    stallDetector.enter(id, transport);
+    try {
+      handleMessage(msg);
+    } finally {
+      stallDetector.exit();
+    }
+  }
+
+  private void handleMessage(String msg) {
     ObjectMapper mapper = new ObjectMapper();
     Map<String, Object> obj;
     String action;
@@ -127,8 +302,11 @@ public abstract class HttpTtyConnection implements TtyConnection {
       switch (action) {
         case "read":
           lastAccessedTime = System.currentTimeMillis();
+          echoTracer.received();
           String data = (String) obj.get("data");
-          decoder.write(data.getBytes()); //write back echo
+          byte[] bytes = data.getBytes();
+          metrics.bytesRead(bytes.length);
+          decoder.write(bytes); //write back echo
           break;
         case "resize":
           try {
@@ -175,26 +353,99 @@ public abstract class HttpTtyConnection implements TtyConnection {
 
   @Override
   public BiConsumer<TtyEvent, Integer> getEventHandler() {
-    return eventDecoder.getEventHandler();
+    return lineDiscipline.getEventHandler();
   }
 
   @Override
   public void setEventHandler(BiConsumer<TtyEvent, Integer> handler) {
-    eventDecoder.setEventHandler(handler);
+    lineDiscipline.setEventHandler(handler);
+  }
+
+  private void flush() {
+    readBuffer.discard();
+    stdout.discard();
+  }
+
+  @Override
+  public Termios termios() {
+    return lineDiscipline.getTermios();
   }
 
   public Consumer<int[]> getStdinHandler() {
-    return eventDecoder.getReadHandler();
+    return readBuffer.getReadHandler();
   }
 
   public void setStdinHandler(Consumer<int[]> handler) {
-    eventDecoder.setReadHandler(handler);
+    readBuffer.setReadHandler(handler);
   }
 
   public Consumer<int[]> stdoutHandler() {
     return stdout;
   }
 
+  @Override
+  public Consumer<int[]> stdoutHandler(TtyOutputLane lane) {
+    return stdout.lane(lane);
+  }
+
+  @Override
+  public void executeAfterBulk(Runnable task) {
+    stdout.executeAfterBulk(task);
+  }
+
+  @Override
+  public TtyConnection write(PreEncoded sequence) {
+    stdout.write(sequence);
+    return this;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return stdout.isWritable();
+  }
+
+  @Override
+  public Consumer<Boolean> getWritabilityHandler() {
+    return stdout.getWritabilityHandler();
+  }
+
+  @Override
+  public void setWritabilityHandler(Consumer<Boolean> handler) {
+    stdout.setWritabilityHandler(handler);
+  }
+
+  @Override
+  public CompletableFuture<Void> whenWritten() {
+    CompletableFuture<Void> fut = new CompletableFuture<>();
+    stdout.executeAfterBulk(() -> fut.complete(null));
+    return fut.thenCompose(v -> {
+      flushOutput();
+      return whenSent();
+    });
+  }
+
+  /**
+   * Signal the writability of the transport changed, the bulk output is held while the transport is not writable.
+   *
+   * @param writable the transport writability
+   */
+  public void onWritabilityChanged(boolean writable) {
+    stdout.setTransportWritable(writable);
+  }
+
+  /**
+   * Signal the connection is closed, the queued output is discarded and the close handler is called.
+   */
+  public void onClose() {
+    metrics.closed();
+    stdout.close();
+    closeListeners.close();
+    Consumer<Void> handler = closeHandler;
+    if (handler != null) {
+      handler.accept(null);
+    }
+  }
+
   @Override
   public void setCloseHandler(Consumer<Void> closeHandler) {
     this.closeHandler = closeHandler;
@@ -204,4 +455,9 @@ public abstract class HttpTtyConnection implements TtyConnection {
   public Consumer<Void> getCloseHandler() {
     return closeHandler;
   }
+
+  @Override
+  public void addCloseListener(Runnable listener) {
+    closeListeners.add(listener);
+  }
 }
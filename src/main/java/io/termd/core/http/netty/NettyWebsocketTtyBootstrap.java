@@ -29,10 +29,13 @@ import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.termd.core.tty.BlockingTtyConnection;
+import io.termd.core.tty.IdleTimeout;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.util.Helper;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -47,6 +50,8 @@ public class NettyWebsocketTtyBootstrap {
   private int port;
   private EventLoopGroup group;
   private Channel channel;
+  private IdleTimeout idleTimeout;
+  private Executor handlerExecutor;
 
   public NettyWebsocketTtyBootstrap() {
     this.host = "localhost";
@@ -71,7 +76,44 @@ public class NettyWebsocketTtyBootstrap {
     return this;
   }
 
+  public IdleTimeout getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Set the idle timeout closing the idle connections, the timeouts of all the bootstraps share the same timer.
+   *
+   * @param idleTimeout the idle timeout or {@code null} to keep the connections open
+   * @return this object
+   */
+  public NettyWebsocketTtyBootstrap setIdleTimeout(IdleTimeout idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  public Executor getHandlerExecutor() {
+    return handlerExecutor;
+  }
+
+  /**
+   * Set the executor running the connection handlers, the handlers can block the executor threads instead of the
+   * transport event loop, see {@link BlockingTtyConnection#virtualThreadExecutor()}.
+   *
+   * @param handlerExecutor the executor or {@code null} to run the handlers on the event loop
+   * @return this object
+   */
+  public NettyWebsocketTtyBootstrap setHandlerExecutor(Executor handlerExecutor) {
+    this.handlerExecutor = handlerExecutor;
+    return this;
+  }
+
   public void start(Consumer<TtyConnection> handler, Consumer<Throwable> doneHandler) {
+    if (idleTimeout != null) {
+      handler = idleTimeout.wrap(handler);
+    }
+    if (handlerExecutor != null) {
+      handler = BlockingTtyConnection.wrap(handler, handlerExecutor);
+    }
     group = new NioEventLoopGroup();
 
     ServerBootstrap b = new ServerBootstrap();
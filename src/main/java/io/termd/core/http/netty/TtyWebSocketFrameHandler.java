@@ -18,14 +18,20 @@ package io.termd.core.http.netty;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.termd.core.http.HttpTtyConnection;
+import io.termd.core.metrics.StallDetector;
+import io.termd.core.metrics.TtyMetrics;
 import io.termd.core.tty.TtyConnection;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -55,27 +61,75 @@ public class TtyWebSocketFrameHandler extends SimpleChannelInboundHandler<TextWe
     if (evt == WebSocketServerProtocolHandler.ServerHandshakeStateEvent.HANDSHAKE_COMPLETE) {
       ctx.pipeline().remove(HttpRequestHandler.class);
       group.add(ctx.channel());
-      conn = new HttpTtyConnection() {
+      conn = new HttpTtyConnection(StandardCharsets.UTF_8, HttpTtyConnection.DEFAULT_SIZE, ctx.alloc(), TtyMetrics.WEBSOCKET) {
+
+        private volatile ChannelFuture lastWrite;
+
         @Override
         protected void write(byte[] buffer) {
-          ByteBuf byteBuf = Unpooled.buffer();
-          byteBuf.writeBytes(buffer);
-          context.writeAndFlush(new TextWebSocketFrame(byteBuf));
+          write(Unpooled.wrappedBuffer(buffer));
+        }
+
+        @Override
+        protected void write(ByteBuf buffer) {
+          write(buffer, true);
+        }
+
+        @Override
+        protected void write(ByteBuf buffer, boolean flush) {
+          TextWebSocketFrame frame = new TextWebSocketFrame(buffer);
+          lastWrite = flush ? context.writeAndFlush(frame) : context.write(frame);
+        }
+
+        @Override
+        protected void flushTransport() {
+          context.flush();
+        }
+
+        @Override
+        protected CompletableFuture<Void> whenSent() {
+          CompletableFuture<Void> fut = new CompletableFuture<>();
+          ChannelFuture last = lastWrite;
+          if (last == null) {
+            fut.complete(null);
+          } else {
+            // Writes complete in order, the last write completes after the frames written before it
+            last.addListener(future -> {
+              if (future.isSuccess()) {
+                fut.complete(null);
+              } else {
+                fut.completeExceptionally(future.cause());
+              }
+            });
+          }
+          return fut;
+        }
+
+        @Override
+        protected void setReadPaused(boolean paused) {
+          context.channel().config().setAutoRead(!paused);
         }
 
         @Override
         public void schedule(Runnable task, long delay, TimeUnit unit) {
-          context.executor().schedule(task, delay, unit);
+          context.executor().schedule(StallDetector.get().wrap(id(), transport(), task), delay, unit);
         }
 
         @Override
         public void execute(Runnable task) {
-          context.executor().execute(task);
+          context.executor().execute(StallDetector.get().wrap(id(), transport(), task));
         }
 
         @Override
         public void close() {
-          context.close();
+          flushOutput();
+          ChannelFuture last = lastWrite;
+          if (last == null) {
+            context.close();
+          } else {
+            // Closing the channel right away would discard the frames not yet written
+            last.addListener(ChannelFutureListener.CLOSE);
+          }
         }
       };
       handler.accept(conn);
@@ -84,16 +138,22 @@ public class TtyWebSocketFrameHandler extends SimpleChannelInboundHandler<TextWe
     }
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    HttpTtyConnection tmp = conn;
+    if (tmp != null) {
+      tmp.onWritabilityChanged(ctx.channel().isWritable());
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
     HttpTtyConnection tmp = conn;
     context = null;
     conn = null;
     if (tmp != null) {
-      Consumer<Void> closeHandler = tmp.getCloseHandler();
-      if (closeHandler != null) {
-        closeHandler.accept(null);
-      }
+      tmp.onClose();
     }
   }
 
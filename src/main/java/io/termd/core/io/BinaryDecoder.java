@@ -16,43 +16,161 @@
 
 package io.termd.core.io;
 
-import io.termd.core.util.Helper;
+import io.termd.core.util.ByteScanner;
+import io.termd.core.util.CodePointSink;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.IntBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 /**
+ * Decodes bytes to code points.<p>
+ *
+ * UTF-8 is decoded by a dedicated automaton that writes code points in a reusable buffer and carries
+ * incomplete sequences across writes, ASCII runs are found with a {@link ByteScanner} and copied in bulk.
+ * Single byte charsets are decoded with the table of their {@link SingleByteCodec}. Any other charset is decoded
+ * with its {@link CharsetDecoder} straight from the written array, only an incomplete trailing sequence is carried
+ * over to the next write.<p>
+ *
+ * Whatever the size of the written data, code points are emitted by chunks of at most the chunk size, so the memory
+ * used by a decoder stays bounded. A {@link CodePointSink} receives slices of the reusable buffer, any other consumer
+ * receives a copy.
+ *
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
  */
 public class BinaryDecoder {
 
-  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+  /**
+   * The maximum length of an incomplete sequence carried over between writes by the generic path.
+   */
+  private static final int MAX_SEQUENCE_LENGTH = 16;
+
+  // UTF-8 byte classes
+  private static final int CLASS_COUNT = 12;
+  private static final int ASCII = 0;       // 00..7F
+  private static final int TAIL_80 = 1;     // 80..8F
+  private static final int TAIL_90 = 2;     // 90..9F
+  private static final int TAIL_A0 = 3;     // A0..BF
+  private static final int INVALID = 4;     // C0, C1, F5..FF
+  private static final int LEAD_2 = 5;      // C2..DF
+  private static final int LEAD_E0 = 6;     // E0
+  private static final int LEAD_3 = 7;      // E1..EC, EE, EF
+  private static final int LEAD_ED = 8;     // ED
+  private static final int LEAD_F0 = 9;     // F0
+  private static final int LEAD_4 = 10;     // F1..F3
+  private static final int LEAD_F4 = 11;    // F4
+
+  // UTF-8 automaton states
+  private static final int ACCEPT = 0;
+  private static final int REJECT = 1;
+  private static final int NEED_1 = 2;      // 80..BF
+  private static final int NEED_2 = 3;      // 80..BF 80..BF
+  private static final int NEED_3 = 4;      // 80..BF 80..BF 80..BF
+  private static final int AFTER_E0 = 5;    // A0..BF 80..BF
+  private static final int AFTER_ED = 6;    // 80..9F 80..BF (no surrogates)
+  private static final int AFTER_F0 = 7;    // 90..BF 80..BF 80..BF
+  private static final int AFTER_F4 = 8;    // 80..8F 80..BF 80..BF (up to U+10FFFF)
+
+  private static final byte[] CLASSES = new byte[256];
+  private static final byte[] TRANSITIONS = new byte[9 * CLASS_COUNT];
+  private static final int[] LEAD_MASKS = new int[CLASS_COUNT];
+
+  static {
+    for (int b = 0;b < 256;b++) {
+      int cls;
+      if (b < 0x80) {
+        cls = ASCII;
+      } else if (b < 0x90) {
+        cls = TAIL_80;
+      } else if (b < 0xA0) {
+        cls = TAIL_90;
+      } else if (b < 0xC0) {
+        cls = TAIL_A0;
+      } else if (b < 0xC2) {
+        cls = INVALID;
+      } else if (b < 0xE0) {
+        cls = LEAD_2;
+      } else if (b == 0xE0) {
+        cls = LEAD_E0;
+      } else if (b == 0xED) {
+        cls = LEAD_ED;
+      } else if (b < 0xF0) {
+        cls = LEAD_3;
+      } else if (b == 0xF0) {
+        cls = LEAD_F0;
+      } else if (b < 0xF4) {
+        cls = LEAD_4;
+      } else if (b == 0xF4) {
+        cls = LEAD_F4;
+      } else {
+        cls = INVALID;
+      }
+      CLASSES[b] = (byte) cls;
+    }
+    Arrays.fill(TRANSITIONS, (byte) REJECT);
+    transition(ACCEPT, ACCEPT, ASCII);
+    transition(ACCEPT, NEED_1, LEAD_2);
+    transition(ACCEPT, AFTER_E0, LEAD_E0);
+    transition(ACCEPT, NEED_2, LEAD_3);
+    transition(ACCEPT, AFTER_ED, LEAD_ED);
+    transition(ACCEPT, AFTER_F0, LEAD_F0);
+    transition(ACCEPT, NEED_3, LEAD_4);
+    transition(ACCEPT, AFTER_F4, LEAD_F4);
+    transition(NEED_1, ACCEPT, TAIL_80, TAIL_90, TAIL_A0);
+    transition(NEED_2, NEED_1, TAIL_80, TAIL_90, TAIL_A0);
+    transition(NEED_3, NEED_2, TAIL_80, TAIL_90, TAIL_A0);
+    transition(AFTER_E0, NEED_1, TAIL_A0);
+    transition(AFTER_ED, NEED_1, TAIL_80, TAIL_90);
+    transition(AFTER_F0, NEED_2, TAIL_90, TAIL_A0);
+    transition(AFTER_F4, NEED_2, TAIL_80);
+    LEAD_MASKS[ASCII] = 0x7F;
+    LEAD_MASKS[LEAD_2] = 0x1F;
+    LEAD_MASKS[LEAD_E0] = LEAD_MASKS[LEAD_3] = LEAD_MASKS[LEAD_ED] = 0x0F;
+    LEAD_MASKS[LEAD_F0] = LEAD_MASKS[LEAD_4] = LEAD_MASKS[LEAD_F4] = 0x07;
+  }
+
+  private static void transition(int from, int to, int... classes) {
+    for (int cls : classes) {
+      TRANSITIONS[from * CLASS_COUNT + cls] = (byte) to;
+    }
+  }
 
   private CharsetDecoder decoder;
-  private ByteBuffer bBuf;
+  private SingleByteCodec singleByte;
+  private final ByteBuffer carry;
   private final CharBuffer cBuf;
-  private final Consumer<int[]> onChar;
+  private final CodePointSink onChar;
+  private final int[] codePoints;
+  private int count;
+  private int state;
+  private int codePoint;
 
   public BinaryDecoder(Charset charset, Consumer<int[]> onChar) {
     this(2, charset, onChar);
   }
 
-  public BinaryDecoder(int initialSize, Charset charset, Consumer<int[]> onChar) {
-    if (initialSize < 2) {
-      throw new IllegalArgumentException("Initial size must be at least 2");
+  /**
+   * Create a decoder.
+   *
+   * @param chunkSize the maximum number of code points emitted at once
+   * @param charset the charset
+   * @param onChar the code points consumer
+   */
+  public BinaryDecoder(int chunkSize, Charset charset, Consumer<int[]> onChar) {
+    if (chunkSize < 2) {
+      throw new IllegalArgumentException("Chunk size must be at least 2");
     }
-    decoder = charset.newDecoder();
-    decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
-    decoder.onMalformedInput(CodingErrorAction.REPLACE);
-    bBuf = EMPTY;
-    cBuf = CharBuffer.allocate(initialSize); // We need at least 2
-    this.onChar = onChar;
+    carry = ByteBuffer.allocate(MAX_SEQUENCE_LENGTH);
+    cBuf = CharBuffer.allocate(chunkSize); // We need at least 2
+    codePoints = new int[chunkSize];
+    this.onChar = CodePointSink.of(onChar);
+    setCharset(charset);
   }
 
   /**
@@ -61,9 +179,19 @@ public class BinaryDecoder {
    * @param charset the new charset
    */
   public void setCharset(Charset charset) {
-    decoder = charset.newDecoder();
-    decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
-    decoder.onMalformedInput(CodingErrorAction.REPLACE);
+    decoder = null;
+    singleByte = null;
+    if (!StandardCharsets.UTF_8.equals(charset)) {
+      singleByte = SingleByteCodec.forCharset(charset);
+    }
+    if (singleByte == null && !StandardCharsets.UTF_8.equals(charset)) {
+      decoder = charset.newDecoder();
+      decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+      decoder.onMalformedInput(CodingErrorAction.REPLACE);
+    }
+    carry.clear();
+    cBuf.clear();
+    state = ACCEPT;
   }
 
   public void write(byte[] data) {
@@ -71,71 +199,153 @@ public class BinaryDecoder {
   }
 
   public void write(byte[] data, int start, int len) {
+    if (singleByte != null) {
+      decodeSingleByte(data, start, start + len);
+      flush();
+    } else if (decoder == null) {
+      decodeUtf8(data, start, start + len);
+      flush();
+    } else {
+      decode(data, start, len);
+    }
+  }
 
-    // Fill the byte buffer
-    int remaining = bBuf.remaining();
-    if (len > remaining) {
-      // Allocate a new buffer
-      ByteBuffer tmp = bBuf;
-      int length = tmp.position() + len;
-      bBuf = ByteBuffer.allocate(length);
-      tmp.flip();
-      bBuf.put(tmp);
+  private void decodeUtf8(byte[] data, int from, int to) {
+    int state = this.state;
+    int codePoint = this.codePoint;
+    int index = from;
+    while (index < to) {
+      int b = data[index] & 0xFF;
+      if (state == ACCEPT && b < 0x80) {
+        int end = ByteScanner.indexOfNonAscii(data, index + 1, to);
+        index = widen(data, index, end == -1 ? to : end);
+        continue;
+      }
+      int cls = CLASSES[b];
+      int next = TRANSITIONS[state * CLASS_COUNT + cls];
+      if (next == REJECT) {
+        append('\uFFFD');
+        if (state == ACCEPT) {
+          index++;
+        } else {
+          // The byte does not continue the current sequence, decode it again as the start of a new one
+          state = ACCEPT;
+        }
+        continue;
+      }
+      codePoint = state == ACCEPT ? b & LEAD_MASKS[cls] : (codePoint << 6) | (b & 0x3F);
+      state = next;
+      if (state == ACCEPT) {
+        append(codePoint);
+      }
+      index++;
     }
-    bBuf.put(data, start, len);
-    bBuf.flip();
+    this.state = state;
+    this.codePoint = codePoint;
+  }
 
-    // Drain the byte buffer
+  private void decodeSingleByte(byte[] data, int from, int to) {
+    SingleByteCodec codec = singleByte;
+    while (from < to) {
+      int length = Math.min(to - from, codePoints.length - count);
+      for (int i = 0;i < length;i++) {
+        codePoints[count + i] = codec.decode(data[from + i]);
+      }
+      count += length;
+      from += length;
+      if (count == codePoints.length) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Copy an ASCII run to the code point buffer.
+   *
+   * @return the end of the run
+   */
+  private int widen(byte[] data, int from, int to) {
+    while (from < to) {
+      int length = Math.min(to - from, codePoints.length - count);
+      for (int i = 0;i < length;i++) {
+        codePoints[count + i] = data[from + i];
+      }
+      count += length;
+      from += length;
+      if (count == codePoints.length) {
+        flush();
+      }
+    }
+    return from;
+  }
+
+  private void append(int codePoint) {
+    codePoints[count++] = codePoint;
+    if (count == codePoints.length) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    if (count > 0) {
+      int length = count;
+      count = 0;
+      onChar.accept(codePoints, 0, length);
+    }
+  }
+
+  private void decode(byte[] data, int start, int len) {
+    ByteBuffer in = ByteBuffer.wrap(data, start, len);
+    // Complete the sequence carried over from the previous write one byte at a time
+    while (carry.position() > 0 && in.hasRemaining()) {
+      carry.put(in.get());
+      carry.flip();
+      decode(carry);
+      carry.compact();
+      if (!carry.hasRemaining()) {
+        // Cannot happen with the replacing decoder unless the charset has very long sequences
+        throw new IllegalStateException("Incomplete sequence larger than " + carry.capacity() + " bytes");
+      }
+    }
+    if (carry.position() == 0) {
+      decode(in);
+      carry.put(in);
+    }
+    flush();
+  }
+
+  /**
+   * Decode the buffer until underflow, the code points are emitted by chunks of the code point buffer size.
+   */
+  private void decode(ByteBuffer in) {
     while (true) {
-      IntBuffer iBuf = IntBuffer.allocate(bBuf.remaining());
-      CoderResult result = decoder.decode(bBuf, cBuf, false);
+      CoderResult result = decoder.decode(in, cBuf, false);
       cBuf.flip();
       while (cBuf.hasRemaining()) {
         char c = cBuf.get();
-        if (Character.isSurrogate(c)) {
-          if (Character.isHighSurrogate(c)) {
-            if (cBuf.hasRemaining()) {
-              char low = cBuf.get();
-              if (Character.isLowSurrogate(low)) {
-                int codePoint = Character.toCodePoint(c, low);
-                if (Character.isValidCodePoint(codePoint)) {
-                  iBuf.put(codePoint);
-                } else {
-                  throw new UnsupportedOperationException("Handle me gracefully");
-                }
-              } else {
-                throw new UnsupportedOperationException("Handle me gracefully");
-              }
-            } else {
-              throw new UnsupportedOperationException("Handle me gracefully");
-            }
+        if (Character.isHighSurrogate(c)) {
+          if (!cBuf.hasRemaining()) {
+            // Wait for the low surrogate
+            cBuf.position(cBuf.position() - 1);
+            break;
+          }
+          char low = cBuf.get();
+          if (Character.isLowSurrogate(low)) {
+            append(Character.toCodePoint(c, low));
           } else {
-            throw new UnsupportedOperationException("Handle me gracefully");
+            append('\uFFFD');
+            cBuf.position(cBuf.position() - 1);
           }
+        } else if (Character.isLowSurrogate(c)) {
+          append('\uFFFD');
         } else {
-          iBuf.put((int) c);
+          append(c);
         }
       }
-      iBuf.flip();
-      int[] codePoints = new int[iBuf.limit()];
-      iBuf.get(codePoints);
-      onChar.accept(codePoints);
       cBuf.compact();
-      if (result.isOverflow()) {
-        // We still have work to do
-      } else if (result.isUnderflow()) {
-        if (bBuf.hasRemaining()) {
-          // We need more input
-          Helper.noop();
-        } else {
-          // We are done
-          Helper.noop();
-        }
+      if (result.isUnderflow()) {
         break;
-      } else {
-        throw new UnsupportedOperationException("Handle me gracefully");
       }
     }
-    bBuf.compact();
   }
 }
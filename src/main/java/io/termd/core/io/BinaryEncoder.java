@@ -16,23 +16,76 @@
 
 package io.termd.core.io;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.termd.core.util.CodePointSink;
+
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.function.Consumer;
 
 /**
+ * Encodes code points to bytes.<p>
+ *
+ * The encoder either produces byte arrays or writes straight into buffers obtained from a {@link ByteBufAllocator},
+ * the ownership of each buffer is then transferred to the buffer consumer.<p>
+ *
+ * The output translation flags ({@link #ONLCR}, {@link #OCRNL}) are applied during the encoding pass so each
+ * call produces a single array or buffer whatever the number of lines it contains. UTF-8 is encoded in a single
+ * pass that narrows ASCII runs straight to bytes and single byte charsets are encoded with the table of their
+ * {@link SingleByteCodec}, direct buffers are filled in bulk from a small scratch array.<p>
+ *
+ * An encoder is not thread safe: it reuses its encoding buffers across calls, so {@link #accept} must not be called
+ * concurrently, the connections serialize the calls with their output flow control. The charset and the flags can
+ * be changed from any thread, the change applies to the next call.
+ *
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
  */
-public class BinaryEncoder implements Consumer<int[]> {
+public class BinaryEncoder implements CodePointSink {
+
+  /**
+   * Map {@code NL} to {@code CR-NL} on output.
+   */
+  public static final int ONLCR = 0x01;
+
+  /**
+   * Map {@code CR} to {@code NL} on output.
+   */
+  public static final int OCRNL = 0x02;
+
+  private static final int SCRATCH_SIZE = 256;
 
   private volatile Charset charset;
+  private volatile int flags;
   final Consumer<byte[]> onByte;
+  private final ByteBufAllocator allocator;
+  private final Consumer<ByteBuf> onBuffer;
+  // Encoding caches, only accessed by the serialized accept calls
+  private CharsetEncoder encoder;
+  private CharBuffer chars;
+  private Charset singleByteCharset;
+  private SingleByteCodec singleByte;
+  private byte[] scratch;
 
   public BinaryEncoder(Charset charset, Consumer<byte[]> onByte) {
     this.charset = charset;
     this.onByte = onByte;
+    this.allocator = null;
+    this.onBuffer = null;
+  }
+
+  public BinaryEncoder(Charset charset, ByteBufAllocator allocator, Consumer<ByteBuf> onBuffer) {
+    this.charset = charset;
+    this.onByte = null;
+    this.allocator = allocator;
+    this.onBuffer = onBuffer;
   }
 
   /**
@@ -44,24 +97,267 @@ public class BinaryEncoder implements Consumer<int[]> {
     this.charset = charset;
   }
 
+  /**
+   * @return the output translation flags
+   */
+  public int getFlags() {
+    return flags;
+  }
+
+  /**
+   * Set the output translation flags, a combination of {@link #ONLCR} and {@link #OCRNL}.
+   *
+   * @param flags the new flags
+   * @return this encoder
+   */
+  public BinaryEncoder setFlags(int flags) {
+    this.flags = flags;
+    return this;
+  }
+
   @Override
-  public void accept(int[] codePoints) {
-    final char[] tmp = new char[2];
+  public void accept(int[] codePoints, int offset, int length) {
+    Charset charset = this.charset;
+    int flags = this.flags;
+    int to = offset + length;
+    if (charset != singleByteCharset) {
+      singleByte = StandardCharsets.UTF_8.equals(charset) ? null : SingleByteCodec.forCharset(charset);
+      singleByteCharset = charset;
+    }
+    SingleByteCodec singleByte = this.singleByte;
+    if (onBuffer != null) {
+      if (length > 0) {
+        ByteBuf buffer;
+        if (singleByte != null) {
+          buffer = allocator.ioBuffer(singleByteLength(codePoints, offset, to, flags));
+          encode(singleByte, codePoints, offset, to, flags, buffer);
+        } else if (StandardCharsets.UTF_8.equals(charset)) {
+          buffer = allocator.ioBuffer(utf8Length(codePoints, offset, to, flags));
+          encode(null, codePoints, offset, to, flags, buffer);
+        } else {
+          buffer = encode(charset, codePoints, offset, to, flags);
+        }
+        onBuffer.accept(buffer);
+      }
+    } else if (singleByte != null) {
+      byte[] bytes = new byte[singleByteLength(codePoints, offset, to, flags)];
+      encodeSingleByte(singleByte, codePoints, offset, to, flags, bytes, 0);
+      onByte.accept(bytes);
+    } else if (StandardCharsets.UTF_8.equals(charset)) {
+      byte[] bytes = new byte[utf8Length(codePoints, offset, to, flags)];
+      encodeUtf8(codePoints, offset, to, flags, bytes, 0);
+      onByte.accept(bytes);
+    } else {
+      ByteBuffer bytesBuf = charset.encode(toChars(codePoints, offset, to, flags));
+      byte[] bytes = bytesBuf.array();
+      if (bytesBuf.limit() < bytesBuf.array().length) {
+        bytes = Arrays.copyOf(bytes, bytesBuf.limit());
+      }
+      onByte.accept(bytes);
+    }
+  }
+
+  /**
+   * Write a pre encoded sequence, its bytes are encoded at most once per charset and translation flags. The
+   * consumer receives a copy of the bytes or a read-only buffer wrapping them.
+   *
+   * @param sequence the sequence
+   */
+  public void write(PreEncoded sequence) {
+    byte[] bytes = sequence.bytes(charset, flags);
+    if (onBuffer != null) {
+      if (bytes.length > 0) {
+        onBuffer.accept(Unpooled.wrappedBuffer(bytes).asReadOnly());
+      }
+    } else {
+      onByte.accept(bytes.clone());
+    }
+  }
+
+  /**
+   * Apply the translation flags to a code point.
+   *
+   * @return the translated code point or {@code -1} when it must be expanded to {@code CR-NL}
+   */
+  private static int translate(int codePoint, int flags) {
+    if (codePoint == '\n') {
+      return (flags & ONLCR) != 0 ? -1 : '\n';
+    } else if (codePoint == '\r') {
+      return (flags & OCRNL) != 0 ? '\n' : '\r';
+    }
+    return codePoint;
+  }
+
+  private CharBuffer toChars(int[] codePoints, int from, int to, int flags) {
     int capacity = 0;
-    for (int codePoint : codePoints) {
-      capacity += Character.charCount(codePoint);
+    for (int i = from;i < to;i++) {
+      int codePoint = codePoints[i];
+      capacity += codePoint == '\n' && (flags & ONLCR) != 0 ? 2 : Character.charCount(codePoint);
+    }
+    if (chars == null || chars.capacity() < capacity) {
+      chars = CharBuffer.allocate(capacity);
+    }
+    chars.clear();
+    for (int i = from;i < to;i++) {
+      int codePoint = codePoints[i];
+      if (codePoint <= '\r' && codePoint >= 0) {
+        codePoint = translate(codePoint, flags);
+        if (codePoint == -1) {
+          chars.put('\r');
+          codePoint = '\n';
+        }
+      }
+      if (Character.isBmpCodePoint(codePoint)) {
+        chars.put((char) codePoint);
+      } else if (Character.isValidCodePoint(codePoint)) {
+        chars.put(Character.highSurrogate(codePoint));
+        chars.put(Character.lowSurrogate(codePoint));
+      } else {
+        chars.put('?');
+      }
+    }
+    chars.flip();
+    return chars;
+  }
+
+  private ByteBuf encode(Charset charset, int[] codePoints, int from, int to, int flags) {
+    if (encoder == null || !encoder.charset().equals(charset)) {
+      encoder = charset.newEncoder();
+      encoder.onMalformedInput(CodingErrorAction.REPLACE);
+      encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    CharBuffer chars = toChars(codePoints, from, to, flags);
+    ByteBuf buffer = allocator.ioBuffer((int) Math.ceil(chars.remaining() * encoder.maxBytesPerChar()));
+    encoder.reset();
+    boolean flushing = false;
+    while (true) {
+      ByteBuffer out = buffer.nioBuffer(buffer.writerIndex(), buffer.writableBytes());
+      CoderResult result = flushing ? encoder.flush(out) : encoder.encode(chars, out, true);
+      buffer.writerIndex(buffer.writerIndex() + out.position());
+      if (result.isOverflow()) {
+        // Stateful encoders can write more than the estimate, e.g. when they flush their shift sequence
+        buffer.ensureWritable(Math.max(buffer.capacity(), 16));
+      } else if (flushing) {
+        return buffer;
+      } else {
+        flushing = true;
+      }
+    }
+  }
+
+  private static int singleByteLength(int[] codePoints, int from, int to, int flags) {
+    int length = to - from;
+    if ((flags & ONLCR) != 0) {
+      for (int i = from;i < to;i++) {
+        if (codePoints[i] == '\n') {
+          length++;
+        }
+      }
+    }
+    return length;
+  }
+
+  private static int encodeSingleByte(SingleByteCodec codec, int[] codePoints, int from, int to, int flags, byte[] bytes, int index) {
+    for (int i = from;i < to;i++) {
+      int codePoint = codePoints[i];
+      if (codePoint <= '\r' && codePoint >= 0 && flags != 0) {
+        codePoint = translate(codePoint, flags);
+        if (codePoint == -1) {
+          bytes[index++] = codec.encode('\r');
+          codePoint = '\n';
+        }
+      }
+      bytes[index++] = codec.encode(codePoint);
     }
-    CharBuffer charBuf = CharBuffer.allocate(capacity);
-    for (int codePoint : codePoints) {
-      int size = Character.toChars(codePoint, tmp, 0);
-      charBuf.put(tmp, 0, size);
+    return index;
+  }
+
+  private static int utf8Length(int[] codePoints, int from, int to, int flags) {
+    boolean onlcr = (flags & ONLCR) != 0;
+    int length = 0;
+    for (int i = from;i < to;i++) {
+      int codePoint = codePoints[i];
+      if ((codePoint & ~0x7F) == 0) {
+        length += codePoint == '\n' && onlcr ? 2 : 1;
+      } else if ((codePoint & ~0x7FF) == 0) {
+        length += 2;
+      } else if ((codePoint & ~0xFFFF) == 0) {
+        length += Character.isSurrogate((char) codePoint) ? 1 : 3;
+      } else if (codePoint > 0 && codePoint <= Character.MAX_CODE_POINT) {
+        length += 4;
+      } else {
+        length++;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Encode code points to a buffer with enough room with the single byte codec or in UTF-8 when it is {@code null}.
+   */
+  private void encode(SingleByteCodec singleByte, int[] codePoints, int from, int to, int flags, ByteBuf buffer) {
+    if (buffer.hasArray()) {
+      int index = buffer.arrayOffset() + buffer.writerIndex();
+      int limit = singleByte != null ?
+        encodeSingleByte(singleByte, codePoints, from, to, flags, buffer.array(), index) :
+        encodeUtf8(codePoints, from, to, flags, buffer.array(), index);
+      buffer.writerIndex(buffer.writerIndex() + limit - index);
+    } else {
+      if (scratch == null) {
+        scratch = new byte[SCRATCH_SIZE * 4];
+      }
+      while (from < to) {
+        // At most 4 bytes per code point
+        int chunk = Math.min(to - from, SCRATCH_SIZE);
+        int length = singleByte != null ?
+          encodeSingleByte(singleByte, codePoints, from, from + chunk, flags, scratch, 0) :
+          encodeUtf8(codePoints, from, from + chunk, flags, scratch, 0);
+        buffer.writeBytes(scratch, 0, length);
+        from += chunk;
+      }
     }
-    charBuf.flip();
-    ByteBuffer bytesBuf = charset.encode(charBuf);
-    byte[] bytes = bytesBuf.array();
-    if (bytesBuf.limit() < bytesBuf.array().length) {
-      bytes = Arrays.copyOf(bytes, bytesBuf.limit());
+  }
+
+  /**
+   * Encode code points to an array with enough room.
+   *
+   * @return the index following the last encoded byte
+   */
+  private static int encodeUtf8(int[] codePoints, int from, int to, int flags, byte[] bytes, int index) {
+    int i = from;
+    while (i < to) {
+      // Fast path for ASCII that needs no translation
+      int codePoint = codePoints[i++];
+      if ((codePoint & ~0x7F) == 0 && (codePoint > '\r' || flags == 0)) {
+        bytes[index++] = (byte) codePoint;
+        continue;
+      }
+      if (codePoint <= '\r' && codePoint >= 0 && flags != 0) {
+        codePoint = translate(codePoint, flags);
+        if (codePoint == -1) {
+          bytes[index++] = '\r';
+          codePoint = '\n';
+        }
+      }
+      if ((codePoint & ~0x7F) == 0) {
+        bytes[index++] = (byte) codePoint;
+      } else if ((codePoint & ~0x7FF) == 0) {
+        bytes[index++] = (byte) (0xC0 | (codePoint >> 6));
+        bytes[index++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if ((codePoint & ~0xFFFF) == 0 && !Character.isSurrogate((char) codePoint)) {
+        bytes[index++] = (byte) (0xE0 | (codePoint >> 12));
+        bytes[index++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[index++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (codePoint >= 0x10000 && codePoint <= Character.MAX_CODE_POINT) {
+        bytes[index++] = (byte) (0xF0 | (codePoint >> 18));
+        bytes[index++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[index++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[index++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        // Same replacement than the JDK encoder, also for the negative values
+        bytes[index++] = '?';
+      }
     }
-    onByte.accept(bytes);
+    return index;
   }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.io;
+
+import io.termd.core.util.CodePointSink;
+import io.termd.core.util.Helper;
+
+import java.nio.charset.Charset;
+
+/**
+ * A constant sequence of code points that keeps its encoded bytes, writing it again with the same charset and
+ * translation flags does not encode it again.<p>
+ *
+ * Instances are immutable and can be shared between connections, the cache holds the last encoding which is enough
+ * for the usual case of connections sharing the same charset.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public final class PreEncoded {
+
+  public static final PreEncoded NEWLINE = of("\n");
+  public static final PreEncoded CR = of("\r");
+  public static final PreEncoded BELL = of("\007");
+  public static final PreEncoded ERASE_TO_END_OF_LINE = of("\033[K");
+  public static final PreEncoded ERASE_TO_START_OF_LINE = of("\033[1K");
+  public static final PreEncoded CURSOR_UP = of("\033[1A");
+  public static final PreEncoded CURSOR_FORWARD = of("\033[1C");
+
+  /**
+   * Create a sequence from a string.
+   *
+   * @param s the string
+   * @return the sequence
+   */
+  public static PreEncoded of(String s) {
+    return new PreEncoded(Helper.toCodePoints(s));
+  }
+
+  /**
+   * Create a sequence from code points.
+   *
+   * @param codePoints the code points, copied
+   * @return the sequence
+   */
+  public static PreEncoded of(int... codePoints) {
+    return new PreEncoded(codePoints.clone());
+  }
+
+  private static class Encoding {
+
+    final Charset charset;
+    final int flags;
+    final byte[] bytes;
+
+    Encoding(Charset charset, int flags, byte[] bytes) {
+      this.charset = charset;
+      this.flags = flags;
+      this.bytes = bytes;
+    }
+  }
+
+  private final int[] codePoints;
+  private volatile Encoding encoding;
+
+  private PreEncoded(int[] codePoints) {
+    this.codePoints = codePoints;
+  }
+
+  /**
+   * @return the number of code points
+   */
+  public int length() {
+    return codePoints.length;
+  }
+
+  /**
+   * @return a copy of the code points
+   */
+  public int[] toCodePoints() {
+    return codePoints.clone();
+  }
+
+  /**
+   * Returns the encoded bytes, the returned array is shared and must not be modified.
+   *
+   * @param charset the charset
+   * @param flags the {@link BinaryEncoder} translation flags
+   * @return the encoded bytes
+   */
+  public byte[] bytes(Charset charset, int flags) {
+    Encoding encoding = this.encoding;
+    if (encoding == null || encoding.flags != flags || !encoding.charset.equals(charset)) {
+      byte[][] bytes = new byte[1][];
+      new BinaryEncoder(charset, encoded -> bytes[0] = encoded).setFlags(flags).accept(codePoints);
+      this.encoding = encoding = new Encoding(charset, flags, bytes[0]);
+    }
+    return encoding.bytes;
+  }
+
+  /**
+   * Write the code points to a sink as a slice of the shared array, the sink must not modify them.
+   *
+   * @param sink the sink
+   */
+  public void writeTo(CodePointSink sink) {
+    sink.accept(codePoints, 0, codePoints.length);
+  }
+
+  @Override
+  public String toString() {
+    return new String(codePoints, 0, codePoints.length);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Table driven codec for single byte charsets such as CP437 or ISO-8859-x.<p>
+ *
+ * Decoding uses a 256 entries table, encoding uses a two level table made of 256 code point pages that are only
+ * allocated for the pages the charset maps to. The tables are computed once per charset from the JDK codecs and
+ * give the same results: undecodable bytes become {@code U+FFFD} and unmappable code points become the encoder
+ * replacement byte.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class SingleByteCodec {
+
+  private static final SingleByteCodec NONE = new SingleByteCodec(null, null, (byte) 0);
+  private static final ConcurrentMap<Charset, SingleByteCodec> CODECS = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the codec of a single byte charset.
+   *
+   * @param charset the charset
+   * @return the codec or {@code null} when the charset is not a plain single byte charset
+   */
+  public static SingleByteCodec forCharset(Charset charset) {
+    SingleByteCodec codec = CODECS.computeIfAbsent(charset, SingleByteCodec::create);
+    return codec != NONE ? codec : null;
+  }
+
+  private static SingleByteCodec create(Charset charset) {
+    if (charset instanceof TelnetCharset || !charset.canEncode()) {
+      // The telnet charset performs CR translation and cannot encode
+      return NONE;
+    }
+    CharsetDecoder decoder = charset.newDecoder();
+    CharsetEncoder encoder = charset.newEncoder();
+    if (decoder.maxCharsPerByte() != 1f || encoder.maxBytesPerChar() != 1f || encoder.replacement().length != 1) {
+      return NONE;
+    }
+    decoder.onMalformedInput(CodingErrorAction.REPORT);
+    decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+    char[] decodeTable = new char[256];
+    for (int b = 0;b < 256;b++) {
+      char c;
+      try {
+        CharBuffer chars = decoder.reset().decode(ByteBuffer.wrap(new byte[]{(byte) b}));
+        if (chars.remaining() != 1) {
+          return NONE;
+        }
+        c = chars.get();
+      } catch (CharacterCodingException e) {
+        c = '\uFFFD';
+      }
+      decodeTable[b] = c;
+    }
+    byte replacement = encoder.replacement()[0];
+    byte[][] encodePages = new byte[256][];
+    CharBuffer in = CharBuffer.allocate(1);
+    ByteBuffer out = ByteBuffer.allocate(1);
+    for (int c = 0;c < 0x10000;c++) {
+      if (Character.isSurrogate((char) c) || !encoder.canEncode((char) c)) {
+        continue;
+      }
+      in.clear();
+      in.put((char) c).flip();
+      out.clear();
+      encoder.reset();
+      if (encoder.encode(in, out, true).isError() || out.position() != 1) {
+        continue;
+      }
+      byte[] page = encodePages[c >> 8];
+      if (page == null) {
+        page = encodePages[c >> 8] = new byte[256];
+        Arrays.fill(page, replacement);
+      }
+      page[c & 0xFF] = out.get(0);
+    }
+    return new SingleByteCodec(decodeTable, encodePages, replacement);
+  }
+
+  private final char[] decodeTable;
+  private final byte[][] encodePages;
+  private final byte replacement;
+
+  private SingleByteCodec(char[] decodeTable, byte[][] encodePages, byte replacement) {
+    this.decodeTable = decodeTable;
+    this.encodePages = encodePages;
+    this.replacement = replacement;
+  }
+
+  /**
+   * Decode a byte.
+   *
+   * @param b the byte
+   * @return the code point
+   */
+  public int decode(byte b) {
+    return decodeTable[b & 0xFF];
+  }
+
+  /**
+   * Encode a code point.
+   *
+   * @param codePoint the code point
+   * @return the byte or the replacement byte when the code point cannot be mapped
+   */
+  public byte encode(int codePoint) {
+    if ((codePoint & ~0xFFFF) == 0) {
+      byte[] page = encodePages[codePoint >> 8];
+      if (page != null) {
+        return page[codePoint & 0xFF];
+      }
+    }
+    return replacement;
+  }
+}
@@ -16,6 +16,8 @@
 
 package io.termd.core.io;
 
+import io.termd.core.util.ByteScanner;
+
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -49,6 +51,9 @@ public class TelnetCharset extends Charset {
       private boolean prevCR;
       @Override
       protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+          return decodeArray(in, out);
+        }
         int pos = in.position();
         int limit = in.limit();
         try {
@@ -77,6 +82,46 @@ public class TelnetCharset extends Charset {
           in.position(pos);
         }
       }
+
+      /**
+       * Bytes are widened in bulk up to the next {@code \r}, found with a {@link ByteScanner}.
+       */
+      private CoderResult decodeArray(ByteBuffer in, CharBuffer out) {
+        byte[] src = in.array();
+        int pos = in.arrayOffset() + in.position();
+        int limit = in.arrayOffset() + in.limit();
+        char[] dst = out.array();
+        int dstPos = out.arrayOffset() + out.position();
+        int dstLimit = out.arrayOffset() + out.limit();
+        try {
+          while (pos < limit) {
+            if (prevCR) {
+              prevCR = false;
+              byte b = src[pos];
+              if (b == '\n' || b == 0) {
+                pos++;
+                continue;
+              }
+            }
+            if (dstPos >= dstLimit) {
+              return CoderResult.OVERFLOW;
+            }
+            int end = Math.min(limit, pos + dstLimit - dstPos);
+            int cr = ByteScanner.indexOf(src, pos, end, (byte) '\r');
+            if (cr != -1) {
+              end = cr + 1;
+              prevCR = true;
+            }
+            while (pos < end) {
+              dst[dstPos++] = (char) (src[pos++] & 0xFF);
+            }
+          }
+          return CoderResult.UNDERFLOW;
+        } finally {
+          in.position(pos - in.arrayOffset());
+          out.position(dstPos - out.arrayOffset());
+        }
+      }
     };
   }
 
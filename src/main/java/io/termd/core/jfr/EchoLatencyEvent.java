@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The latency between the input of a connection and the echo of this input, the duration of the event spans from
+ * the input reception to the output flush. The event is disabled by default, it is enabled with the
+ * {@code io.termd.EchoLatency#enabled=true} recording setting.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@Name(EchoLatencyEvent.NAME)
+@Label("Echo Latency")
+@Description("Latency between the input of a connection and the echo of this input")
+@Category("Termd")
+@Enabled(false)
+@StackTrace(false)
+public class EchoLatencyEvent extends Event {
+
+  public static final String NAME = "io.termd.EchoLatency";
+
+  @Label("Connection Id")
+  long connectionId;
+
+  @Label("Transport")
+  String transport;
+
+  @Label("Decode Time")
+  @Description("Time from the input reception to the line discipline")
+  @Timespan(Timespan.NANOSECONDS)
+  long decodeTime;
+
+  @Label("Match Time")
+  @Description("Time from the line discipline to the key event matched by the event queue")
+  @Timespan(Timespan.NANOSECONDS)
+  long matchTime;
+
+  @Label("Readline Time")
+  @Description("Time spent by readline handling the key event")
+  @Timespan(Timespan.NANOSECONDS)
+  long readlineTime;
+
+  @Label("Flush Time")
+  @Description("Time from the last stage to the output flush")
+  @Timespan(Timespan.NANOSECONDS)
+  long flushTime;
+
+}
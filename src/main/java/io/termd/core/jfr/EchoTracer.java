@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.jfr;
+
+/**
+ * Traces the latency between the input of a connection and the echo of this input.<p>
+ *
+ * The connection marks each stage of the input path, the first input received while no trace is in progress starts
+ * a trace that ends at the next flush of the output, usually the echo of the input. The trace is committed as an
+ * {@link EchoLatencyEvent} to Java Flight Recorder. The event is disabled by default, when it is not enabled by a
+ * recording a mark costs a volatile read.<p>
+ *
+ * The marks of a stage that is not reached, for instance when the connection is not driven by a
+ * {@link io.termd.core.readline.Readline}, are ignored.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public interface EchoTracer {
+
+  /**
+   * A tracer that traces nothing.
+   */
+  EchoTracer NOOP = new EchoTracer() {
+  };
+
+  /**
+   * Create the tracer of a connection, the tracer traces nothing when Java Flight Recorder is not available.
+   *
+   * @param connectionId the id of the connection
+   * @param transport the transport of the connection
+   * @return the tracer
+   */
+  static EchoTracer create(long connectionId, String transport) {
+    if (JfrSupport.AVAILABLE) {
+      return new JfrEchoTracer(connectionId, transport);
+    }
+    return NOOP;
+  }
+
+  /**
+   * The input has been received from the transport.
+   */
+  default void received() {
+  }
+
+  /**
+   * The input has been decoded.
+   */
+  default void decoded() {
+  }
+
+  /**
+   * A key event has been matched by the {@link io.termd.core.readline.EventQueue}.
+   */
+  default void matched() {
+  }
+
+  /**
+   * A key event has been handled by the {@link io.termd.core.readline.Readline}.
+   */
+  default void handled() {
+  }
+
+  /**
+   * The output has been flushed to the transport.
+   */
+  default void flushed() {
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.jfr;
+
+import jdk.jfr.EventType;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Traces the echo latency of a connection with {@link EchoLatencyEvent}, a single trace is in progress at a time.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+class JfrEchoTracer implements EchoTracer {
+
+  private static final EventType TYPE = EventType.getEventType(EchoLatencyEvent.class);
+
+  private static final int RECEIVED = 0;
+  private static final int DECODED = 1;
+  private static final int MATCHED = 2;
+  private static final int HANDLED = 3;
+
+  private static class Trace {
+
+    final EchoLatencyEvent event = new EchoLatencyEvent();
+    long last = System.nanoTime();
+    int stage = RECEIVED;
+
+    /**
+     * @return the time elapsed since the previous stage
+     */
+    long next(int stage) {
+      long now = System.nanoTime();
+      long time = now - last;
+      last = now;
+      this.stage = stage;
+      return time;
+    }
+  }
+
+  private final long connectionId;
+  private final String transport;
+  private final AtomicReference<Trace> current = new AtomicReference<>();
+
+  JfrEchoTracer(long connectionId, String transport) {
+    this.connectionId = connectionId;
+    this.transport = transport;
+  }
+
+  @Override
+  public void received() {
+    if (current.get() == null && TYPE.isEnabled()) {
+      Trace trace = new Trace();
+      trace.event.begin();
+      current.compareAndSet(null, trace);
+    }
+  }
+
+  @Override
+  public void decoded() {
+    Trace trace = current.get();
+    if (trace != null && trace.stage == RECEIVED) {
+      trace.event.decodeTime = trace.next(DECODED);
+    }
+  }
+
+  @Override
+  public void matched() {
+    Trace trace = current.get();
+    if (trace != null && trace.stage == DECODED) {
+      trace.event.matchTime = trace.next(MATCHED);
+    }
+  }
+
+  @Override
+  public void handled() {
+    Trace trace = current.get();
+    if (trace != null && trace.stage == MATCHED) {
+      trace.event.readlineTime = trace.next(HANDLED);
+    }
+  }
+
+  @Override
+  public void flushed() {
+    Trace trace = current.get();
+    // The output flushed before the input is decoded is not its echo
+    if (trace != null && trace.stage != RECEIVED && current.compareAndSet(trace, null)) {
+      EchoLatencyEvent event = trace.event;
+      event.flushTime = trace.next(trace.stage);
+      event.connectionId = connectionId;
+      event.transport = transport;
+      event.end();
+      event.commit();
+    }
+  }
+}
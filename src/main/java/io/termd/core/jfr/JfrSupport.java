@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.jfr;
+
+/**
+ * Detects whether Java Flight Recorder is available, the JFR classes are loaded only when it is.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+final class JfrSupport {
+
+  static final boolean AVAILABLE = isAvailable();
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, JfrSupport.class.getClassLoader());
+      return true;
+    } catch (Throwable ignore) {
+      return false;
+    }
+  }
+
+  private JfrSupport() {
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+import io.termd.core.tty.TtyEvent;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Records the traffic of a connection, the methods are called on the hot path of the connection and must return
+ * quickly. The default implementations record nothing.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public interface ConnectionMetrics {
+
+  /**
+   * Metrics recording nothing.
+   */
+  ConnectionMetrics NOOP = new ConnectionMetrics() {
+  };
+
+  /**
+   * @param bytes the number of bytes received from the transport
+   */
+  default void bytesRead(int bytes) {
+  }
+
+  /**
+   * @param bytes the number of bytes written to the transport
+   */
+  default void bytesWritten(int bytes) {
+  }
+
+  /**
+   * @param codePoints the number of code points decoded from the input
+   */
+  default void codePointsRead(int codePoints) {
+  }
+
+  /**
+   * @param codePoints the number of code points written to the output
+   */
+  default void codePointsWritten(int codePoints) {
+  }
+
+  /**
+   * A key has been handled by a {@link io.termd.core.readline.Readline}.
+   */
+  default void keystroke() {
+  }
+
+  /**
+   * An event has been decoded from the input.
+   *
+   * @param event the event
+   */
+  default void event(TtyEvent event) {
+  }
+
+  /**
+   * A line has been read by a {@link io.termd.core.readline.Readline}.
+   */
+  default void line() {
+  }
+
+  /**
+   * A completion has been requested by a {@link io.termd.core.readline.Readline}.
+   */
+  default void completion() {
+  }
+
+  /**
+   * Set the gauge of the outbound queue of the connection.
+   *
+   * @param depth the number of code points queued for output
+   */
+  default void outboundQueue(IntSupplier depth) {
+  }
+
+  /**
+   * The connection is closed, this can be called several times.
+   */
+  default void closed() {
+  }
+}
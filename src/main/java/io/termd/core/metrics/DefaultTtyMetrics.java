@@ -0,0 +1,454 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+import io.termd.core.tty.TtyEvent;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics recording the traffic in striped counters, so recording costs a few uncontended increments.<p>
+ *
+ * The traffic is recorded per connection and per transport, the global metrics sum the transports. The metrics can
+ * be exported with JMX by {@link #registerMBeans(MBeanServer)}, one MXBean is registered for all the transports
+ * and one for each transport.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class DefaultTtyMetrics implements TtyMetrics {
+
+  public static final String JMX_DOMAIN = "io.termd";
+
+  /**
+   * The traffic counters.
+   */
+  private static class Traffic {
+
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder codePointsRead = new LongAdder();
+    final LongAdder codePointsWritten = new LongAdder();
+    final LongAdder keystrokes = new LongAdder();
+    final LongAdder events = new LongAdder();
+    final LongAdder lines = new LongAdder();
+    final LongAdder completions = new LongAdder();
+
+  }
+
+  /**
+   * The metrics of a transport.
+   */
+  public static class Transport implements TtyMetricsMXBean {
+
+    private final String name;
+    private final Traffic traffic = new Traffic();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private Transport(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the active connections of this transport
+     */
+    public Collection<Connection> connections() {
+      return Collections.unmodifiableSet(connections);
+    }
+
+    @Override
+    public long getBytesRead() {
+      return traffic.bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+      return traffic.bytesWritten.sum();
+    }
+
+    @Override
+    public long getCodePointsRead() {
+      return traffic.codePointsRead.sum();
+    }
+
+    @Override
+    public long getCodePointsWritten() {
+      return traffic.codePointsWritten.sum();
+    }
+
+    @Override
+    public long getKeystrokes() {
+      return traffic.keystrokes.sum();
+    }
+
+    @Override
+    public long getEvents() {
+      return traffic.events.sum();
+    }
+
+    @Override
+    public long getLines() {
+      return traffic.lines.sum();
+    }
+
+    @Override
+    public long getCompletions() {
+      return traffic.completions.sum();
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+      long depth = 0;
+      for (Connection connection : connections) {
+        depth += connection.getOutboundQueueDepth();
+      }
+      return depth;
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+      return opened.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+      return closed.sum();
+    }
+
+    @Override
+    public long getConnectionsActive() {
+      return connections.size();
+    }
+  }
+
+  /**
+   * The metrics of a connection, the traffic is recorded in the connection and in its transport.
+   */
+  public static class Connection implements ConnectionMetrics {
+
+    private final Transport transport;
+    private final Traffic traffic = new Traffic();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile IntSupplier outboundQueue;
+
+    private Connection(Transport transport) {
+      this.transport = transport;
+    }
+
+    public Transport getTransport() {
+      return transport;
+    }
+
+    public boolean isClosed() {
+      return closed.get();
+    }
+
+    public long getBytesRead() {
+      return traffic.bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+      return traffic.bytesWritten.sum();
+    }
+
+    public long getCodePointsRead() {
+      return traffic.codePointsRead.sum();
+    }
+
+    public long getCodePointsWritten() {
+      return traffic.codePointsWritten.sum();
+    }
+
+    public long getKeystrokes() {
+      return traffic.keystrokes.sum();
+    }
+
+    public long getEvents() {
+      return traffic.events.sum();
+    }
+
+    public long getLines() {
+      return traffic.lines.sum();
+    }
+
+    public long getCompletions() {
+      return traffic.completions.sum();
+    }
+
+    /**
+     * @return the number of code points queued for output
+     */
+    public int getOutboundQueueDepth() {
+      IntSupplier depth = outboundQueue;
+      return depth != null ? depth.getAsInt() : 0;
+    }
+
+    @Override
+    public void bytesRead(int bytes) {
+      traffic.bytesRead.add(bytes);
+      transport.traffic.bytesRead.add(bytes);
+    }
+
+    @Override
+    public void bytesWritten(int bytes) {
+      traffic.bytesWritten.add(bytes);
+      transport.traffic.bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void codePointsRead(int codePoints) {
+      traffic.codePointsRead.add(codePoints);
+      transport.traffic.codePointsRead.add(codePoints);
+    }
+
+    @Override
+    public void codePointsWritten(int codePoints) {
+      traffic.codePointsWritten.add(codePoints);
+      transport.traffic.codePointsWritten.add(codePoints);
+    }
+
+    @Override
+    public void keystroke() {
+      traffic.keystrokes.increment();
+      transport.traffic.keystrokes.increment();
+    }
+
+    @Override
+    public void event(TtyEvent event) {
+      traffic.events.increment();
+      transport.traffic.events.increment();
+    }
+
+    @Override
+    public void line() {
+      traffic.lines.increment();
+      transport.traffic.lines.increment();
+    }
+
+    @Override
+    public void completion() {
+      traffic.completions.increment();
+      transport.traffic.completions.increment();
+    }
+
+    @Override
+    public void outboundQueue(IntSupplier depth) {
+      outboundQueue = depth;
+    }
+
+    @Override
+    public void closed() {
+      if (closed.compareAndSet(false, true)) {
+        outboundQueue = null;
+        transport.connections.remove(this);
+        transport.closed.increment();
+      }
+    }
+  }
+
+  /**
+   * The sum of the metrics of all the transports.
+   */
+  private class Global implements TtyMetricsMXBean {
+
+    private long sum(ToLongFunction<Transport> getter) {
+      long sum = 0;
+      for (Transport transport : transports.values()) {
+        sum += getter.applyAsLong(transport);
+      }
+      return sum;
+    }
+
+    @Override
+    public long getBytesRead() {
+      return sum(Transport::getBytesRead);
+    }
+
+    @Override
+    public long getBytesWritten() {
+      return sum(Transport::getBytesWritten);
+    }
+
+    @Override
+    public long getCodePointsRead() {
+      return sum(Transport::getCodePointsRead);
+    }
+
+    @Override
+    public long getCodePointsWritten() {
+      return sum(Transport::getCodePointsWritten);
+    }
+
+    @Override
+    public long getKeystrokes() {
+      return sum(Transport::getKeystrokes);
+    }
+
+    @Override
+    public long getEvents() {
+      return sum(Transport::getEvents);
+    }
+
+    @Override
+    public long getLines() {
+      return sum(Transport::getLines);
+    }
+
+    @Override
+    public long getCompletions() {
+      return sum(Transport::getCompletions);
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+      return sum(Transport::getOutboundQueueDepth);
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+      return sum(Transport::getConnectionsOpened);
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+      return sum(Transport::getConnectionsClosed);
+    }
+
+    @Override
+    public long getConnectionsActive() {
+      return sum(Transport::getConnectionsActive);
+    }
+  }
+
+  private final ConcurrentMap<String, Transport> transports = new ConcurrentHashMap<>();
+  private final Global global = new Global();
+  private final List<ObjectName> registered = new ArrayList<>();
+  private MBeanServer server;
+
+  @Override
+  public ConnectionMetrics connectionOpened(String transport) {
+    Transport metrics = transports.get(transport);
+    if (metrics == null) {
+      metrics = addTransport(transport);
+    }
+    Connection connection = new Connection(metrics);
+    metrics.opened.increment();
+    metrics.connections.add(connection);
+    return connection;
+  }
+
+  /**
+   * @return the sum of the metrics of all the transports
+   */
+  public TtyMetricsMXBean global() {
+    return global;
+  }
+
+  /**
+   * @param name the transport name
+   * @return the metrics of the transport or {@code null} when no connection was opened with this transport
+   */
+  public Transport transport(String name) {
+    return transports.get(name);
+  }
+
+  /**
+   * @return the metrics of the transports a connection was opened with
+   */
+  public Collection<Transport> transports() {
+    return Collections.unmodifiableCollection(transports.values());
+  }
+
+  /**
+   * Register the MXBeans of these metrics, the MXBeans of the transports seen later are registered when their first
+   * connection is opened.
+   *
+   * @param server the MBean server
+   * @throws JMException when a MXBean cannot be registered
+   */
+  public synchronized void registerMBeans(MBeanServer server) throws JMException {
+    if (this.server != null) {
+      throw new IllegalStateException("Already registered");
+    }
+    this.server = server;
+    register(new ObjectName(JMX_DOMAIN + ":type=TtyMetrics"), global);
+    for (Transport transport : transports.values()) {
+      register(transport);
+    }
+  }
+
+  /**
+   * Unregister the MXBeans registered by {@link #registerMBeans(MBeanServer)}.
+   *
+   * @throws JMException when a MXBean cannot be unregistered
+   */
+  public synchronized void unregisterMBeans() throws JMException {
+    if (server != null) {
+      try {
+        for (ObjectName name : registered) {
+          server.unregisterMBean(name);
+        }
+      } finally {
+        registered.clear();
+        server = null;
+      }
+    }
+  }
+
+  private synchronized Transport addTransport(String name) {
+    Transport transport = transports.get(name);
+    if (transport == null) {
+      transport = new Transport(name);
+      transports.put(name, transport);
+      if (server != null) {
+        try {
+          register(transport);
+        } catch (JMException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+    return transport;
+  }
+
+  private void register(Transport transport) throws JMException {
+    register(new ObjectName(JMX_DOMAIN + ":type=TtyMetrics,transport=" + ObjectName.quote(transport.name)), transport);
+  }
+
+  private void register(ObjectName name, TtyMetricsMXBean bean) throws JMException {
+    server.registerMBean(bean, name);
+    registered.add(name);
+  }
+}
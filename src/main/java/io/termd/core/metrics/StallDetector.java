@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+import io.termd.core.util.Logging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Detects the connection tasks blocking the thread running them, usually an event loop shared by many connections.<p>
+ *
+ * The connections mark the tasks they run, the input handling and the tasks executed or scheduled by
+ * {@link io.termd.core.tty.TtyConnection#execute(Runnable)}, with {@link #enter(long, String)} and {@link #exit()}.
+ * A watchdog thread samples the running tasks: a task running longer than the threshold is reported with the stack
+ * of its thread, captured while it is still blocked. A task ending longer than the threshold after it started
+ * between two samples is reported without stack.<p>
+ *
+ * The detector returned by {@link #get()} is used by all the connections, it is stopped by default and marking a
+ * task costs a volatile read until it is started.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class StallDetector {
+
+  public static final long DEFAULT_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(100);
+  public static final int RECENT_STALLS = 16;
+
+  private static final StallDetector INSTANCE = new StallDetector();
+
+  /**
+   * @return the detector used by all the connections
+   */
+  public static StallDetector get() {
+    return INSTANCE;
+  }
+
+  /**
+   * A task that ran longer than the threshold.
+   */
+  public static class Stall {
+
+    private final long connectionId;
+    private final String transport;
+    private final String threadName;
+    private final long duration;
+    private final StackTraceElement[] stackTrace;
+
+    private Stall(long connectionId, String transport, String threadName, long duration, StackTraceElement[] stackTrace) {
+      this.connectionId = connectionId;
+      this.transport = transport;
+      this.threadName = threadName;
+      this.duration = duration;
+      this.stackTrace = stackTrace;
+    }
+
+    public long getConnectionId() {
+      return connectionId;
+    }
+
+    public String getTransport() {
+      return transport;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /**
+     * @return the time in nanoseconds the task was running when the stall was detected
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    /**
+     * @return the stack of the blocked thread or {@code null} when the task ended before it was sampled
+     */
+    public StackTraceElement[] getStackTrace() {
+      return stackTrace;
+    }
+
+    @Override
+    public String toString() {
+      return "Stall[connection=" + connectionId + ",transport=" + transport + ",thread=" + threadName +
+          ",duration=" + TimeUnit.NANOSECONDS.toMillis(duration) + "ms]";
+    }
+  }
+
+  /**
+   * The task running on a thread.
+   */
+  private static class Slot {
+
+    final Thread thread = Thread.currentThread();
+    int depth;
+    volatile long start;
+    volatile long reported;
+    volatile long connectionId;
+    volatile String transport;
+
+  }
+
+  private final ThreadLocal<Slot> slots = new ThreadLocal<>();
+  private final Set<Slot> active = ConcurrentHashMap.newKeySet();
+  private final LongAdder stallCount = new LongAdder();
+  private final AtomicLong maxStallTime = new AtomicLong();
+  private final ArrayDeque<Stall> recent = new ArrayDeque<>(RECENT_STALLS);
+  private volatile long threshold = DEFAULT_THRESHOLD;
+  private volatile Consumer<Stall> stallHandler;
+  private volatile boolean running;
+  private Thread watchdog;
+
+  StallDetector() {
+  }
+
+  /**
+   * @param unit the unit of the returned value
+   * @return the time after which a task is reported
+   */
+  public long getThreshold(TimeUnit unit) {
+    return unit.convert(threshold, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Set the time after which a task is reported, the watchdog samples the tasks twice per threshold period.
+   *
+   * @param threshold the threshold
+   * @param unit the threshold unit
+   * @return this object
+   */
+  public StallDetector setThreshold(long threshold, TimeUnit unit) {
+    if (threshold <= 0) {
+      throw new IllegalArgumentException("Invalid threshold " + threshold);
+    }
+    this.threshold = unit.toNanos(threshold);
+    return this;
+  }
+
+  public Consumer<Stall> getStallHandler() {
+    return stallHandler;
+  }
+
+  /**
+   * Set the handler called with the stalls, when no handler is set the stalls are logged.
+   *
+   * @param handler the handler
+   * @return this object
+   */
+  public StallDetector setStallHandler(Consumer<Stall> handler) {
+    this.stallHandler = handler;
+    return this;
+  }
+
+  /**
+   * @return true when the watchdog is running
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Start the watchdog.
+   *
+   * @return this object
+   */
+  public synchronized StallDetector start() {
+    if (!running) {
+      running = true;
+      watchdog = new Thread(this::sample, "termd-stall-detector");
+      watchdog.setDaemon(true);
+      watchdog.start();
+    }
+    return this;
+  }
+
+  /**
+   * Stop the watchdog, the statistics are kept.
+   */
+  public synchronized void stop() {
+    if (running) {
+      running = false;
+      watchdog.interrupt();
+      watchdog = null;
+    }
+  }
+
+  /**
+   * @return the number of stalls
+   */
+  public long getStallCount() {
+    return stallCount.sum();
+  }
+
+  /**
+   * @param unit the unit of the returned value
+   * @return the duration of the longest stall, tasks under the threshold are not counted
+   */
+  public long getMaxStallTime(TimeUnit unit) {
+    return unit.convert(maxStallTime.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the last {@link #RECENT_STALLS} stalls, the most recent last
+   */
+  public List<Stall> getRecentStalls() {
+    synchronized (recent) {
+      return new ArrayList<>(recent);
+    }
+  }
+
+  /**
+   * Reset the statistics.
+   */
+  public void reset() {
+    stallCount.reset();
+    maxStallTime.set(0);
+    synchronized (recent) {
+      recent.clear();
+    }
+  }
+
+  /**
+   * Mark the beginning of a task of a connection on the current thread, the nested tasks are ignored.
+   *
+   * @param connectionId the connection id
+   * @param transport the connection transport
+   */
+  public void enter(long connectionId, String transport) {
+    if (!running) {
+      return;
+    }
+    Slot slot = slots.get();
+    if (slot == null) {
+      slot = new Slot();
+      slots.set(slot);
+    }
+    if (slot.depth++ == 0) {
+      slot.connectionId = connectionId;
+      slot.transport = transport;
+      slot.start = System.nanoTime();
+      active.add(slot);
+    }
+  }
+
+  /**
+   * Mark the end of the task begun by {@link #enter(long, String)}.
+   */
+  public void exit() {
+    Slot slot = slots.get();
+    if (slot == null || slot.depth == 0 || --slot.depth > 0) {
+      return;
+    }
+    long start = slot.start;
+    slot.start = 0;
+    active.remove(slot);
+    long duration = System.nanoTime() - start;
+    if (duration >= threshold) {
+      // A stall reported while running is longer once completed
+      updateMax(duration);
+      if (slot.reported != start) {
+        report(new Stall(slot.connectionId, slot.transport, slot.thread.getName(), duration, null));
+      }
+    }
+  }
+
+  /**
+   * Wrap a task of a connection with {@link #enter(long, String)} and {@link #exit()}, the task is returned when the
+   * detector is not running.
+   *
+   * @param connectionId the connection id
+   * @param transport the connection transport
+   * @param task the task
+   * @return the wrapped task
+   */
+  public Runnable wrap(long connectionId, String transport, Runnable task) {
+    if (!running) {
+      return task;
+    }
+    return () -> {
+      enter(connectionId, transport);
+      try {
+        task.run();
+      } finally {
+        exit();
+      }
+    };
+  }
+
+  private void sample() {
+    while (running) {
+      long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(threshold / 2));
+      try {
+        Thread.sleep(period);
+      } catch (InterruptedException e) {
+        return;
+      }
+      long now = System.nanoTime();
+      for (Iterator<Slot> it = active.iterator();it.hasNext();) {
+        Slot slot = it.next();
+        long start = slot.start;
+        if (start == 0) {
+          continue;
+        }
+        if (!slot.thread.isAlive()) {
+          it.remove();
+          continue;
+        }
+        long duration = now - start;
+        if (duration >= threshold && slot.reported != start) {
+          StackTraceElement[] stackTrace = slot.thread.getStackTrace();
+          // Check the task is still the same after the stack has been captured
+          if (slot.start == start) {
+            slot.reported = start;
+            updateMax(duration);
+            report(new Stall(slot.connectionId, slot.transport, slot.thread.getName(), duration, stackTrace));
+          }
+        }
+      }
+    }
+  }
+
+  private void updateMax(long duration) {
+    long max;
+    while (duration > (max = maxStallTime.get())) {
+      if (maxStallTime.compareAndSet(max, duration)) {
+        break;
+      }
+    }
+  }
+
+  private void report(Stall stall) {
+    stallCount.increment();
+    synchronized (recent) {
+      if (recent.size() == RECENT_STALLS) {
+        recent.removeFirst();
+      }
+      recent.addLast(stall);
+    }
+    Consumer<Stall> handler = stallHandler;
+    if (handler != null) {
+      try {
+        handler.accept(stall);
+      } catch (Exception e) {
+        Logging.STALL.log(Level.SEVERE, "Stall handler failure", e);
+      }
+    } else if (Logging.STALL.isLoggable(Level.WARNING)) {
+      StringBuilder msg = new StringBuilder(stall.toString());
+      if (stall.stackTrace != null) {
+        for (StackTraceElement element : stall.stackTrace) {
+          msg.append("\n\tat ").append(element);
+        }
+      }
+      Logging.STALL.warning(msg.toString());
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * The metrics SPI, an implementation creates the {@link ConnectionMetrics} of each connection.<p>
+ *
+ * The connections use the metrics returned by {@link #get()}: it is the instance set with {@link #set(TtyMetrics)}
+ * or the first implementation found with the {@link ServiceLoader}, when none is found nothing is recorded.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public interface TtyMetrics {
+
+  String TELNET = "telnet";
+  String WEBSOCKET = "websocket";
+  String SSH = "ssh";
+
+  /**
+   * Metrics recording nothing.
+   */
+  TtyMetrics NOOP = transport -> ConnectionMetrics.NOOP;
+
+  /**
+   * @return the metrics used by the connections
+   */
+  static TtyMetrics get() {
+    TtyMetrics metrics = TtyMetricsHolder.metrics;
+    if (metrics == null) {
+      synchronized (TtyMetricsHolder.class) {
+        metrics = TtyMetricsHolder.metrics;
+        if (metrics == null) {
+          Iterator<TtyMetrics> it = ServiceLoader.load(TtyMetrics.class).iterator();
+          TtyMetricsHolder.metrics = metrics = it.hasNext() ? it.next() : NOOP;
+        }
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Set the metrics used by the connections opened from now.
+   *
+   * @param metrics the metrics or {@code null} to record nothing
+   */
+  static void set(TtyMetrics metrics) {
+    TtyMetricsHolder.metrics = metrics != null ? metrics : NOOP;
+  }
+
+  /**
+   * Signal a connection is opened.
+   *
+   * @param transport the transport of the connection, {@link #TELNET}, {@link #WEBSOCKET} or {@link #SSH}
+   * @return the metrics of the connection
+   */
+  ConnectionMetrics connectionOpened(String transport);
+
+}
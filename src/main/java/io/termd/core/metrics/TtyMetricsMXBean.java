@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+/**
+ * The JMX view of the metrics of a transport or of all the transports.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public interface TtyMetricsMXBean {
+
+  long getBytesRead();
+
+  long getBytesWritten();
+
+  long getCodePointsRead();
+
+  long getCodePointsWritten();
+
+  long getKeystrokes();
+
+  long getEvents();
+
+  long getLines();
+
+  long getCompletions();
+
+  /**
+   * @return the number of code points queued for output by the active connections
+   */
+  long getOutboundQueueDepth();
+
+  long getConnectionsOpened();
+
+  long getConnectionsClosed();
+
+  long getConnectionsActive();
+
+}
@@ -18,13 +18,16 @@ package io.termd.core.pty;
 
 import io.termd.core.readline.Keymap;
 import io.termd.core.readline.Readline;
+import io.termd.core.tty.Termios;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.tty.TtyEvent;
+import io.termd.core.tty.TtyOutputLane;
 import io.termd.core.util.Helper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 /**
@@ -99,9 +102,15 @@ public class TtyBridge {
       conn.close();
       return;
     }
-    PtyMaster task = new PtyMaster(line, buffer -> onStdOut(conn, buffer), empty -> doneHandler(conn, readline));
+    AtomicBoolean discard = new AtomicBoolean();
+    PtyMaster task = new PtyMaster(line, buffer -> onStdOut(conn, buffer, discard), empty -> doneHandler(conn, readline));
     conn.setEventHandler((event,cp) -> {
       if (event == TtyEvent.INTR) {
+        // Drop the output not yet written when the connection flushes, in canonical mode unless NOFLSH is set
+        Termios termios = conn.termios();
+        if (termios != null && (termios.getFlags() & (Termios.ICANON | Termios.NOFLSH)) == Termios.ICANON) {
+          discard.set(true);
+        }
         task.interruptProcess();
       }
     });
@@ -113,13 +122,15 @@ public class TtyBridge {
 
   private void doneHandler(TtyConnection conn, Readline readline) {
     conn.setEventHandler(null);
-    conn.execute(() -> read(conn, readline));
+    // Prompt once the output of the process is written
+    conn.executeAfterBulk(() -> read(conn, readline));
   }
 
-  private void onStdOut(TtyConnection conn, int[] buffer) {
-    conn.execute(() -> {
-      conn.stdoutHandler().accept(buffer);
-    });
+  private void onStdOut(TtyConnection conn, int[] buffer, AtomicBoolean discard) {
+    // Written from the process thread, blocks while the output queue is full
+    if (!discard.get()) {
+      conn.stdoutHandler(TtyOutputLane.BULK).accept(buffer);
+    }
     if (processStdoutListener != null) {
       processStdoutListener.accept(buffer);
     }
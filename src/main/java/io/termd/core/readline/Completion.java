@@ -16,6 +16,7 @@
 
 package io.termd.core.readline;
 
+import io.termd.core.io.PreEncoded;
 import io.termd.core.util.Helper;
 import io.termd.core.util.Vector;
 
@@ -54,6 +55,7 @@ public class Completion {
       prefix.insert(interaction.buffer().getAt(i));
     }
 
+    interaction.metrics.completion();
     this.interaction = interaction;
     this.prefix = prefix.toArray();
     this.line = interaction.line().copy().insert(interaction.buffer().toArray()).toArray();
@@ -135,7 +137,7 @@ public class Completion {
     if (!done.compareAndSet(false, true)) {
       throw new IllegalStateException();
     }
-    interaction.conn.write("\n");
+    interaction.conn.write(PreEncoded.NEWLINE);
     interaction.conn.stdoutHandler().accept(text);
     interaction.redraw();
     interaction.resume();
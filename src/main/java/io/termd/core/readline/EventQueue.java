@@ -35,8 +35,12 @@ public class EventQueue implements Iterator<KeyEvent> {
   }
 
   public EventQueue append(int... codePoints) {
-    pending = Arrays.copyOf(pending, pending.length + codePoints.length);
-    System.arraycopy(codePoints, 0 , pending, pending.length - codePoints.length, codePoints.length);
+    return append(codePoints, 0, codePoints.length);
+  }
+
+  public EventQueue append(int[] codePoints, int offset, int length) {
+    pending = Arrays.copyOf(pending, pending.length + length);
+    System.arraycopy(codePoints, offset, pending, pending.length - length, length);
     return this;
   }
 
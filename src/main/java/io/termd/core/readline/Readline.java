@@ -16,10 +16,14 @@
 
 package io.termd.core.readline;
 
+import io.termd.core.io.PreEncoded;
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
 import io.termd.core.term.Device;
 import io.termd.core.term.TermInfo;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.tty.TtyEvent;
+import io.termd.core.util.CodePointSink;
 import io.termd.core.util.Logging;
 import io.termd.core.util.Vector;
 import io.termd.core.util.Helper;
@@ -41,12 +45,16 @@ import java.util.stream.IntStream;
  */
 public class Readline {
 
+  private static final PreEncoded CONTINUATION_PROMPT = PreEncoded.of("\n> ");
+
   private final Device device;
   private final Map<String, Function> functions = new HashMap<>();
   private final EventQueue decoder;
   private Interaction interaction;
   private Vector size;
   private List<int[]> history;
+  private String lastPrompt;
+  private PreEncoded lastEncodedPrompt;
 
   public Readline(Keymap keymap) {
     this.device = TermInfo.defaultInfo().getDevice("xterm"); // For now use xterm
@@ -116,7 +124,9 @@ public class Readline {
           return;
         }
       }
+      handler.echoTracer.matched();
       handler.handle(event);
+      handler.echoTracer.handled();
     }
   }
 
@@ -142,7 +152,7 @@ public class Readline {
       interaction = new Interaction(conn, prompt, requestHandler, completionHandler);
     }
     interaction.install();
-    conn.write(prompt);
+    conn.write(interaction.encodedPrompt);
     schedulePendingEvent();
   }
 
@@ -177,13 +187,27 @@ public class Readline {
     return decoder.next();
   }
 
+  /**
+   * The same prompt is usually used by each interaction, keep its encoding.
+   */
+  private synchronized PreEncoded encodePrompt(String prompt) {
+    if (!prompt.equals(lastPrompt)) {
+      lastPrompt = prompt;
+      lastEncodedPrompt = PreEncoded.of(prompt);
+    }
+    return lastEncodedPrompt;
+  }
+
   public class Interaction {
 
     final TtyConnection conn;
+    final ConnectionMetrics metrics;
+    final EchoTracer echoTracer;
     private Consumer<int[]> prevReadHandler;
     private Consumer<Vector> prevSizeHandler;
     private BiConsumer<TtyEvent, Integer> prevEventHandler;
     private final String prompt;
+    private final PreEncoded encodedPrompt;
     private final Consumer<String> requestHandler;
     private final Consumer<Completion> completionHandler;
     private final Map<String, Object> data;
@@ -199,7 +223,10 @@ public class Readline {
         Consumer<String> requestHandler,
         Consumer<Completion> completionHandler) {
       this.conn = conn;
+      this.metrics = conn.metrics();
+      this.echoTracer = conn.echoTracer();
       this.prompt = prompt;
+      this.encodedPrompt = encodePrompt(prompt);
       this.data = new HashMap<>();
       this.currentPrompt = prompt;
       this.requestHandler = requestHandler;
@@ -221,11 +248,15 @@ public class Readline {
         conn.setSizeHandler(prevSizeHandler);
         conn.setEventHandler(prevEventHandler);
       }
+      if (s != null) {
+        metrics.line();
+      }
       requestHandler.accept(s);
       return true;
     }
 
     private void handle(KeyEvent event) {
+      metrics.keystroke();
 
       // Very specific behavior that cannot be encapsulated in a function flow
       if (event.length() == 1) {
@@ -240,8 +271,8 @@ public class Readline {
           data.clear();
           historyIndex = -1;
           currentPrompt = prompt;
-          conn.stdoutHandler().accept(new int[]{'\n'});
-          conn.write(interaction.prompt);
+          conn.write(PreEncoded.NEWLINE);
+          conn.write(encodedPrompt);
           return;
         }
       }
@@ -263,7 +294,7 @@ public class Readline {
           try {
             buf.insert(codePoint);
           } catch (IllegalArgumentException e) {
-            conn.stdoutHandler().accept(new int[]{'\007'});
+            conn.write(PreEncoded.BELL);
           }
         }
         refresh(buf);
@@ -288,28 +319,27 @@ public class Readline {
       int endHeight = end.y() + end.x() / newWidth;
 
       // Position at the bottom / right
-      Consumer<int[]> out = conn.stdoutHandler();
-      out.accept(new int[]{'\r'});
+      conn.write(PreEncoded.CR);
       while (curHeight != endHeight) {
         if (curHeight > endHeight) {
-          out.accept(new int[]{'\033','[','1','A'});
+          conn.write(PreEncoded.CURSOR_UP);
           curHeight--;
         } else {
-          out.accept(new int[]{'\n'});
+          conn.write(PreEncoded.NEWLINE);
           curHeight++;
         }
       }
 
       // Now erase and redraw
       while (curHeight > 0) {
-        out.accept(new int[]{'\033','[','1','K'});
-        out.accept(new int[]{'\033','[','1','A'});
+        conn.write(PreEncoded.ERASE_TO_START_OF_LINE);
+        conn.write(PreEncoded.CURSOR_UP);
         curHeight--;
       }
-      out.accept(new int[]{'\033','[','1','K'});
+      conn.write(PreEncoded.ERASE_TO_START_OF_LINE);
 
       // Now redraw
-      out.accept(Helper.toCodePoints(currentPrompt));
+      conn.write(currentPrompt);
       refresh(new LineBuffer(), newWidth);
     }
 
@@ -406,9 +436,9 @@ public class Readline {
       prevReadHandler = conn.getStdinHandler();
       prevSizeHandler = conn.getSizeHandler();
       prevEventHandler = conn.getEventHandler();
-      conn.setStdinHandler(data -> {
+      conn.setStdinHandler((CodePointSink) (data, offset, length) -> {
         synchronized (Readline.this) {
-          decoder.append(data);
+          decoder.append(data, offset, length);
         }
         deliver();
       });
@@ -443,12 +473,12 @@ public class Readline {
       if (pb.isEscaping()) {
         interaction.line.delete(-1); // Remove \
         interaction.currentPrompt = "> ";
-        interaction.conn.write("\n> ");
+        interaction.conn.write(CONTINUATION_PROMPT);
         interaction.resume();
       } else {
         if (pb.isQuoted()) {
           interaction.line.insert('\n');
-          interaction.conn.write("\n> ");
+          interaction.conn.write(CONTINUATION_PROMPT);
           interaction.currentPrompt = "> ";
           interaction.resume();
         } else {
@@ -457,7 +487,7 @@ public class Readline {
             history.add(0, interaction.line.toArray());
           }
           interaction.line.clear();
-          interaction.conn.write("\n");
+          interaction.conn.write(PreEncoded.NEWLINE);
           interaction.end(raw);
         }
       }
@@ -0,0 +1,609 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.screen;
+
+import io.termd.core.tty.TtyConnection;
+import io.termd.core.util.CodePointSink;
+import io.termd.core.util.Wcwidth;
+
+import java.util.Arrays;
+
+/**
+ * A double buffered grid of cells rendering only what changed since the previous frame.<p>
+ *
+ * The application draws the next frame in the back buffer, the front buffer holds what the terminal displays. The
+ * {@link #render(CodePointSink)} method compares both buffers and writes the changed cells: the changed cells of a
+ * row are written as spans, a gap of unchanged cells within a span is rewritten when it is cheaper than moving the
+ * cursor over it, the trailing blank cells of a row are erased with a single sequence and each cursor motion uses
+ * the shortest of the absolute and relative sequences.<p>
+ *
+ * A cell holds a code point and its attributes, the attributes combine the {@link #BOLD}, {@link #UNDERLINE},
+ * {@link #BLINK}, {@link #REVERSE} flags with a {@link #foreground(int)} and a {@link #background(int)} color. A
+ * wide code point takes two cells, control and combining code points are drawn as a space.<p>
+ *
+ * The rendering assumes the terminal defers the line wrap after writing the last column, as VT100 compatible
+ * terminals do. This class is not thread safe.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class Screen {
+
+  public static final int BOLD = 0x01;
+  public static final int UNDERLINE = 0x02;
+  public static final int BLINK = 0x04;
+  public static final int REVERSE = 0x08;
+
+  private static final int FLAGS = 0xFF;
+  private static final int FOREGROUND_SHIFT = 8;
+  private static final int BACKGROUND_SHIFT = 17;
+  private static final int COLOR_MASK = 0x1FF;
+
+  // The code point of the second cell of a wide code point
+  private static final int TAIL = 0;
+  private static final long BLANK = ' ';
+
+  /**
+   * @param color the color index between {@code 0} and {@code 255}
+   * @return the attributes of the foreground color
+   */
+  public static int foreground(int color) {
+    return checkColor(color) << FOREGROUND_SHIFT;
+  }
+
+  /**
+   * @param color the color index between {@code 0} and {@code 255}
+   * @return the attributes of the background color
+   */
+  public static int background(int color) {
+    return checkColor(color) << BACKGROUND_SHIFT;
+  }
+
+  private static int checkColor(int color) {
+    if (color < 0 || color > 255) {
+      throw new IllegalArgumentException("Invalid color " + color);
+    }
+    // 0 is the default color
+    return color + 1;
+  }
+
+  private static long cell(int codePoint, int attributes) {
+    return ((long) attributes << 32) | (codePoint & 0xFFFFFFFFL);
+  }
+
+  private static int codePoint(long cell) {
+    return (int) cell;
+  }
+
+  private static int attributes(long cell) {
+    return (int) (cell >>> 32);
+  }
+
+  private static int digits(int n) {
+    return n < 10 ? 1 : n < 100 ? 2 : n < 1000 ? 3 : Integer.toString(n).length();
+  }
+
+  private static int csiCost(int n) {
+    return n == 1 ? 3 : 3 + digits(n);
+  }
+
+  private int width;
+  private int height;
+  private long[] front;
+  private long[] back;
+  private boolean invalid = true;
+  private int cursorX;
+  private int cursorY;
+  private boolean cursorVisible = true;
+
+  // The terminal state, -1 when unknown
+  private int termX = -1;
+  private int termY = -1;
+  private int termAttributes = -1;
+  private boolean termCursorVisible = true;
+
+  private int[] out = new int[256];
+  private int length;
+
+  public Screen(int width, int height) {
+    checkSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.front = new long[width * height];
+    this.back = new long[width * height];
+    Arrays.fill(back, BLANK);
+  }
+
+  private static void checkSize(int width, int height) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+    }
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Resize the screen, the cells within the new size are kept and the next frame redraws the whole screen.
+   *
+   * @param width the new width
+   * @param height the new height
+   * @return this object
+   */
+  public Screen resize(int width, int height) {
+    checkSize(width, height);
+    long[] resized = new long[width * height];
+    Arrays.fill(resized, BLANK);
+    int w = Math.min(width, this.width);
+    for (int y = 0;y < Math.min(height, this.height);y++) {
+      System.arraycopy(back, y * this.width, resized, y * width, w);
+      if (w < this.width && codePoint(back[y * this.width + w]) == TAIL) {
+        // The wide code point is cut
+        resized[y * width + w - 1] = BLANK;
+      }
+    }
+    this.width = width;
+    this.height = height;
+    this.back = resized;
+    this.front = new long[width * height];
+    cursorX = Math.min(cursorX, width - 1);
+    cursorY = Math.min(cursorY, height - 1);
+    invalid = true;
+    return this;
+  }
+
+  /**
+   * Redraw the whole screen on the next frame, for instance when the terminal content has been altered by other
+   * writes to the connection.
+   *
+   * @return this object
+   */
+  public Screen invalidate() {
+    invalid = true;
+    return this;
+  }
+
+  /**
+   * Fill the back buffer with blank cells.
+   *
+   * @return this object
+   */
+  public Screen clear() {
+    Arrays.fill(back, BLANK);
+    return this;
+  }
+
+  public int codePoint(int x, int y) {
+    return codePoint(back[index(x, y)]);
+  }
+
+  public int attributes(int x, int y) {
+    return attributes(back[index(x, y)]);
+  }
+
+  private int index(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height) {
+      throw new IllegalArgumentException("Invalid position " + x + "," + y);
+    }
+    return y * width + x;
+  }
+
+  public Screen set(int x, int y, int codePoint) {
+    return set(x, y, codePoint, 0);
+  }
+
+  /**
+   * Set a cell of the back buffer, cells outside of the screen are ignored.
+   *
+   * @param x the column
+   * @param y the row
+   * @param codePoint the code point
+   * @param attributes the attributes
+   * @return this object
+   */
+  public Screen set(int x, int y, int codePoint, int attributes) {
+    put(x, y, codePoint, attributes);
+    return this;
+  }
+
+  /**
+   * Print a string in the back buffer from a position, the string is clipped at the end of the row.
+   *
+   * @param x the column
+   * @param y the row
+   * @param s the string
+   * @param attributes the attributes
+   * @return the column following the string
+   */
+  public int print(int x, int y, String s, int attributes) {
+    for (int i = 0;i < s.length();) {
+      int codePoint = s.codePointAt(i);
+      i += Character.charCount(codePoint);
+      x += put(x, y, codePoint, attributes);
+    }
+    return x;
+  }
+
+  private int put(int x, int y, int codePoint, int attributes) {
+    if (x < 0 || x >= width || y < 0 || y >= height) {
+      return 1;
+    }
+    int w = Wcwidth.of(codePoint);
+    if (w < 1 || (w > 1 && x == width - 1)) {
+      codePoint = ' ';
+      w = 1;
+    }
+    int index = y * width + x;
+    if (codePoint(back[index]) == TAIL) {
+      // Overwrite the second cell of a wide code point
+      back[index - 1] = cell(' ', attributes(back[index - 1]));
+    }
+    int last = index + w - 1;
+    if (x + w < width && codePoint(back[last + 1]) == TAIL) {
+      // Overwrite the first cell of a wide code point
+      back[last + 1] = cell(' ', attributes(back[last + 1]));
+    }
+    back[index] = cell(codePoint, attributes);
+    if (w > 1) {
+      back[index + 1] = cell(TAIL, attributes);
+    }
+    return w;
+  }
+
+  /**
+   * Set the position of the cursor once the frame is rendered.
+   *
+   * @param x the column
+   * @param y the row
+   * @return this object
+   */
+  public Screen setCursor(int x, int y) {
+    index(x, y);
+    cursorX = x;
+    cursorY = y;
+    return this;
+  }
+
+  public boolean isCursorVisible() {
+    return cursorVisible;
+  }
+
+  public Screen setCursorVisible(boolean cursorVisible) {
+    this.cursorVisible = cursorVisible;
+    return this;
+  }
+
+  /**
+   * Render the changes of the frame to a connection.
+   *
+   * @param conn the connection
+   */
+  public void render(TtyConnection conn) {
+    render((CodePointSink) conn::write);
+  }
+
+  /**
+   * Render the changes of the frame, the front buffer is updated with the back buffer. Nothing is written when the
+   * frame is unchanged.
+   *
+   * @param sink the sink receiving the update
+   */
+  public void render(CodePointSink sink) {
+    length = 0;
+    if (!cursorVisible && termCursorVisible) {
+      // Hide the cursor before drawing
+      appendCsi();
+      append("?25l");
+      termCursorVisible = false;
+    }
+    if (invalid) {
+      invalid = false;
+      termAttributes = -1;
+      setAttributes(0);
+      appendCsi();
+      append('H');
+      appendCsi();
+      append("2J");
+      Arrays.fill(front, BLANK);
+      termX = 0;
+      termY = 0;
+    }
+    for (int y = 0;y < height;y++) {
+      renderRow(y);
+    }
+    if (cursorVisible) {
+      moveTo(cursorX, cursorY);
+      if (!termCursorVisible) {
+        appendCsi();
+        append("?25h");
+        termCursorVisible = true;
+      }
+    }
+    if (length > 0) {
+      sink.accept(out, 0, length);
+    }
+  }
+
+  private void renderRow(int y) {
+    int base = y * width;
+    int blankFrom = width;
+    while (blankFrom > 0 && back[base + blankFrom - 1] == BLANK) {
+      blankFrom--;
+    }
+    int changedBlanks = 0;
+    for (int x = blankFrom;x < width;x++) {
+      if (front[base + x] != BLANK) {
+        changedBlanks++;
+      }
+    }
+    // Erasing the end of the row costs about three cells
+    int erase = changedBlanks >= 3 ? blankFrom : width;
+    int x = 0;
+    while (x < width) {
+      if (front[base + x] == back[base + x]) {
+        x++;
+        continue;
+      }
+      if (codePoint(back[base + x]) == TAIL) {
+        x--;
+      }
+      moveTo(x, y);
+      if (x >= erase) {
+        setAttributes(0);
+        appendCsi();
+        append('K');
+        Arrays.fill(front, base + x, base + width, BLANK);
+        return;
+      }
+      x = renderSpan(base, x, erase);
+    }
+  }
+
+  private int renderSpan(int base, int x, int erase) {
+    while (x < erase) {
+      if (front[base + x] != back[base + x]) {
+        x = renderCell(base, x);
+        continue;
+      }
+      int next = x + 1;
+      while (next < width && front[base + next] == back[base + next]) {
+        next++;
+      }
+      if (next >= erase || !rewriteGap(base, x, next)) {
+        break;
+      }
+      while (x < next) {
+        x = renderCell(base, x);
+      }
+    }
+    return x;
+  }
+
+  /**
+   * @return true when rewriting the unchanged cells is cheaper than moving the cursor over them
+   */
+  private boolean rewriteGap(int base, int from, int to) {
+    if (to - from > horizontal(from, to, false)) {
+      return false;
+    }
+    for (int x = from;x < to;x++) {
+      if (attributes(back[base + x]) != termAttributes) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int renderCell(int base, int x) {
+    long cell = back[base + x];
+    setAttributes(attributes(cell));
+    append(codePoint(cell));
+    front[base + x] = cell;
+    int w = 1;
+    if (x + 1 < width && codePoint(back[base + x + 1]) == TAIL) {
+      front[base + x + 1] = back[base + x + 1];
+      w = 2;
+    }
+    termX += w;
+    if (termX >= width) {
+      // The wrap is pending, the position depends on the terminal
+      termX = -1;
+      termY = -1;
+    }
+    return x + w;
+  }
+
+  private void moveTo(int x, int y) {
+    if (termX == x && termY == y) {
+      return;
+    }
+    if (termX >= 0 && vertical(y - termY, false) + horizontal(termX, x, false) < absolute(x, y, false)) {
+      vertical(y - termY, true);
+      horizontal(termX, x, true);
+    } else {
+      absolute(x, y, true);
+    }
+    termX = x;
+    termY = y;
+  }
+
+  private int absolute(int x, int y, boolean write) {
+    if (write) {
+      appendCsi();
+      if (x > 0) {
+        appendNumber(y + 1);
+        append(';');
+        appendNumber(x + 1);
+      } else if (y > 0) {
+        appendNumber(y + 1);
+      }
+      append('H');
+    }
+    if (x > 0) {
+      return 4 + digits(y + 1) + digits(x + 1);
+    }
+    return y > 0 ? 3 + digits(y + 1) : 3;
+  }
+
+  private int vertical(int dy, boolean write) {
+    if (dy == 0) {
+      return 0;
+    }
+    int n = Math.abs(dy);
+    if (write) {
+      appendCsiParam(n);
+      append(dy > 0 ? 'B' : 'A');
+    }
+    return csiCost(n);
+  }
+
+  private int horizontal(int from, int to, boolean write) {
+    if (from == to) {
+      return 0;
+    }
+    if (to == 0) {
+      if (write) {
+        append('\r');
+      }
+      return 1;
+    }
+    int relative = csiCost(Math.abs(to - from));
+    int column = csiCost(to + 1);
+    int carriageReturn = 1 + csiCost(to);
+    if (relative <= column && relative <= carriageReturn) {
+      if (write) {
+        appendCsiParam(Math.abs(to - from));
+        append(to > from ? 'C' : 'D');
+      }
+      return relative;
+    } else if (column <= carriageReturn) {
+      if (write) {
+        appendCsiParam(to + 1);
+        append('G');
+      }
+      return column;
+    } else {
+      if (write) {
+        append('\r');
+        appendCsiParam(to);
+        append('C');
+      }
+      return carriageReturn;
+    }
+  }
+
+  private void setAttributes(int attributes) {
+    if (attributes == termAttributes) {
+      return;
+    }
+    int from = termAttributes;
+    boolean reset = from < 0 ||
+        (from & ~attributes & FLAGS) != 0 ||
+        (color(attributes, FOREGROUND_SHIFT) == 0 && color(from, FOREGROUND_SHIFT) != 0) ||
+        (color(attributes, BACKGROUND_SHIFT) == 0 && color(from, BACKGROUND_SHIFT) != 0);
+    appendCsi();
+    boolean first = true;
+    if (reset) {
+      append('0');
+      first = false;
+      from = 0;
+    }
+    int added = attributes & ~from & FLAGS;
+    if ((added & BOLD) != 0) {
+      first = appendParam(1, first);
+    }
+    if ((added & UNDERLINE) != 0) {
+      first = appendParam(4, first);
+    }
+    if ((added & BLINK) != 0) {
+      first = appendParam(5, first);
+    }
+    if ((added & REVERSE) != 0) {
+      first = appendParam(7, first);
+    }
+    int foreground = color(attributes, FOREGROUND_SHIFT);
+    if (foreground != 0 && foreground != color(from, FOREGROUND_SHIFT)) {
+      first = appendColor(foreground - 1, 30, 90, 38, first);
+    }
+    int background = color(attributes, BACKGROUND_SHIFT);
+    if (background != 0 && background != color(from, BACKGROUND_SHIFT)) {
+      appendColor(background - 1, 40, 100, 48, first);
+    }
+    append('m');
+    termAttributes = attributes;
+  }
+
+  private static int color(int attributes, int shift) {
+    return (attributes >> shift) & COLOR_MASK;
+  }
+
+  private boolean appendColor(int color, int normal, int bright, int extended, boolean first) {
+    if (color < 8) {
+      return appendParam(normal + color, first);
+    } else if (color < 16) {
+      return appendParam(bright + color - 8, first);
+    } else {
+      appendParam(extended, first);
+      appendParam(5, false);
+      return appendParam(color, false);
+    }
+  }
+
+  private boolean appendParam(int n, boolean first) {
+    if (!first) {
+      append(';');
+    }
+    appendNumber(n);
+    return false;
+  }
+
+  private void appendCsi() {
+    append('\033');
+    append('[');
+  }
+
+  private void appendCsiParam(int n) {
+    appendCsi();
+    if (n != 1) {
+      appendNumber(n);
+    }
+  }
+
+  private void appendNumber(int n) {
+    if (n >= 10) {
+      appendNumber(n / 10);
+    }
+    append('0' + n % 10);
+  }
+
+  private void append(String s) {
+    for (int i = 0;i < s.length();i++) {
+      append(s.charAt(i));
+    }
+  }
+
+  private void append(int codePoint) {
+    if (length == out.length) {
+      out = Arrays.copyOf(out, length * 2);
+    }
+    out[length++] = codePoint;
+  }
+}
@@ -18,10 +18,22 @@ package io.termd.core.ssh;
 
 import io.termd.core.io.BinaryDecoder;
 import io.termd.core.io.BinaryEncoder;
+import io.termd.core.io.PreEncoded;
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.metrics.StallDetector;
+import io.termd.core.metrics.TtyMetrics;
+import io.termd.core.tty.CloseListeners;
+import io.termd.core.tty.LineDiscipline;
+import io.termd.core.tty.OutputFlowControl;
+import io.termd.core.tty.OutputScheduler;
+import io.termd.core.tty.ReadBuffer;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.tty.TtyEvent;
-import io.termd.core.tty.TtyEventDecoder;
-import io.termd.core.tty.TtyOutputMode;
+import io.termd.core.tty.TtyOutputLane;
+import io.termd.core.tty.Termios;
+import io.termd.core.util.Helper;
+import io.termd.core.util.Logging;
 import io.termd.core.util.Vector;
 import org.apache.sshd.common.channel.PtyMode;
 import org.apache.sshd.common.io.IoInputStream;
@@ -38,10 +50,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.logging.Level;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -53,24 +72,46 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
 
   private static final Pattern LC_PATTERN = Pattern.compile("(?:\\p{Alpha}{2}_\\p{Alpha}{2}\\.)?([^@]+)(?:@.+)?");
 
+  /**
+   * The number of bytes queued behind the pending channel write above which the connection is not writable.
+   */
+  public static final int WRITE_HIGH_WATERMARK = 64 * 1024;
+
+  /**
+   * The number of bytes queued behind the pending channel write below which the connection is writable again.
+   */
+  public static final int WRITE_LOW_WATERMARK = 32 * 1024;
+
   private final Consumer<TtyConnection> handler;
   private final Charset defaultCharset;
   private Charset charset;
   private String term;
-  private TtyEventDecoder eventDecoder;
+  private LineDiscipline lineDiscipline;
+  private final ReadBuffer readBuffer = new ReadBuffer(this::execute);
+  private volatile boolean readPaused;
+  private final AtomicLong withheld = new AtomicLong();
   private BinaryDecoder decoder;
-  private Consumer<int[]> stdout;
-  private Consumer<byte[]> out;
+  private OutputScheduler stdout;
+  // The channel accepts a single pending write, the output and the completions that follow it are queued
+  private final ArrayDeque<Object> writeQueue = new ArrayDeque<>();
+  private boolean writing;
+  private int queuedBytes;
+  private boolean transportWritable = true;
   private Vector size = null;
   private Consumer<Vector> sizeHandler;
   private Consumer<String> termHandler;
   private Consumer<Void> closeHandler;
+  private final CloseListeners closeListeners = new CloseListeners();
   protected ChannelSession session;
   private final AtomicBoolean closed = new AtomicBoolean();
   private ExitCallback exitCallback;
   private Connection conn;
   private IoOutputStream ioOut;
   private long lastAccessedTime = System.currentTimeMillis();
+  private final long id = Helper.nextConnectionId();
+  private final StallDetector stallDetector = StallDetector.get();
+  private ConnectionMetrics metrics = ConnectionMetrics.NOOP;
+  private EchoTracer echoTracer = EchoTracer.NOOP;
 
   public TtyCommand(Charset defaultCharset, Consumer<TtyConnection> handler) {
     this.handler = handler;
@@ -81,13 +122,51 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
   public int data(ChannelSession channel, byte[] buf, int start, int len) throws IOException {
     if (decoder != null) {
       lastAccessedTime = System.currentTimeMillis();
-      decoder.write(buf, start, len);
+      echoTracer.received();
+      metrics.bytesRead(len);
+      stallDetector.enter(id, TtyMetrics.SSH);
+      try {
+        decoder.write(buf, start, len);
+      } finally {
+        stallDetector.exit();
+      }
     } else {
       // Data send too early ?
     }
+    if (readPaused) {
+      // Do not adjust the window until the read buffer is drained
+      withheld.addAndGet(len);
+      if (!readPaused) {
+        releaseWindow();
+      }
+      return 0;
+    }
     return len;
   }
 
+  private void flush() {
+    readBuffer.discard();
+    stdout.discard();
+  }
+
+  private void setReadPaused(boolean paused) {
+    readPaused = paused;
+    if (!paused) {
+      releaseWindow();
+    }
+  }
+
+  private void releaseWindow() {
+    long len = withheld.getAndSet(0);
+    if (len > 0) {
+      try {
+        session.getLocalWindow().release(len);
+      } catch (IOException e) {
+        Logging.IO_ERROR.log(Level.SEVERE, "Could not release the channel window", e);
+      }
+    }
+  }
+
   @Override
   public void setChannelSession(ChannelSession session) {
     this.session = session;
@@ -113,13 +192,105 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
   @Override
   public void setIoOutputStream(IoOutputStream out) {
     this.ioOut = out;
-    this.out = bytes -> {
-      try {
-        out.writeBuffer(new ByteArrayBuffer(bytes));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+  }
+
+  private void send(byte[] bytes) {
+    synchronized (writeQueue) {
+      if (writing) {
+        writeQueue.add(bytes);
+        queuedBytes += bytes.length;
+        if (transportWritable && queuedBytes >= WRITE_HIGH_WATERMARK) {
+          transportWritable = false;
+          stdout.setTransportWritable(false);
+        }
+        return;
+      }
+      writing = true;
+    }
+    writeBuffer(bytes);
+  }
+
+  private void writeBuffer(byte[] bytes) {
+    try {
+      ioOut.writeBuffer(new ByteArrayBuffer(bytes)).addListener(future -> {
+        onWritten(future.isWritten() ? null : future.getException());
+      });
+    } catch (IOException e) {
+      onWritten(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void onWritten(Throwable failure) {
+    List<Consumer<Throwable>> completions = new ArrayList<>();
+    byte[] next = null;
+    synchronized (writeQueue) {
+      while (writeQueue.peek() instanceof Consumer) {
+        completions.add((Consumer<Throwable>) writeQueue.poll());
+      }
+      if (failure != null) {
+        for (Object item : writeQueue) {
+          if (item instanceof Consumer) {
+            completions.add((Consumer<Throwable>) item);
+          }
+        }
+        writeQueue.clear();
+        queuedBytes = 0;
+      } else {
+        // Gather the output queued up to the next completion in a single write
+        List<byte[]> batch = new ArrayList<>();
+        int length = 0;
+        while (writeQueue.peek() instanceof byte[]) {
+          byte[] bytes = (byte[]) writeQueue.poll();
+          batch.add(bytes);
+          length += bytes.length;
+        }
+        if (batch.size() == 1) {
+          next = batch.get(0);
+        } else if (batch.size() > 1) {
+          next = new byte[length];
+          int pos = 0;
+          for (byte[] bytes : batch) {
+            System.arraycopy(bytes, 0, next, pos, bytes.length);
+            pos += bytes.length;
+          }
+        }
+        queuedBytes -= length;
+      }
+      writing = next != null;
+      if (!transportWritable && queuedBytes <= WRITE_LOW_WATERMARK) {
+        transportWritable = true;
+        stdout.setTransportWritable(true);
+      }
+    }
+    for (Consumer<Throwable> completion : completions) {
+      completion.accept(failure);
+    }
+    if (next != null) {
+      writeBuffer(next);
+    }
+  }
+
+  /**
+   * @return a future completed when the output sent so far has been written to the channel
+   */
+  private CompletableFuture<Void> whenSent() {
+    CompletableFuture<Void> fut = new CompletableFuture<>();
+    Consumer<Throwable> completion = err -> {
+      if (err == null) {
+        fut.complete(null);
+      } else {
+        fut.completeExceptionally(err);
       }
     };
+    synchronized (writeQueue) {
+      if (writing) {
+        writeQueue.add(completion);
+        return fut;
+      }
+    }
+    completion.accept(null);
+    return fut;
   }
 
   @Override
@@ -141,18 +312,37 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
     if (charset == null) {
       charset = defaultCharset;
     }
-    env.addSignalListener((ch, signal) -> updateSize(env), EnumSet.of(org.apache.sshd.server.Signal.WINCH));
+    env.addSignalListener((ch, signal) -> {
+      stallDetector.enter(id, TtyMetrics.SSH);
+      try {
+        updateSize(env);
+      } finally {
+        stallDetector.exit();
+      }
+    }, EnumSet.of(org.apache.sshd.server.Signal.WINCH));
     updateSize(env);
-
-    // Event handling
-    int vintr = getControlChar(env, PtyMode.VINTR, 3);
-    int vsusp = getControlChar(env, PtyMode.VSUSP, 26);
-    int veof = getControlChar(env, PtyMode.VEOF, 4);
-
-    //
-    eventDecoder = new TtyEventDecoder(vintr, vsusp, veof);
-    decoder = new BinaryDecoder(512, charset, eventDecoder);
-    stdout = new TtyOutputMode(new BinaryEncoder(charset, out));
+    metrics = TtyMetrics.get().connectionOpened(TtyMetrics.SSH);
+    echoTracer = EchoTracer.create(id, TtyMetrics.SSH);
+
+    // The channel takes byte arrays, the output queued while a write is in progress is sent in a single write
+    BinaryEncoder encoder = new BinaryEncoder(charset, bytes -> {
+      metrics.bytesWritten(bytes.length);
+      send(bytes);
+      echoTracer.flushed();
+    });
+    stdout = new OutputScheduler(new OutputFlowControl(encoder.setFlags(getOutputFlags(env))), this::execute)
+        .setMetrics(metrics);
+
+    // Event handling and line editing
+    lineDiscipline = new LineDiscipline(getTermios(env))
+        .setReadHandler(readBuffer)
+        .setEchoHandler(stdout)
+        .setStopHandler(stdout::setStopped)
+        .setFlushHandler(this::flush)
+        .setMetrics(metrics)
+        .setEchoTracer(echoTracer);
+    readBuffer.setFlowControlHandler(this::setReadPaused);
+    decoder = new BinaryDecoder(512, charset, lineDiscipline);
     term = env.getEnv().get("TERM");
     conn = new Connection();
 
@@ -161,9 +351,54 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
     handler.accept(conn);
   }
 
+  private int getOutputFlags(Environment env) {
+    Map<PtyMode, Integer> modes = env.getPtyModes();
+    int flags = 0;
+    // Translate NL to CR-NL unless the client explicitly disabled it
+    Integer onlcr = modes.get(PtyMode.ONLCR);
+    if (onlcr == null || onlcr != 0) {
+      flags |= BinaryEncoder.ONLCR;
+    }
+    Integer ocrnl = modes.get(PtyMode.OCRNL);
+    if (ocrnl != null && ocrnl != 0) {
+      flags |= BinaryEncoder.OCRNL;
+    }
+    return flags;
+  }
+
+  private Termios getTermios(Environment env) {
+    Termios termios = new Termios();
+    termios.setVintr(getControlChar(env, PtyMode.VINTR, termios.getVintr()));
+    // VQUIT is not taken from the client, the QUIT event is opt-in and Ctrl-\ is passed through
+    termios.setVsusp(getControlChar(env, PtyMode.VSUSP, termios.getVsusp()));
+    termios.setVeof(getControlChar(env, PtyMode.VEOF, termios.getVeof()));
+    termios.setVerase(getControlChar(env, PtyMode.VERASE, termios.getVerase()));
+    termios.setVkill(getControlChar(env, PtyMode.VKILL, termios.getVkill()));
+    termios.setVwerase(getControlChar(env, PtyMode.VWERASE, termios.getVwerase()));
+    setFlag(env, termios, PtyMode.ECHO, Termios.ECHO);
+    setFlag(env, termios, PtyMode.ECHOE, Termios.ECHOE);
+    setFlag(env, termios, PtyMode.ICRNL, Termios.ICRNL);
+    setFlag(env, termios, PtyMode.IXON, Termios.IXON);
+    termios.setVstart(getControlChar(env, PtyMode.VSTART, termios.getVstart()));
+    termios.setVstop(getControlChar(env, PtyMode.VSTOP, termios.getVstop()));
+    // Canonical mode is left to the application that usually drives the terminal in raw mode with readline
+    return termios;
+  }
+
+  private void setFlag(Environment env, Termios termios, PtyMode key, int flag) {
+    Integer value = env.getPtyModes().get(key);
+    if (value != null) {
+      termios.setEnabled(flag, value != 0);
+    }
+  }
+
   private int getControlChar(Environment env, PtyMode key, int def) {
     Integer controlChar = env.getPtyModes().get(key);
-    return controlChar != null ? controlChar : def;
+    if (controlChar == null) {
+      return def;
+    }
+    // 255 disables the character
+    return controlChar != 255 ? controlChar : -1;
   }
 
   public void updateSize(Environment env) {
@@ -194,28 +429,36 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
   }
 
   private void close(int exit) throws IOException {
-    ioOut.close(false).addListener(future -> {
+    whenSent().whenComplete((v, err) -> ioOut.close(false).addListener(future -> {
       exitCallback.onExit(exit);
+      if (stdout != null) {
+        stdout.close();
+      }
+      metrics.closed();
       if (closed.compareAndSet(false, true)) {
+        closeListeners.close();
         if (closeHandler != null) {
           closeHandler.accept(null);
         } else {
           // This happen : report it to the SSHD project
         }
       }
-    });
+    }));
   }
 
   @Override
   public void destroy(ChannelSession channelSession) throws Exception {
+    metrics.closed();
     // Test this
   }
 
   protected void execute(Runnable task) {
+    task = stallDetector.wrap(id, TtyMetrics.SSH, task);
     session.getSession().getFactoryManager().getScheduledExecutorService().execute(task);
   }
 
   protected void schedule(Runnable task, long delay, TimeUnit unit) {
+    task = stallDetector.wrap(id, TtyMetrics.SSH, task);
     session.getSession().getFactoryManager().getScheduledExecutorService().schedule(task, delay, unit);
   }
 
@@ -248,19 +491,39 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
       return lastAccessedTime;
     }
 
+    @Override
+    public long id() {
+      return id;
+    }
+
+    @Override
+    public ConnectionMetrics metrics() {
+      return metrics;
+    }
+
+    @Override
+    public EchoTracer echoTracer() {
+      return echoTracer;
+    }
+
     @Override
     public String terminalType() {
       return term;
     }
 
+    @Override
+    public Termios termios() {
+      return lineDiscipline.getTermios();
+    }
+
     @Override
     public Consumer<int[]> getStdinHandler() {
-      return eventDecoder.getReadHandler();
+      return readBuffer.getReadHandler();
     }
 
     @Override
     public void setStdinHandler(Consumer<int[]> handler) {
-      eventDecoder.setReadHandler(handler);
+      readBuffer.setReadHandler(handler);
     }
 
     @Override
@@ -290,12 +553,12 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
 
     @Override
     public BiConsumer<TtyEvent, Integer> getEventHandler() {
-      return eventDecoder.getEventHandler();
+      return lineDiscipline.getEventHandler();
     }
 
     @Override
     public void setEventHandler(BiConsumer<TtyEvent, Integer> handler) {
-      eventDecoder.setEventHandler(handler);
+      lineDiscipline.setEventHandler(handler);
     }
 
     @Override
@@ -303,6 +566,44 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
       return stdout;
     }
 
+    @Override
+    public Consumer<int[]> stdoutHandler(TtyOutputLane lane) {
+      return stdout.lane(lane);
+    }
+
+    @Override
+    public void executeAfterBulk(Runnable task) {
+      stdout.executeAfterBulk(task);
+    }
+
+    @Override
+    public TtyConnection write(PreEncoded sequence) {
+      stdout.write(sequence);
+      return this;
+    }
+
+    @Override
+    public boolean isWritable() {
+      return stdout.isWritable();
+    }
+
+    @Override
+    public Consumer<Boolean> getWritabilityHandler() {
+      return stdout.getWritabilityHandler();
+    }
+
+    @Override
+    public void setWritabilityHandler(Consumer<Boolean> handler) {
+      stdout.setWritabilityHandler(handler);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenWritten() {
+      CompletableFuture<Void> fut = new CompletableFuture<>();
+      stdout.executeAfterBulk(() -> fut.complete(null));
+      return fut.thenCompose(v -> whenSent());
+    }
+
     @Override
     public void execute(Runnable task) {
       TtyCommand.this.execute(task);
@@ -323,6 +624,11 @@ public class TtyCommand implements AsyncCommand, ChannelDataReceiver, ChannelSes
       return closeHandler;
     }
 
+    @Override
+    public void addCloseListener(Runnable listener) {
+      closeListeners.add(listener);
+    }
+
     @Override
     public void close() {
       try {
@@ -19,6 +19,8 @@ package io.termd.core.ssh.netty;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.termd.core.ssh.TtyCommand;
+import io.termd.core.tty.BlockingTtyConnection;
+import io.termd.core.tty.IdleTimeout;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.util.Helper;
 import org.apache.sshd.common.keyprovider.KeyPairProvider;
@@ -32,6 +34,7 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -47,6 +50,8 @@ public class NettySshTtyBootstrap {
   private SshServer server;
   private KeyPairProvider keyPairProvider;
   private PasswordAuthenticator passwordAuthenticator;
+  private IdleTimeout idleTimeout;
+  private Executor handlerExecutor;
 
   public NettySshTtyBootstrap() {
     this.host = "localhost";
@@ -99,14 +104,52 @@ public class NettySshTtyBootstrap {
     this.charset = charset;
   }
 
+  public IdleTimeout getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Set the idle timeout closing the idle connections, the timeouts of all the bootstraps share the same timer.
+   *
+   * @param idleTimeout the idle timeout or {@code null} to keep the connections open
+   * @return this object
+   */
+  public NettySshTtyBootstrap setIdleTimeout(IdleTimeout idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  public Executor getHandlerExecutor() {
+    return handlerExecutor;
+  }
+
+  /**
+   * Set the executor running the connection handlers, the handlers can block the executor threads instead of the
+   * transport event loop, see {@link BlockingTtyConnection#virtualThreadExecutor()}.
+   *
+   * @param handlerExecutor the executor or {@code null} to run the handlers on the event loop
+   * @return this object
+   */
+  public NettySshTtyBootstrap setHandlerExecutor(Executor handlerExecutor) {
+    this.handlerExecutor = handlerExecutor;
+    return this;
+  }
+
   public void start(Consumer<TtyConnection> factory, Consumer<Throwable> doneHandler) {
+    if (idleTimeout != null) {
+      factory = idleTimeout.wrap(factory);
+    }
+    if (handlerExecutor != null) {
+      factory = BlockingTtyConnection.wrap(factory, handlerExecutor);
+    }
+    Consumer<TtyConnection> handler = factory;
     server = SshServer.setUpDefaultServer();
     server.setIoServiceFactoryFactory(new NettyIoServiceFactoryFactory(childGroup));
     server.setPort(port);
     server.setHost(host);
     server.setKeyPairProvider(keyPairProvider);
     server.setPasswordAuthenticator(passwordAuthenticator);
-    server.setShellFactory(channelSession -> new TtyCommand(charset, factory));
+    server.setShellFactory(channelSession -> new TtyCommand(charset, handler));
     try {
       server.start();
     } catch (Exception e) {
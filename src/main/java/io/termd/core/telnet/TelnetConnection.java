@@ -15,7 +15,13 @@
  */
 package io.termd.core.telnet;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.termd.core.util.ByteScanner;
+
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -101,9 +107,83 @@ public abstract class TelnetConnection {
 
   protected abstract void send(byte[] data);
 
+  /**
+   * Send a buffer to the client, the buffer ownership is transferred to this method. The default implementation
+   * copies the buffer to a byte array.
+   *
+   * @param data the data to send
+   */
+  protected void send(ByteBuf data) {
+    byte[] bytes = ByteBufUtil.getBytes(data);
+    data.release();
+    send(bytes);
+  }
+
+  /**
+   * Send a buffer to the client, the buffer ownership is transferred to this method. When {@code flush} is false
+   * the buffer can be held until {@link #flush()} is called, the default implementation sends it.
+   *
+   * @param data the data to send
+   * @param flush whether to flush the buffer
+   */
+  protected void send(ByteBuf data, boolean flush) {
+    send(data);
+  }
+
+  /**
+   * Flush the buffers sent without being flushed, the default implementation does nothing.
+   */
+  public void flush() {
+  }
+
+  /**
+   * @return the allocator of the buffers written with {@link #write(ByteBuf)} or {@code null} when this
+   *         connection should be written with byte arrays
+   */
+  protected ByteBufAllocator allocator() {
+    return null;
+  }
+
+  /**
+   * @return true when the data sent can be written without growing the transport buffers over their limit, the
+   *         default implementation returns true
+   */
+  public boolean isWritable() {
+    return true;
+  }
+
+  /**
+   * Return a future completed when the data sent so far has been written by the transport, the default
+   * implementation returns a completed future.
+   *
+   * @return the future
+   */
+  public CompletableFuture<Void> whenSent() {
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Stop or resume reading data from the client, the default implementation does nothing.
+   *
+   * @param paused true to stop reading
+   */
+  public void setReadPaused(boolean paused) {
+  }
+
   public void receive(byte[] data) {
-    for (byte b : data) {
-      status.handle(this, b);
+    int index = 0;
+    while (index < data.length) {
+      if (status == Status.DATA) {
+        // Plain data up to the next IAC bypasses the state machine
+        int iac = ByteScanner.indexOf(data, index, data.length, BYTE_IAC);
+        int end = iac == -1 ? data.length : iac;
+        appendData(data, index, end - index);
+        if (iac == -1) {
+          break;
+        }
+        index = end;
+      }
+      status.handle(this, data[index++]);
     }
     flushDataIfNecessary();
   }
@@ -134,10 +214,55 @@ public abstract class TelnetConnection {
     }
   }
 
+  /**
+   * Write a buffer to the client, escaping data if necessary or truncating it. The buffer ownership is
+   * transferred to this method, a read-only buffer is copied when it must be truncated.
+   *
+   * @param data the data to write
+   */
+  public final void write(ByteBuf data) {
+    write(data, true);
+  }
+
+  /**
+   * Like {@link #write(ByteBuf)}, the buffer is not flushed when {@code flush} is false.
+   *
+   * @param data the data to write
+   * @param flush whether to flush the buffer
+   */
+  public final void write(ByteBuf data, boolean flush) {
+    if (sendBinary) {
+      if (data.indexOf(data.readerIndex(), data.writerIndex(), BYTE_IAC) != -1) {
+        byte[] bytes = ByteBufUtil.getBytes(data);
+        data.release();
+        write(bytes);
+        return;
+      }
+    } else {
+      for (int i = data.readerIndex();i < data.writerIndex();i++) {
+        byte b = data.getByte(i);
+        if (b < 0) {
+          if (data.isReadOnly()) {
+            ByteBuf copy = data.copy();
+            i -= data.readerIndex();
+            data.release();
+            data = copy;
+          }
+          data.setByte(i, b & 0x7F);
+        }
+      }
+    }
+    send(data, flush);
+  }
+
   protected void onClose() {
     handler.onClose();
   }
 
+  public void onWritabilityChanged(boolean writable) {
+    handler.onWritabilityChanged(writable);
+  }
+
   /**
    * Handle option <code>WILL</code> call back. The implementation will try to find a matching option
    * via the {@code Option#values()} and invoke it's {@link Option#handleWill(TelnetConnection)} method
@@ -241,6 +366,26 @@ public abstract class TelnetConnection {
     pendingBuffer[pendingLength++] = b;
   }
 
+  /**
+   * Append bytes in the {@link #pendingBuffer} buffer, flushing it each time it is full.
+   *
+   * @param data the data
+   * @param offset the offset
+   * @param length the length
+   */
+  private void appendData(byte[] data, int offset, int length) {
+    while (length > 0) {
+      if (pendingLength >= pendingBuffer.length) {
+        flushData();
+      }
+      int chunk = Math.min(length, pendingBuffer.length - pendingLength);
+      System.arraycopy(data, offset, pendingBuffer, pendingLength, chunk);
+      pendingLength += chunk;
+      offset += chunk;
+      length -= chunk;
+    }
+  }
+
   /**
    * Flush the {@link #pendingBuffer} buffer when it is not empty.
    *
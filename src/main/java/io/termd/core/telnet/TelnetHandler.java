@@ -51,4 +51,11 @@ public class TelnetHandler {
   protected void onSendBinary(boolean binary) { }
   protected void onReceiveBinary(boolean binary) { }
 
+  /**
+   * The writability of the connection changed.
+   *
+   * @param writable true when the transport buffers are below their limit
+   */
+  protected void onWritabilityChanged(boolean writable) {}
+
 }
@@ -16,18 +16,31 @@
 
 package io.termd.core.telnet;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.metrics.StallDetector;
+import io.termd.core.metrics.TtyMetrics;
+import io.termd.core.tty.CloseListeners;
 import io.termd.core.tty.ReadBuffer;
 import io.termd.core.tty.TtyEvent;
-import io.termd.core.tty.TtyEventDecoder;
-import io.termd.core.tty.TtyOutputMode;
+import io.termd.core.tty.TtyOutputLane;
+import io.termd.core.tty.FlushScheduler;
+import io.termd.core.tty.LineDiscipline;
+import io.termd.core.tty.OutputFlowControl;
+import io.termd.core.tty.OutputScheduler;
+import io.termd.core.tty.Termios;
+import io.termd.core.util.Helper;
 import io.termd.core.util.Vector;
 import io.termd.core.io.BinaryDecoder;
 import io.termd.core.io.BinaryEncoder;
+import io.termd.core.io.PreEncoded;
 import io.termd.core.io.TelnetCharset;
 import io.termd.core.tty.TtyConnection;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -49,15 +62,25 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
   private Consumer<Vector> sizeHandler;
   private Consumer<String> termHandler;
   private Consumer<Void> closeHandler;
+  private final CloseListeners closeListeners = new CloseListeners();
   protected TelnetConnection conn;
   private final Charset charset;
-  private final TtyEventDecoder eventDecoder = new TtyEventDecoder(3, 26, 4);
   private final ReadBuffer readBuffer = new ReadBuffer(this::execute);
-  private final BinaryDecoder decoder = new BinaryDecoder(512, TelnetCharset.INSTANCE, readBuffer);
-  private final BinaryEncoder encoder = new BinaryEncoder(StandardCharsets.US_ASCII, data -> conn.write(data));
-  private final Consumer<int[]> stdout = new TtyOutputMode(encoder);
+  private final LineDiscipline lineDiscipline = new LineDiscipline(new Termios()).setReadHandler(readBuffer);
+  // Input received during the option negotiation
+  private final ReadBuffer acceptBuffer = new ReadBuffer(this::execute);
+  private final BinaryDecoder decoder = new BinaryDecoder(512, TelnetCharset.INSTANCE, acceptBuffer);
+  private boolean acceptPaused;
+  private boolean readPaused;
+  private BinaryEncoder encoder;
+  private FlushScheduler flushScheduler;
+  private OutputScheduler stdout;
   private final Consumer<TtyConnection> handler;
   private long lastAccessedTime = System.currentTimeMillis();
+  private final long id = Helper.nextConnectionId();
+  private final StallDetector stallDetector = StallDetector.get();
+  private ConnectionMetrics metrics = ConnectionMetrics.NOOP;
+  private EchoTracer echoTracer = EchoTracer.NOOP;
 
   public TelnetTtyConnection(boolean inBinary, boolean outBinary, Charset charset, Consumer<TtyConnection> handler) {
     this.charset = charset;
@@ -71,6 +94,21 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
     return lastAccessedTime;
   }
 
+  @Override
+  public long id() {
+    return id;
+  }
+
+  @Override
+  public ConnectionMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public EchoTracer echoTracer() {
+    return echoTracer;
+  }
+
   @Override
   public String terminalType() {
     return terminalType;
@@ -78,12 +116,12 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
 
   @Override
   public void execute(Runnable task) {
-    conn.execute(task);
+    conn.execute(stallDetector.wrap(id, TtyMetrics.TELNET, task));
   }
 
   @Override
   public void schedule(Runnable task, long delay, TimeUnit unit) {
-    conn.schedule(task, delay, unit);
+    conn.schedule(stallDetector.wrap(id, TtyMetrics.TELNET, task), delay, unit);
   }
 
   @Override
@@ -117,12 +155,56 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
   @Override
   protected void onData(byte[] data) {
     lastAccessedTime = System.currentTimeMillis();
-    decoder.write(data);
+    echoTracer.received();
+    metrics.bytesRead(data.length);
+    stallDetector.enter(id, TtyMetrics.TELNET);
+    try {
+      decoder.write(data);
+    } finally {
+      stallDetector.exit();
+    }
   }
 
   @Override
   protected void onOpen(TelnetConnection conn) {
     this.conn = conn;
+    metrics = TtyMetrics.get().connectionOpened(TtyMetrics.TELNET);
+    echoTracer = EchoTracer.create(id, TtyMetrics.TELNET);
+    lineDiscipline.setMetrics(metrics).setEchoTracer(echoTracer);
+    acceptBuffer.setFlowControlHandler(paused -> {
+      synchronized (this) {
+        acceptPaused = paused;
+        conn.setReadPaused(acceptPaused | readPaused);
+      }
+    });
+    readBuffer.setFlowControlHandler(paused -> {
+      synchronized (this) {
+        readPaused = paused;
+        conn.setReadPaused(acceptPaused | readPaused);
+      }
+    });
+
+    // Encode straight into the transport buffers when possible and flush them once per task
+    ByteBufAllocator allocator = conn.allocator();
+    if (allocator != null) {
+      flushScheduler = new FlushScheduler(this, buf -> {
+        metrics.bytesWritten(buf.readableBytes());
+        conn.write(buf, false);
+      }, () -> {
+        conn.flush();
+        echoTracer.flushed();
+      });
+      encoder = new BinaryEncoder(StandardCharsets.US_ASCII, allocator, flushScheduler);
+    } else {
+      encoder = new BinaryEncoder(StandardCharsets.US_ASCII, bytes -> {
+        metrics.bytesWritten(bytes.length);
+        conn.write(bytes);
+        echoTracer.flushed();
+      });
+    }
+    encoder.setFlags(BinaryEncoder.ONLCR);
+    stdout = new OutputScheduler(new OutputFlowControl(encoder), this::execute).setMetrics(metrics);
+    lineDiscipline.setEchoHandler(stdout).setStopHandler(stdout::setStopped).setFlushHandler(this::flush);
 
     // Kludge mode
     conn.writeWillOption(Option.ECHO);
@@ -151,7 +233,7 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
       if (!outBinary | (outBinary && sendingBinary)) {
         if (!inBinary | (inBinary && receivingBinary)) {
           accepted = true;
-          readBuffer.setReadHandler(eventDecoder);
+          acceptBuffer.setReadHandler(lineDiscipline);
           handler.accept(this);
         }
       }
@@ -175,7 +257,12 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
   protected void onSize(int width, int height) {
     this.size = new Vector(width, height);
     if (sizeHandler != null) {
-      sizeHandler.accept(size);
+      stallDetector.enter(id, TtyMetrics.TELNET);
+      try {
+        sizeHandler.accept(size);
+      } finally {
+        stallDetector.exit();
+      }
     }
   }
 
@@ -204,22 +291,32 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
 
   @Override
   public BiConsumer<TtyEvent, Integer> getEventHandler() {
-    return eventDecoder.getEventHandler();
+    return lineDiscipline.getEventHandler();
   }
 
   @Override
   public void setEventHandler(BiConsumer<TtyEvent, Integer> handler) {
-    eventDecoder.setEventHandler(handler);
+    lineDiscipline.setEventHandler(handler);
+  }
+
+  private void flush() {
+    readBuffer.discard();
+    stdout.discard();
+  }
+
+  @Override
+  public Termios termios() {
+    return lineDiscipline.getTermios();
   }
 
   @Override
   public Consumer<int[]> getStdinHandler() {
-    return eventDecoder.getReadHandler();
+    return readBuffer.getReadHandler();
   }
 
   @Override
   public void setStdinHandler(Consumer<int[]> handler) {
-    eventDecoder.setReadHandler(handler);
+    readBuffer.setReadHandler(handler);
   }
 
   @Override
@@ -227,6 +324,56 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
     return stdout;
   }
 
+  @Override
+  public Consumer<int[]> stdoutHandler(TtyOutputLane lane) {
+    return stdout.lane(lane);
+  }
+
+  @Override
+  public void executeAfterBulk(Runnable task) {
+    stdout.executeAfterBulk(task);
+  }
+
+  @Override
+  public TtyConnection write(PreEncoded sequence) {
+    stdout.write(sequence);
+    return this;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return stdout.isWritable();
+  }
+
+  @Override
+  public Consumer<Boolean> getWritabilityHandler() {
+    return stdout.getWritabilityHandler();
+  }
+
+  @Override
+  public void setWritabilityHandler(Consumer<Boolean> handler) {
+    stdout.setWritabilityHandler(handler);
+  }
+
+  @Override
+  public CompletableFuture<Void> whenWritten() {
+    CompletableFuture<Void> fut = new CompletableFuture<>();
+    stdout.executeAfterBulk(() -> fut.complete(null));
+    return fut.thenCompose(v -> {
+      if (flushScheduler != null) {
+        flushScheduler.flush();
+      }
+      return conn.whenSent();
+    });
+  }
+
+  @Override
+  protected void onWritabilityChanged(boolean writable) {
+    if (stdout != null) {
+      stdout.setTransportWritable(writable);
+    }
+  }
+
   @Override
   public void setCloseHandler(Consumer<Void> closeHandler) {
     this.closeHandler = closeHandler;
@@ -237,8 +384,18 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
     return closeHandler;
   }
 
+  @Override
+  public void addCloseListener(Runnable listener) {
+    closeListeners.add(listener);
+  }
+
   @Override
   protected void onClose() {
+    metrics.closed();
+    if (stdout != null) {
+      stdout.close();
+    }
+    closeListeners.close();
     if (closeHandler != null) {
       closeHandler.accept(null);
     }
@@ -246,6 +403,16 @@ public final class TelnetTtyConnection extends TelnetHandler implements TtyConne
 
   @Override
   public void close() {
+    if (flushScheduler != null) {
+      flushScheduler.flush();
+    }
     conn.close();
   }
+
+  /**
+   * @return the flush scheduler of this connection or {@code null} when the output is written as byte arrays
+   */
+  public FlushScheduler getFlushScheduler() {
+    return flushScheduler;
+  }
 }
@@ -16,12 +16,15 @@
 
 package io.termd.core.telnet.netty;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.termd.core.telnet.TelnetConnection;
 import io.termd.core.telnet.TelnetHandler;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -46,10 +49,57 @@ public class NettyTelnetConnection extends TelnetConnection {
     context.channel().eventLoop().schedule(task, delay, unit);
   }
 
-  // Not properly synchronized, but ok for now
   @Override
   protected void send(byte[] data) {
-    context.writeAndFlush(Unpooled.buffer().writeBytes(data));
+    context.writeAndFlush(Unpooled.wrappedBuffer(data));
+  }
+
+  @Override
+  public boolean isWritable() {
+    return context.channel().isWritable();
+  }
+
+  @Override
+  public CompletableFuture<Void> whenSent() {
+    CompletableFuture<Void> fut = new CompletableFuture<>();
+    // Writes complete in order, the empty buffer completes after the data sent before it
+    context.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(future -> {
+      if (future.isSuccess()) {
+        fut.complete(null);
+      } else {
+        fut.completeExceptionally(future.cause());
+      }
+    });
+    return fut;
+  }
+
+  @Override
+  public void setReadPaused(boolean paused) {
+    context.channel().config().setAutoRead(!paused);
+  }
+
+  @Override
+  protected void send(ByteBuf data) {
+    context.writeAndFlush(data);
+  }
+
+  @Override
+  protected void send(ByteBuf data, boolean flush) {
+    if (flush) {
+      context.writeAndFlush(data);
+    } else {
+      context.write(data);
+    }
+  }
+
+  @Override
+  public void flush() {
+    context.flush();
+  }
+
+  @Override
+  protected ByteBufAllocator allocator() {
+    return context.alloc();
   }
 
   @Override
@@ -1,12 +1,15 @@
 package io.termd.core.telnet.netty;
 
 import io.termd.core.telnet.TelnetTtyConnection;
+import io.termd.core.tty.BlockingTtyConnection;
+import io.termd.core.tty.IdleTimeout;
 import io.termd.core.tty.TtyConnection;
 import io.termd.core.util.Helper;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -18,6 +21,8 @@ public class NettyTelnetTtyBootstrap {
   private boolean outBinary;
   private boolean inBinary;
   private Charset charset = StandardCharsets.UTF_8;
+  private IdleTimeout idleTimeout;
+  private Executor handlerExecutor;
 
   public NettyTelnetTtyBootstrap() {
     this.telnet = new NettyTelnetBootstrap();
@@ -79,6 +84,37 @@ public class NettyTelnetTtyBootstrap {
     this.charset = charset;
   }
 
+  public IdleTimeout getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Set the idle timeout closing the idle connections, the timeouts of all the bootstraps share the same timer.
+   *
+   * @param idleTimeout the idle timeout or {@code null} to keep the connections open
+   * @return this object
+   */
+  public NettyTelnetTtyBootstrap setIdleTimeout(IdleTimeout idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  public Executor getHandlerExecutor() {
+    return handlerExecutor;
+  }
+
+  /**
+   * Set the executor running the connection handlers, the handlers can block the executor threads instead of the
+   * transport event loop, see {@link BlockingTtyConnection#virtualThreadExecutor()}.
+   *
+   * @param handlerExecutor the executor or {@code null} to run the handlers on the event loop
+   * @return this object
+   */
+  public NettyTelnetTtyBootstrap setHandlerExecutor(Executor handlerExecutor) {
+    this.handlerExecutor = handlerExecutor;
+    return this;
+  }
+
   public CompletableFuture<?> start(Consumer<TtyConnection> factory) {
     CompletableFuture<?> fut = new CompletableFuture<>();
     start(factory, Helper.startedHandler(fut));
@@ -92,7 +128,14 @@ public class NettyTelnetTtyBootstrap {
   }
 
   public void start(Consumer<TtyConnection> factory, Consumer<Throwable> doneHandler) {
-    telnet.start(() -> new TelnetTtyConnection(inBinary, outBinary, charset, factory), doneHandler);
+    if (idleTimeout != null) {
+      factory = idleTimeout.wrap(factory);
+    }
+    if (handlerExecutor != null) {
+      factory = BlockingTtyConnection.wrap(factory, handlerExecutor);
+    }
+    Consumer<TtyConnection> handler = factory;
+    telnet.start(() -> new TelnetTtyConnection(inBinary, outBinary, charset, handler), doneHandler);
   }
 
   public void stop(Consumer<Throwable> doneHandler) {
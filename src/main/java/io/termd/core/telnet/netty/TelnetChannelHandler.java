@@ -17,6 +17,7 @@
 package io.termd.core.telnet.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.termd.core.telnet.TelnetHandler;
@@ -41,9 +42,12 @@ public class TelnetChannelHandler extends ChannelInboundHandlerAdapter {
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) {
     ByteBuf buf = (ByteBuf) msg;
-    int size = buf.readableBytes();
-    byte[] data = new byte[size];
-    buf.getBytes(0, data);
+    byte[] data;
+    try {
+      data = ByteBufUtil.getBytes(buf);
+    } finally {
+      buf.release();
+    }
     conn.receive(data);
   }
 
@@ -59,6 +63,14 @@ public class TelnetChannelHandler extends ChannelInboundHandlerAdapter {
     this.conn = null;
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (conn != null) {
+      conn.onWritabilityChanged(ctx.channel().isWritable());
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
     Logging.logReportedIoError(cause);
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.io.PreEncoded;
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.util.CodePointSink;
+import io.termd.core.util.Vector;
+
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A connection running its handlers on an executor instead of the transport event loop, so the handlers can block.<p>
+ *
+ * The stdin, event, size, terminal type, writability and close handlers as well as the tasks executed or scheduled
+ * by the connection run one at a time and in order on a per connection serial executor backed by the provided
+ * executor, usually {@link #virtualThreadExecutor()}. The output is written to the wrapped connection that remains
+ * responsible for writing it on the transport event loop.<p>
+ *
+ * The input waiting for a blocked stdin handler is bounded by watermarks, by default those of the {@link ReadBuffer}:
+ * when the queued code points reach the high watermark the stdin handler of the wrapped connection is removed, so
+ * its read buffer buffers the input and pauses the transport reads, it is set again once the queued code points are
+ * drained below the low watermark.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class BlockingTtyConnection implements TtyConnection {
+
+  private static class ExecutorHolder {
+    static final Executor EXECUTOR = createExecutor();
+  }
+
+  /**
+   * @return an executor running each task on a new virtual thread when the JVM supports them, otherwise an executor
+   *         running the tasks on a cached pool of daemon threads
+   */
+  public static Executor virtualThreadExecutor() {
+    return ExecutorHolder.EXECUTOR;
+  }
+
+  private static Executor createExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception ignore) {
+      // Virtual threads are not supported
+    }
+    return Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "termd-handler");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Wrap a connection handler so it is called with a connection running its handlers on the executor.
+   *
+   * @param handler the connection handler
+   * @param executor the executor
+   * @return the wrapped handler
+   */
+  public static Consumer<TtyConnection> wrap(Consumer<TtyConnection> handler, Executor executor) {
+    return conn -> {
+      BlockingTtyConnection blocking = new BlockingTtyConnection(conn, executor);
+      blocking.execute(() -> handler.accept(blocking));
+    };
+  }
+
+  private final TtyConnection conn;
+  private final Executor executor;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final Runnable drainTask = this::drain;
+  private final int lowWatermark;
+  private final int highWatermark;
+  // Guarded by this connection
+  private int pendingInput;
+  private CodePointSink inputRelay;
+  private boolean inputPaused;
+  private volatile Consumer<int[]> stdinHandler;
+  private volatile BiConsumer<TtyEvent, Integer> eventHandler;
+  private volatile Consumer<Vector> sizeHandler;
+  private volatile Consumer<String> terminalTypeHandler;
+  private volatile Consumer<Boolean> writabilityHandler;
+  private volatile Consumer<Void> closeHandler;
+
+  /**
+   * Create a new connection.
+   *
+   * @param conn the wrapped connection
+   * @param executor the executor running the handlers
+   */
+  public BlockingTtyConnection(TtyConnection conn, Executor executor) {
+    this(conn, executor, ReadBuffer.DEFAULT_LOW_WATERMARK, ReadBuffer.DEFAULT_HIGH_WATERMARK);
+  }
+
+  /**
+   * Create a new connection.
+   *
+   * @param conn the wrapped connection
+   * @param executor the executor running the handlers
+   * @param lowWatermark the number of queued input code points below which the input is resumed
+   * @param highWatermark the number of queued input code points above which the input is paused
+   */
+  public BlockingTtyConnection(TtyConnection conn, Executor executor, int lowWatermark, int highWatermark) {
+    if (lowWatermark < 0 || highWatermark < lowWatermark) {
+      throw new IllegalArgumentException("Invalid watermarks " + lowWatermark + "/" + highWatermark);
+    }
+    this.conn = conn;
+    this.executor = executor;
+    this.lowWatermark = lowWatermark;
+    this.highWatermark = Math.max(1, highWatermark);
+  }
+
+  /**
+   * @return the wrapped connection
+   */
+  public TtyConnection unwrap() {
+    return conn;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    if (running.compareAndSet(false, true)) {
+      executor.execute(drainTask);
+    }
+  }
+
+  @Override
+  public void schedule(Runnable task, long delay, TimeUnit unit) {
+    conn.schedule(() -> execute(task), delay, unit);
+  }
+
+  private void drain() {
+    while (true) {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (Throwable t) {
+          Thread current = Thread.currentThread();
+          current.getUncaughtExceptionHandler().uncaughtException(current, t);
+        }
+      }
+      running.set(false);
+      // A task added after the queue was drained and before the flag was cleared would be lost
+      if (tasks.isEmpty() || !running.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public long id() {
+    return conn.id();
+  }
+
+  @Override
+  public long lastAccessedTime() {
+    return conn.lastAccessedTime();
+  }
+
+  @Override
+  public Vector size() {
+    return conn.size();
+  }
+
+  @Override
+  public Charset inputCharset() {
+    return conn.inputCharset();
+  }
+
+  @Override
+  public Charset outputCharset() {
+    return conn.outputCharset();
+  }
+
+  @Override
+  public String terminalType() {
+    return conn.terminalType();
+  }
+
+  @Override
+  public ConnectionMetrics metrics() {
+    return conn.metrics();
+  }
+
+  @Override
+  public EchoTracer echoTracer() {
+    return conn.echoTracer();
+  }
+
+  @Override
+  public Termios termios() {
+    return conn.termios();
+  }
+
+  @Override
+  public Consumer<String> getTerminalTypeHandler() {
+    return terminalTypeHandler;
+  }
+
+  @Override
+  public void setTerminalTypeHandler(Consumer<String> handler) {
+    terminalTypeHandler = handler;
+    conn.setTerminalTypeHandler(handler != null ? type -> execute(() -> handler.accept(type)) : null);
+  }
+
+  @Override
+  public Consumer<Vector> getSizeHandler() {
+    return sizeHandler;
+  }
+
+  @Override
+  public void setSizeHandler(Consumer<Vector> handler) {
+    sizeHandler = handler;
+    conn.setSizeHandler(handler != null ? size -> execute(() -> handler.accept(size)) : null);
+  }
+
+  @Override
+  public BiConsumer<TtyEvent, Integer> getEventHandler() {
+    return eventHandler;
+  }
+
+  @Override
+  public void setEventHandler(BiConsumer<TtyEvent, Integer> handler) {
+    eventHandler = handler;
+    conn.setEventHandler(handler != null ? (event, key) -> execute(() -> handler.accept(event, key)) : null);
+  }
+
+  @Override
+  public Consumer<int[]> getStdinHandler() {
+    return stdinHandler;
+  }
+
+  @Override
+  public void setStdinHandler(Consumer<int[]> handler) {
+    stdinHandler = handler;
+    if (handler != null) {
+      CodePointSink relay = (codePoints, offset, length) -> {
+        // The slice is only valid during the call
+        int[] copy = Arrays.copyOfRange(codePoints, offset, offset + length);
+        inputQueued(length);
+        execute(() -> {
+          try {
+            handler.accept(copy);
+          } finally {
+            inputDrained(length);
+          }
+        });
+      };
+      synchronized (this) {
+        inputRelay = relay;
+        if (!inputPaused) {
+          conn.setStdinHandler(relay);
+        }
+      }
+    } else {
+      synchronized (this) {
+        inputRelay = null;
+        conn.setStdinHandler(null);
+      }
+    }
+  }
+
+  private synchronized void inputQueued(int length) {
+    pendingInput += length;
+    if (!inputPaused && pendingInput >= highWatermark) {
+      inputPaused = true;
+      conn.setStdinHandler(null);
+    }
+  }
+
+  private synchronized void inputDrained(int length) {
+    pendingInput -= length;
+    if (inputPaused && pendingInput <= lowWatermark) {
+      inputPaused = false;
+      if (inputRelay != null) {
+        conn.setStdinHandler(inputRelay);
+      }
+    }
+  }
+
+  @Override
+  public Consumer<Boolean> getWritabilityHandler() {
+    return writabilityHandler;
+  }
+
+  @Override
+  public void setWritabilityHandler(Consumer<Boolean> handler) {
+    writabilityHandler = handler;
+    conn.setWritabilityHandler(handler != null ? writable -> execute(() -> handler.accept(writable)) : null);
+  }
+
+  @Override
+  public Consumer<Void> getCloseHandler() {
+    return closeHandler;
+  }
+
+  @Override
+  public void setCloseHandler(Consumer<Void> handler) {
+    closeHandler = handler;
+    conn.setCloseHandler(handler != null ? v -> execute(() -> handler.accept(v)) : null);
+  }
+
+  @Override
+  public void addCloseListener(Runnable listener) {
+    conn.addCloseListener(listener);
+  }
+
+  @Override
+  public void executeAfterBulk(Runnable task) {
+    conn.executeAfterBulk(() -> execute(task));
+  }
+
+  @Override
+  public Consumer<int[]> stdoutHandler() {
+    return conn.stdoutHandler();
+  }
+
+  @Override
+  public Consumer<int[]> stdoutHandler(TtyOutputLane lane) {
+    return conn.stdoutHandler(lane);
+  }
+
+  @Override
+  public TtyConnection write(int[] codePoints, int offset, int length) {
+    conn.write(codePoints, offset, length);
+    return this;
+  }
+
+  @Override
+  public TtyConnection write(PreEncoded sequence) {
+    conn.write(sequence);
+    return this;
+  }
+
+  @Override
+  public TtyConnection write(String s) {
+    conn.write(s);
+    return this;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return conn.isWritable();
+  }
+
+  @Override
+  public CompletableFuture<Void> whenWritten() {
+    return conn.whenWritten();
+  }
+
+  @Override
+  public void close() {
+    conn.close();
+  }
+
+  @Override
+  public void close(int exit) {
+    conn.close(exit);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.util.Logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * The close listeners of a connection, see {@link TtyConnection#addCloseListener(Runnable)}. A listener added once the
+ * connection is closed is called immediately.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class CloseListeners {
+
+  private List<Runnable> listeners = new ArrayList<>();
+
+  public void add(Runnable listener) {
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(listener);
+        return;
+      }
+    }
+    call(listener);
+  }
+
+  /**
+   * @return true once the listeners have been called
+   */
+  public synchronized boolean isClosed() {
+    return listeners == null;
+  }
+
+  /**
+   * Call the listeners, only the first call has an effect.
+   */
+  public void close() {
+    List<Runnable> closed;
+    synchronized (this) {
+      closed = listeners;
+      listeners = null;
+    }
+    if (closed != null) {
+      closed.forEach(CloseListeners::call);
+    }
+  }
+
+  private static void call(Runnable listener) {
+    try {
+      listener.run();
+    } catch (Exception e) {
+      Logging.TTY.log(Level.SEVERE, "Close listener failure", e);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes the encoded output of a connection to the transport right away and flushes it once per executor task.<p>
+ *
+ * The buffers are written to the transport without being flushed and a task executed after the current one flushes
+ * the transport, so the many small writes of a redraw cost a single flush. A maximum delay lets the flush be deferred
+ * longer, the flush is then scheduled on the connection executor, and the transport is flushed as soon as the
+ * unflushed output reaches the maximum batch size. The scheduler does not retain the buffers, the transport releases
+ * the unflushed ones when it is closed.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class FlushScheduler implements Consumer<ByteBuf> {
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 16 * 1024;
+
+  private final TtyConnection conn;
+  private final Consumer<ByteBuf> transport;
+  private final Runnable transportFlush;
+  private final Runnable flushTask = this::flush;
+  private volatile long maxDelay;
+  private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+  private int unflushed;
+  private boolean scheduled;
+
+  /**
+   * Create a new scheduler.
+   *
+   * @param conn the connection executing or scheduling the flush
+   * @param transport writes a buffer to the transport without flushing it, the buffer ownership is transferred
+   * @param transportFlush flushes the transport
+   */
+  public FlushScheduler(TtyConnection conn, Consumer<ByteBuf> transport, Runnable transportFlush) {
+    this.conn = conn;
+    this.transport = transport;
+    this.transportFlush = transportFlush;
+  }
+
+  /**
+   * @return the maximum delay in milliseconds before the output is flushed
+   */
+  public long getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Set the maximum delay before the output is flushed, {@code 0} flushes the output after the current task.
+   *
+   * @param maxDelay the delay in milliseconds
+   * @return this object
+   */
+  public FlushScheduler setMaxDelay(long maxDelay) {
+    if (maxDelay < 0) {
+      throw new IllegalArgumentException("Invalid max delay " + maxDelay);
+    }
+    this.maxDelay = maxDelay;
+    return this;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Set the number of unflushed bytes that triggers an immediate flush.
+   *
+   * @param maxBatchSize the size in bytes
+   * @return this object
+   */
+  public FlushScheduler setMaxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Invalid max batch size " + maxBatchSize);
+    }
+    this.maxBatchSize = maxBatchSize;
+    return this;
+  }
+
+  @Override
+  public synchronized void accept(ByteBuf buf) {
+    unflushed += buf.readableBytes();
+    transport.accept(buf);
+    if (unflushed >= maxBatchSize) {
+      flush();
+    } else if (!scheduled) {
+      scheduled = true;
+      long delay = maxDelay;
+      if (delay > 0) {
+        conn.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+      } else {
+        conn.execute(flushTask);
+      }
+    }
+  }
+
+  /**
+   * Flush the output written to the transport now.
+   */
+  public synchronized void flush() {
+    scheduled = false;
+    if (unflushed > 0) {
+      unflushed = 0;
+      transportFlush.run();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives the frames of animated sessions from a single ticker thread, adapting the frame rate of each session to
+ * how fast its client drains the output.<p>
+ *
+ * At each tick the sessions whose next frame is due execute their frame task on the connection executor. A frame is
+ * in flight until {@link TtyConnection#whenWritten()} completes: a due frame is skipped instead of being queued when
+ * the previous frame is still in flight or the connection is not writable, and the frame interval of the session is
+ * doubled. The time it takes to write a frame, that grows with the outbound backlog and the round trip time when the
+ * transport waits for the client, adjusts the interval between the minimum and the maximum frame rate: the interval
+ * grows when the write takes more than half of it and shrinks back when it takes less than a quarter.<p>
+ *
+ * The ticker thread runs only while sessions are registered.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class FrameScheduler {
+
+  public static final long DEFAULT_TICK = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final FrameScheduler INSTANCE = new FrameScheduler();
+
+  /**
+   * @return the scheduler shared by the connections
+   */
+  public static FrameScheduler get() {
+    return INSTANCE;
+  }
+
+  private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<>();
+  private final long tick;
+  private ScheduledExecutorService ticker;
+  private ScheduledFuture<?> tickTask;
+
+  public FrameScheduler() {
+    this(DEFAULT_TICK, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Create a scheduler.
+   *
+   * @param tick the tick period, the frame intervals are rounded up to this period
+   * @param unit the tick unit
+   */
+  public FrameScheduler(long tick, TimeUnit unit) {
+    if (tick <= 0) {
+      throw new IllegalArgumentException("Invalid tick " + tick);
+    }
+    this.tick = unit.toNanos(tick);
+  }
+
+  /**
+   * @return the number of registered sessions
+   */
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Register an animated session with a minimum frame rate of one frame per second.
+   *
+   * @param conn the connection
+   * @param frameRate the maximum frame rate
+   * @param frame the task drawing a frame
+   * @return the session
+   */
+  public Session register(TtyConnection conn, int frameRate, Runnable frame) {
+    return register(conn, frameRate, 1, frame);
+  }
+
+  /**
+   * Register an animated session, the session is cancelled by a close listener of the connection.
+   *
+   * @param conn the connection
+   * @param maxFrameRate the maximum frame rate, the session starts at this rate
+   * @param minFrameRate the minimum frame rate
+   * @param frame the task drawing a frame, executed by the connection
+   * @return the session
+   */
+  public Session register(TtyConnection conn, int maxFrameRate, int minFrameRate, Runnable frame) {
+    if (minFrameRate < 1 || maxFrameRate < minFrameRate) {
+      throw new IllegalArgumentException("Invalid frame rates " + minFrameRate + "/" + maxFrameRate);
+    }
+    Session session = new Session(conn, frame, TimeUnit.SECONDS.toNanos(1) / maxFrameRate,
+        TimeUnit.SECONDS.toNanos(1) / minFrameRate);
+    conn.addCloseListener(session::cancel);
+    add(session);
+    return session;
+  }
+
+  private synchronized void add(Session session) {
+    sessions.add(session);
+    if (tickTask == null) {
+      if (ticker == null) {
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread thread = new Thread(r, "termd-frame-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      tickTask = ticker.scheduleAtFixedRate(this::tick, 0, tick, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private synchronized void remove(Session session) {
+    if (sessions.remove(session) && sessions.isEmpty() && tickTask != null) {
+      tickTask.cancel(false);
+      tickTask = null;
+    }
+  }
+
+  private void tick() {
+    long now = System.nanoTime();
+    for (Session session : sessions) {
+      session.tick(now);
+    }
+  }
+
+  /**
+   * An animated session.
+   */
+  public class Session {
+
+    private final TtyConnection conn;
+    private final Runnable frame;
+    private final Runnable frameTask = this::frame;
+    private final long minInterval;
+    private final long maxInterval;
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+    private volatile long interval;
+    private volatile long renderedFrames;
+    private volatile long skippedFrames;
+    private volatile boolean cancelled;
+    private long nextFrame = System.nanoTime();
+
+    private Session(TtyConnection conn, Runnable frame, long minInterval, long maxInterval) {
+      this.conn = conn;
+      this.frame = frame;
+      this.minInterval = minInterval;
+      this.maxInterval = maxInterval;
+      this.interval = minInterval;
+    }
+
+    /**
+     * @return the current frame rate
+     */
+    public double getFrameRate() {
+      return (double) TimeUnit.SECONDS.toNanos(1) / interval;
+    }
+
+    /**
+     * @return the number of frames drawn
+     */
+    public long getRenderedFrames() {
+      return renderedFrames;
+    }
+
+    /**
+     * @return the number of frames skipped because the client did not keep up
+     */
+    public long getSkippedFrames() {
+      return skippedFrames;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Stop drawing frames, a frame already executing completes.
+     */
+    public void cancel() {
+      cancelled = true;
+      remove(this);
+    }
+
+    private void tick(long now) {
+      if (cancelled || now - nextFrame < 0) {
+        return;
+      }
+      if (inFlight.get() || !conn.isWritable()) {
+        skippedFrames++;
+        synchronized (this) {
+          interval = Math.min(maxInterval, interval * 2);
+        }
+      } else {
+        inFlight.set(true);
+        conn.execute(frameTask);
+      }
+      nextFrame = now + interval;
+    }
+
+    private void frame() {
+      if (cancelled) {
+        inFlight.set(false);
+        return;
+      }
+      try {
+        frame.run();
+        renderedFrames++;
+      } finally {
+        long drawn = System.nanoTime();
+        conn.whenWritten().whenComplete((v, err) -> written(System.nanoTime() - drawn));
+      }
+    }
+
+    private void written(long time) {
+      synchronized (this) {
+        long current = interval;
+        if (time > current / 2) {
+          interval = Math.min(maxInterval, current + current / 2);
+        } else if (time < current / 4) {
+          interval = Math.max(minInterval, current - current / 4);
+        }
+      }
+      inFlight.set(false);
+    }
+  }
+}
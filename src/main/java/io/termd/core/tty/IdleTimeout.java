@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Closes the connections that stay idle or open for too long.<p>
+ *
+ * A connection is idle when it has not received input since its {@link TtyConnection#lastAccessedTime()} for the
+ * idle timeout, it is closed regardless of its activity once the absolute timeout elapsed. A warning message can be
+ * written some time before the connection is closed, the idle warning is written again when the connection becomes
+ * idle again after receiving input.<p>
+ *
+ * The timeouts of all the connections are driven by a single hashed timer wheel, each connection has at most one
+ * pending timeout that is not rescheduled on input: when it fires, the deadline is recomputed from the last accessed
+ * time and the timeout is scheduled again if needed. The checks run on the connection executor.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class IdleTimeout {
+
+  /**
+   * The reason of a timeout.
+   */
+  public enum Reason {
+
+    /**
+     * The connection did not receive input for the idle timeout.
+     */
+    IDLE,
+
+    /**
+     * The connection has been opened for the absolute timeout.
+     */
+    ABSOLUTE
+
+  }
+
+  public static final String DEFAULT_WARNING_MESSAGE = "\r\nThe session is about to be closed\r\n";
+
+  private static class TimerHolder {
+    static final Timer TIMER = new HashedWheelTimer(r -> {
+      Thread thread = new Thread(r, "termd-idle-timer");
+      thread.setDaemon(true);
+      return thread;
+    }, 100, TimeUnit.MILLISECONDS);
+  }
+
+  private volatile long idleTimeout;
+  private volatile long absoluteTimeout;
+  private volatile long warningDelay;
+  private volatile String warningMessage = DEFAULT_WARNING_MESSAGE;
+  private volatile BiConsumer<TtyConnection, Reason> warningHandler;
+  private volatile BiConsumer<TtyConnection, Reason> timeoutHandler;
+
+  /**
+   * @return the idle timeout in milliseconds, {@code 0} when disabled
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Set the time a connection can stay without receiving input before it is closed.
+   *
+   * @param idleTimeout the timeout in milliseconds, {@code 0} disables it
+   * @return this object
+   */
+  public IdleTimeout setIdleTimeout(long idleTimeout) {
+    if (idleTimeout < 0) {
+      throw new IllegalArgumentException("Invalid idle timeout " + idleTimeout);
+    }
+    this.idleTimeout = idleTimeout;
+    return this;
+  }
+
+  /**
+   * @return the absolute timeout in milliseconds, {@code 0} when disabled
+   */
+  public long getAbsoluteTimeout() {
+    return absoluteTimeout;
+  }
+
+  /**
+   * Set the time a connection can stay open before it is closed.
+   *
+   * @param absoluteTimeout the timeout in milliseconds, {@code 0} disables it
+   * @return this object
+   */
+  public IdleTimeout setAbsoluteTimeout(long absoluteTimeout) {
+    if (absoluteTimeout < 0) {
+      throw new IllegalArgumentException("Invalid absolute timeout " + absoluteTimeout);
+    }
+    this.absoluteTimeout = absoluteTimeout;
+    return this;
+  }
+
+  /**
+   * @return the delay in milliseconds between the warning and the close, {@code 0} when no warning is written
+   */
+  public long getWarningDelay() {
+    return warningDelay;
+  }
+
+  /**
+   * Set how long before closing the connection the warning is written.
+   *
+   * @param warningDelay the delay in milliseconds, {@code 0} disables the warning
+   * @return this object
+   */
+  public IdleTimeout setWarningDelay(long warningDelay) {
+    if (warningDelay < 0) {
+      throw new IllegalArgumentException("Invalid warning delay " + warningDelay);
+    }
+    this.warningDelay = warningDelay;
+    return this;
+  }
+
+  public String getWarningMessage() {
+    return warningMessage;
+  }
+
+  /**
+   * Set the message written to the client before the connection is closed.
+   *
+   * @param warningMessage the message or {@code null} to not write a message
+   * @return this object
+   */
+  public IdleTimeout setWarningMessage(String warningMessage) {
+    this.warningMessage = warningMessage;
+    return this;
+  }
+
+  public BiConsumer<TtyConnection, Reason> getWarningHandler() {
+    return warningHandler;
+  }
+
+  /**
+   * Set an handler called when the warning is written to a connection.
+   *
+   * @param handler the handler
+   * @return this object
+   */
+  public IdleTimeout setWarningHandler(BiConsumer<TtyConnection, Reason> handler) {
+    this.warningHandler = handler;
+    return this;
+  }
+
+  public BiConsumer<TtyConnection, Reason> getTimeoutHandler() {
+    return timeoutHandler;
+  }
+
+  /**
+   * Set an handler called before a connection is closed because of a timeout.
+   *
+   * @param handler the handler
+   * @return this object
+   */
+  public IdleTimeout setTimeoutHandler(BiConsumer<TtyConnection, Reason> handler) {
+    this.timeoutHandler = handler;
+    return this;
+  }
+
+  /**
+   * Watch a connection, the watch is cancelled by a close listener of the connection and is not affected by the
+   * close handler set by the application.
+   *
+   * @param conn the connection
+   */
+  public void register(TtyConnection conn) {
+    Session session = new Session(conn);
+    conn.addCloseListener(session::cancel);
+    conn.execute(session::check);
+  }
+
+  /**
+   * Wrap a connection handler so the connections are watched once the handler has set them up.
+   *
+   * @param handler the connection handler
+   * @return the wrapped handler
+   */
+  public Consumer<TtyConnection> wrap(Consumer<TtyConnection> handler) {
+    return conn -> {
+      handler.accept(conn);
+      register(conn);
+    };
+  }
+
+  private class Session implements TimerTask {
+
+    private final TtyConnection conn;
+    private final long openedTime = System.currentTimeMillis();
+    private final Runnable checkTask = this::check;
+    private volatile Timeout timeout;
+    private long idleWarned = -1;
+    private boolean absoluteWarned;
+    private volatile boolean cancelled;
+
+    Session(TtyConnection conn) {
+      this.conn = conn;
+    }
+
+    void cancel() {
+      cancelled = true;
+      Timeout t = timeout;
+      if (t != null) {
+        t.cancel();
+      }
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+      if (!cancelled) {
+        conn.execute(checkTask);
+      }
+    }
+
+    private void check() {
+      if (cancelled) {
+        return;
+      }
+      long now = System.currentTimeMillis();
+      long lastAccessedTime = conn.lastAccessedTime();
+      long idle = idleTimeout;
+      long absolute = absoluteTimeout;
+      long warning = warningDelay;
+      long next = Long.MAX_VALUE;
+      if (absolute > 0) {
+        long deadline = openedTime + absolute;
+        if (now >= deadline) {
+          expire(Reason.ABSOLUTE);
+          return;
+        }
+        if (warning > 0 && !absoluteWarned) {
+          if (now >= deadline - warning) {
+            absoluteWarned = true;
+            warn(Reason.ABSOLUTE);
+          } else {
+            deadline -= warning;
+          }
+        }
+        next = Math.min(next, deadline);
+      }
+      if (idle > 0) {
+        long deadline = lastAccessedTime + idle;
+        if (now >= deadline) {
+          expire(Reason.IDLE);
+          return;
+        }
+        // The idle warning is written once per idle period
+        if (warning > 0 && idleWarned != lastAccessedTime) {
+          if (now >= deadline - warning) {
+            idleWarned = lastAccessedTime;
+            warn(Reason.IDLE);
+          } else {
+            deadline -= warning;
+          }
+        }
+        next = Math.min(next, deadline);
+      }
+      if (next != Long.MAX_VALUE) {
+        timeout = TimerHolder.TIMER.newTimeout(this, next - now, TimeUnit.MILLISECONDS);
+        if (cancelled) {
+          timeout.cancel();
+        }
+      }
+    }
+
+    private void warn(Reason reason) {
+      String msg = warningMessage;
+      if (msg != null) {
+        conn.write(msg);
+      }
+      BiConsumer<TtyConnection, Reason> handler = warningHandler;
+      if (handler != null) {
+        handler.accept(conn, reason);
+      }
+    }
+
+    private void expire(Reason reason) {
+      cancelled = true;
+      BiConsumer<TtyConnection, Reason> handler = timeoutHandler;
+      if (handler != null) {
+        handler.accept(conn, reason);
+      }
+      conn.close();
+    }
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.util.CodePointSink;
+import io.termd.core.util.Wcwidth;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The line discipline of a connection: it decodes the signal characters like the {@link TtyEventDecoder} and
+ * implements the canonical mode of the {@link Termios}.<p>
+ *
+ * When {@link Termios#ICANON} is not set the input is passed through and the application is responsible for
+ * echoing it, as readline does. In canonical mode the input is echoed and edited with {@code VERASE},
+ * {@code VWERASE} and {@code VKILL} and the read handler receives whole lines terminated by a new line. {@code VEOF}
+ * delivers the pending line without a new line, on an empty line it sends the {@link TtyEvent#EOF} event instead.
+ * Other signals discard the pending line unless {@link Termios#NOFLSH} is set.<p>
+ *
+ * When {@link Termios#IXON} is set, {@code VSTOP} and {@code VSTART} are removed from the input and reported to the
+ * stop handler.<p>
+ *
+ * In canonical mode and unless {@link Termios#NOFLSH} is set, the {@link TtyEvent#INTR}, {@link TtyEvent#QUIT} and
+ * {@link TtyEvent#SUSP} events call the flush handler before they are dispatched, so the connection discards its
+ * pending input and output. The raw input is never flushed, the application handles the events itself.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class LineDiscipline extends TtyEventDecoder {
+
+  private final Termios termios;
+  private Consumer<int[]> echoHandler;
+  private CodePointSink echoSink;
+  private Consumer<Boolean> stopHandler;
+  private Runnable flushHandler;
+  private int[] line = new int[80];
+  private int lineLength;
+  private int[] echo = new int[80];
+  private int echoLength;
+  private ConnectionMetrics metrics = ConnectionMetrics.NOOP;
+  private EchoTracer echoTracer = EchoTracer.NOOP;
+
+  public LineDiscipline(Termios termios) {
+    super(-1, -1, -1, -1);
+    this.termios = termios;
+  }
+
+  /**
+   * The signal characters are read from the termios so they can be changed at any time.
+   */
+  @Override
+  TtyEvent eventOf(int val) {
+    if (val == termios.getVintr()) {
+      return TtyEvent.INTR;
+    } else if (val == termios.getVsusp()) {
+      return TtyEvent.SUSP;
+    } else if (val == termios.getVeof()) {
+      return TtyEvent.EOF;
+    } else if (val == termios.getVquit()) {
+      return TtyEvent.QUIT;
+    }
+    return null;
+  }
+
+  public Termios getTermios() {
+    return termios;
+  }
+
+  public Consumer<int[]> getEchoHandler() {
+    return echoHandler;
+  }
+
+  @Override
+  public LineDiscipline setReadHandler(Consumer<int[]> readHandler) {
+    super.setReadHandler(readHandler);
+    return this;
+  }
+
+  /**
+   * Set the handler receiving the echo of the input in canonical mode, usually the stdout of the connection.
+   *
+   * @param echoHandler the echo handler
+   * @return this object
+   */
+  public LineDiscipline setEchoHandler(Consumer<int[]> echoHandler) {
+    this.echoHandler = echoHandler;
+    this.echoSink = CodePointSink.of(echoHandler);
+    return this;
+  }
+
+  public Consumer<Boolean> getStopHandler() {
+    return stopHandler;
+  }
+
+  /**
+   * Set the handler called with {@code true} when {@code VSTOP} is received and with {@code false} when
+   * {@code VSTART} is received.
+   *
+   * @param stopHandler the stop handler
+   * @return this object
+   */
+  public LineDiscipline setStopHandler(Consumer<Boolean> stopHandler) {
+    this.stopHandler = stopHandler;
+    return this;
+  }
+
+  public Runnable getFlushHandler() {
+    return flushHandler;
+  }
+
+  /**
+   * Set the handler called to discard the pending input and output of the connection.
+   *
+   * @param flushHandler the flush handler
+   * @return this object
+   */
+  public LineDiscipline setFlushHandler(Runnable flushHandler) {
+    this.flushHandler = flushHandler;
+    return this;
+  }
+
+  /**
+   * Set the metrics recording the input, it must be set before input is received.
+   *
+   * @param metrics the metrics
+   * @return this object
+   */
+  public LineDiscipline setMetrics(ConnectionMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Set the tracer marking the decoded input, it must be set before input is received.
+   *
+   * @param echoTracer the tracer
+   * @return this object
+   */
+  public LineDiscipline setEchoTracer(EchoTracer echoTracer) {
+    this.echoTracer = echoTracer;
+    return this;
+  }
+
+  @Override
+  void onEvent(TtyEvent event) {
+    metrics.event(event);
+    int flags = termios.getFlags();
+    if (event != TtyEvent.EOF && (flags & (Termios.ICANON | Termios.NOFLSH)) == Termios.ICANON) {
+      lineLength = 0;
+      Runnable handler = flushHandler;
+      if (handler != null) {
+        handler.run();
+      }
+    }
+  }
+
+  @Override
+  public void accept(int[] data, int offset, int length) {
+    metrics.codePointsRead(length);
+    echoTracer.decoded();
+    int flags = termios.getFlags();
+    Consumer<Boolean> handler = stopHandler;
+    if ((flags & Termios.IXON) != 0 && handler != null) {
+      int vstart = termios.getVstart();
+      int vstop = termios.getVstop();
+      int to = offset + length;
+      for (int i = offset;i < to;i++) {
+        int cp = data[i];
+        if (cp == vstart || cp == vstop) {
+          process(data, offset, i - offset, flags);
+          handler.accept(cp == vstop);
+          offset = i + 1;
+        }
+      }
+      length = to - offset;
+    }
+    process(data, offset, length, flags);
+  }
+
+  private void process(int[] data, int offset, int length, int flags) {
+    if (length == 0) {
+      return;
+    }
+    if ((flags & Termios.ICANON) == 0) {
+      if (lineLength > 0) {
+        // Leaving canonical mode delivers the pending line
+        deliverLine();
+      }
+      super.accept(data, offset, length);
+      return;
+    }
+    BiConsumer<TtyEvent, Integer> eventHandler = getEventHandler();
+    int verase = termios.getVerase();
+    int vwerase = termios.getVwerase();
+    int vkill = termios.getVkill();
+    for (int i = offset;i < offset + length;i++) {
+      int cp = data[i];
+      TtyEvent event = eventHandler != null ? eventOf(cp) : null;
+      if (event != null) {
+        flushEcho();
+        if (event == TtyEvent.EOF && lineLength > 0) {
+          deliverLine();
+          continue;
+        }
+        onEvent(event);
+        eventHandler.accept(event, cp);
+        continue;
+      }
+      if (cp == '\r' && (flags & Termios.ICRNL) != 0) {
+        cp = '\n';
+      }
+      if (cp == verase) {
+        erase(lineLength - 1, cp, flags);
+      } else if (cp == vwerase) {
+        int index = lineLength;
+        while (index > 0 && Character.isWhitespace(line[index - 1])) {
+          index--;
+        }
+        while (index > 0 && !Character.isWhitespace(line[index - 1])) {
+          index--;
+        }
+        erase(index, cp, flags);
+      } else if (cp == vkill) {
+        erase(0, cp, flags);
+      } else {
+        if (lineLength == line.length) {
+          line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = cp;
+        if ((flags & Termios.ECHO) != 0) {
+          echo(cp);
+        }
+        if (cp == '\n') {
+          flushEcho();
+          deliverLine();
+        }
+      }
+    }
+    flushEcho();
+  }
+
+  /**
+   * Erase the end of the line.
+   *
+   * @param index the new line length
+   * @param cp the erase character
+   * @param flags the termios flags
+   */
+  private void erase(int index, int cp, int flags) {
+    if (index < 0 || index >= lineLength) {
+      return;
+    }
+    if ((flags & Termios.ECHO) != 0) {
+      if ((flags & Termios.ECHOE) != 0) {
+        for (int i = lineLength - 1;i >= index;i--) {
+          for (int width = Wcwidth.of(line[i]);width > 0;width--) {
+            echo('\b');
+            echo(' ');
+            echo('\b');
+          }
+        }
+      } else {
+        echo(cp);
+      }
+    }
+    lineLength = index;
+  }
+
+  private void echo(int cp) {
+    if (echoLength == echo.length) {
+      echo = Arrays.copyOf(echo, echo.length * 2);
+    }
+    echo[echoLength++] = cp;
+  }
+
+  private void flushEcho() {
+    if (echoLength > 0) {
+      int len = echoLength;
+      echoLength = 0;
+      CodePointSink sink = echoSink;
+      if (sink != null) {
+        sink.accept(echo, 0, len);
+      }
+    }
+  }
+
+  private void deliverLine() {
+    if (lineLength > 0) {
+      int len = lineLength;
+      lineLength = 0;
+      CodePointSink sink = getReadSink();
+      if (sink != null) {
+        sink.accept(line, 0, len);
+      }
+    }
+  }
+}
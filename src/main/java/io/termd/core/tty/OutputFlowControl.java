@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.io.BinaryEncoder;
+import io.termd.core.io.PreEncoded;
+import io.termd.core.util.CodePointSink;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Suspends the output of a connection, this implements the output side of the {@link Termios#IXON} flow control.<p>
+ *
+ * While output is stopped, writes are queued up to a limit of code points. When the limit is reached, a producer
+ * writing from another thread than the one that stopped the output blocks until the output is started again or
+ * this object is closed. The thread that stopped the output is the thread reading the input of the connection,
+ * it is never blocked as it needs to process the {@code VSTART} character.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class OutputFlowControl implements CodePointSink {
+
+  public static final int DEFAULT_LIMIT = 16 * 1024;
+
+  private final BinaryEncoder encoder;
+  private final int limit;
+  private final ArrayDeque<Object> queue = new ArrayDeque<>();
+  private int pending;
+  private boolean stopped;
+  private boolean closed;
+  private Thread owner;
+
+  public OutputFlowControl(BinaryEncoder encoder) {
+    this(encoder, DEFAULT_LIMIT);
+  }
+
+  /**
+   * Create a new flow control.
+   *
+   * @param encoder the encoder receiving the output
+   * @param limit the number of queued code points above which producers are blocked
+   */
+  public OutputFlowControl(BinaryEncoder encoder, int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Invalid limit " + limit);
+    }
+    this.encoder = encoder;
+    this.limit = limit;
+  }
+
+  @Override
+  public synchronized void accept(int[] codePoints, int offset, int length) {
+    if (stopped) {
+      awaitCapacity();
+    }
+    if (stopped) {
+      queue.add(Arrays.copyOfRange(codePoints, offset, offset + length));
+      pending += length;
+    } else {
+      encoder.accept(codePoints, offset, length);
+    }
+  }
+
+  /**
+   * Write a pre encoded sequence.
+   *
+   * @param sequence the sequence
+   */
+  public synchronized void write(PreEncoded sequence) {
+    if (stopped) {
+      awaitCapacity();
+    }
+    if (stopped) {
+      queue.add(sequence);
+      pending += sequence.length();
+    } else {
+      encoder.write(sequence);
+    }
+  }
+
+  private void awaitCapacity() {
+    Thread current = Thread.currentThread();
+    while (stopped && !closed && pending >= limit && current != owner) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        current.interrupt();
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return true when the output is stopped
+   */
+  public synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * @return the number of queued code points
+   */
+  public synchronized int pending() {
+    return pending;
+  }
+
+  /**
+   * Stop or start the output, starting the output writes the queued output.
+   *
+   * @param stop true to stop the output
+   */
+  public synchronized void setStopped(boolean stop) {
+    if (stop) {
+      if (!stopped && !closed) {
+        stopped = true;
+        owner = Thread.currentThread();
+      }
+    } else if (stopped) {
+      stopped = false;
+      owner = null;
+      Object item;
+      while ((item = queue.poll()) != null) {
+        if (item instanceof PreEncoded) {
+          encoder.write((PreEncoded) item);
+        } else {
+          encoder.accept((int[]) item);
+        }
+      }
+      pending = 0;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Discard the queued output and release the blocked producers, the output remains stopped.
+   *
+   * @return true when output was discarded
+   */
+  public synchronized boolean discard() {
+    boolean discarded = queue.size() > 0;
+    queue.clear();
+    pending = 0;
+    notifyAll();
+    return discarded;
+  }
+
+  /**
+   * Discard the queued output and release the blocked producers, the output is not stopped anymore.
+   */
+  public synchronized void close() {
+    closed = true;
+    stopped = false;
+    owner = null;
+    queue.clear();
+    pending = 0;
+    notifyAll();
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.io.PreEncoded;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.util.CodePointSink;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Schedules the output of a connection on two lanes.<p>
+ *
+ * The output can be written from any thread: writes are appended to lock-free queues drained by a single task on
+ * the executor of the connection, so the output is written in order and the encoders are never used concurrently.
+ * A write made while nothing is queued nor draining is written immediately by the calling thread.<p>
+ *
+ * The {@link TtyOutputLane#INTERACTIVE} lane is drained first. The {@link TtyOutputLane#BULK} lane is written by
+ * batches, each task writes a batch of chunks and yields so interactive output preempts the queued bulk output at
+ * chunk boundaries. Bulk producers should write chunks that do not split escape sequences.<p>
+ *
+ * The bulk queue is bounded: when the limit is reached, producers writing from another thread than the one running
+ * the executor tasks block until the queue drains. Bulk output is held while the output is stopped or the transport
+ * is not writable, so a slow client eventually blocks the bulk producers instead of growing the transport buffers.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class OutputScheduler implements CodePointSink {
+
+  public static final int DEFAULT_BATCH_SIZE = 4 * 1024;
+  public static final int DEFAULT_LIMIT = 64 * 1024;
+
+  /**
+   * Cancels an escape sequence interrupted by the discarded output and resets the graphic rendition.
+   */
+  private static final PreEncoded RESYNC = PreEncoded.of("\030\033[0m");
+
+  private static final int IDLE = 0, SCHEDULED = 1, RUNNING = 2;
+
+  private static final class BulkChunk {
+
+    final int[] codePoints;
+    final int epoch;
+
+    BulkChunk(int[] codePoints, int epoch) {
+      this.codePoints = codePoints;
+      this.epoch = epoch;
+    }
+  }
+
+  private final OutputFlowControl output;
+  private final Executor executor;
+  private final int batchSize;
+  private final int limit;
+  private final ConcurrentLinkedQueue<Object> interactiveQueue = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Object> bulkQueue = new ConcurrentLinkedQueue<>();
+  private final CodePointSink bulk = this::writeBulk;
+  private final Runnable drainTask = this::drain;
+  private final Runnable writabilityTask = this::notifyWritability;
+  private final AtomicInteger state = new AtomicInteger(IDLE);
+  private final AtomicInteger bulkPending = new AtomicInteger();
+  private final AtomicInteger epoch = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final Object lock = new Object();
+  private final Object writabilityLock = new Object();
+  private volatile Consumer<Boolean> writabilityHandler;
+  private boolean notifiedWritable = true;
+  private volatile boolean transportWritable = true;
+  private volatile boolean stopped;
+  private volatile boolean closed;
+  private volatile Thread drainThread;
+  private ConnectionMetrics metrics = ConnectionMetrics.NOOP;
+
+  public OutputScheduler(OutputFlowControl output, Executor executor) {
+    this(output, executor, DEFAULT_BATCH_SIZE, DEFAULT_LIMIT);
+  }
+
+  /**
+   * Create a new scheduler.
+   *
+   * @param output the output
+   * @param executor the executor draining the output
+   * @param batchSize the number of bulk code points written per task
+   * @param limit the number of queued bulk code points above which producers are blocked
+   */
+  public OutputScheduler(OutputFlowControl output, Executor executor, int batchSize, int limit) {
+    if (batchSize < 1 || limit < 1) {
+      throw new IllegalArgumentException("Invalid batch size " + batchSize + " or limit " + limit);
+    }
+    this.output = output;
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.limit = limit;
+  }
+
+  /**
+   * Set the metrics recording the output, it must be set before the scheduler is used.
+   *
+   * @param metrics the metrics
+   * @return this object
+   */
+  public OutputScheduler setMetrics(ConnectionMetrics metrics) {
+    this.metrics = metrics;
+    metrics.outboundQueue(this::bulkPending);
+    return this;
+  }
+
+  /**
+   * Write interactive output.
+   */
+  @Override
+  public void accept(int[] codePoints, int offset, int length) {
+    metrics.codePointsWritten(length);
+    if (interactiveQueue.isEmpty() && state.compareAndSet(IDLE, RUNNING)) {
+      try {
+        output.accept(codePoints, offset, length);
+      } finally {
+        release();
+      }
+    } else {
+      interactiveQueue.add(Arrays.copyOfRange(codePoints, offset, offset + length));
+      schedule();
+    }
+  }
+
+  /**
+   * Write an interactive pre encoded sequence.
+   *
+   * @param sequence the sequence
+   */
+  public void write(PreEncoded sequence) {
+    metrics.codePointsWritten(sequence.length());
+    if (interactiveQueue.isEmpty() && state.compareAndSet(IDLE, RUNNING)) {
+      try {
+        output.write(sequence);
+      } finally {
+        release();
+      }
+    } else {
+      interactiveQueue.add(sequence);
+      schedule();
+    }
+  }
+
+  /**
+   * @param lane the lane
+   * @return the sink writing to the lane
+   */
+  public CodePointSink lane(TtyOutputLane lane) {
+    return lane == TtyOutputLane.BULK ? bulk : this;
+  }
+
+  /**
+   * @return the number of queued bulk code points
+   */
+  public int bulkPending() {
+    return bulkPending.get();
+  }
+
+  private void writeBulk(int[] codePoints, int offset, int length) {
+    if (bulkPending.get() >= limit && Thread.currentThread() != drainThread) {
+      awaitCapacity();
+    }
+    if (closed) {
+      return;
+    }
+    metrics.codePointsWritten(length);
+    bulkPending.addAndGet(length);
+    bulkQueue.add(new BulkChunk(Arrays.copyOfRange(codePoints, offset, offset + length), epoch.get()));
+    if (!isBulkHeld()) {
+      schedule();
+    }
+  }
+
+  private void awaitCapacity() {
+    synchronized (lock) {
+      waiters.incrementAndGet();
+      try {
+        while (!closed && bulkPending.get() >= limit) {
+          lock.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        waiters.decrementAndGet();
+      }
+    }
+  }
+
+  private void signalWaiters() {
+    if (waiters.get() > 0) {
+      synchronized (lock) {
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Execute a task after the bulk output queued so far is written, or discarded when the scheduler is closed.
+   *
+   * @param task the task
+   */
+  public void executeAfterBulk(Runnable task) {
+    bulkQueue.add(task);
+    schedule();
+  }
+
+  /**
+   * @return true when the output is not stopped and the transport is writable
+   */
+  public boolean isWritable() {
+    return transportWritable && !stopped;
+  }
+
+  public Consumer<Boolean> getWritabilityHandler() {
+    return writabilityHandler;
+  }
+
+  /**
+   * Set the handler called from the executor with the new value of {@link #isWritable()} when it changes.
+   *
+   * @param handler the handler
+   * @return this object
+   */
+  public OutputScheduler setWritabilityHandler(Consumer<Boolean> handler) {
+    writabilityHandler = handler;
+    return this;
+  }
+
+  /**
+   * Signal the writability of the transport, the bulk output is held while the transport is not writable.
+   *
+   * @param writable the transport writability
+   */
+  public void setTransportWritable(boolean writable) {
+    transportWritable = writable;
+    writabilityChanged();
+    if (writable) {
+      schedule();
+    }
+  }
+
+  private void writabilityChanged() {
+    if (writabilityHandler != null) {
+      executor.execute(writabilityTask);
+    }
+  }
+
+  private void notifyWritability() {
+    synchronized (writabilityLock) {
+      boolean writable = isWritable();
+      if (writable != notifiedWritable) {
+        notifiedWritable = writable;
+        Consumer<Boolean> handler = writabilityHandler;
+        if (handler != null) {
+          handler.accept(writable);
+        }
+      }
+    }
+  }
+
+  private boolean isBulkHeld() {
+    return !closed && (stopped || !transportWritable);
+  }
+
+  private void schedule() {
+    if (state.compareAndSet(IDLE, SCHEDULED)) {
+      executor.execute(drainTask);
+    }
+  }
+
+  private void release() {
+    state.set(IDLE);
+    if (!interactiveQueue.isEmpty() || !isBulkHeld() && !bulkQueue.isEmpty()) {
+      schedule();
+    }
+  }
+
+  private boolean isDiscarded(Object item) {
+    return item instanceof BulkChunk && (closed || ((BulkChunk) item).epoch != epoch.get());
+  }
+
+  private void drain() {
+    state.set(RUNNING);
+    drainThread = Thread.currentThread();
+    int budget = batchSize;
+    try {
+      while (true) {
+        Object item = interactiveQueue.poll();
+        if (item != null) {
+          if (item instanceof PreEncoded) {
+            output.write((PreEncoded) item);
+          } else {
+            output.accept((int[]) item);
+          }
+          continue;
+        }
+        item = bulkQueue.peek();
+        if (item == null || (budget <= 0 && !closed || isBulkHeld()) && !isDiscarded(item)) {
+          break;
+        }
+        bulkQueue.poll();
+        if (item instanceof BulkChunk) {
+          int[] chunk = ((BulkChunk) item).codePoints;
+          bulkPending.addAndGet(-chunk.length);
+          signalWaiters();
+          if (!isDiscarded(item)) {
+            budget -= chunk.length;
+            output.accept(chunk);
+          }
+        } else {
+          ((Runnable) item).run();
+        }
+      }
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Stop or start the output.
+   *
+   * @param stop true to stop the output
+   */
+  public void setStopped(boolean stop) {
+    output.setStopped(stop);
+    stopped = stop;
+    writabilityChanged();
+    if (!stop) {
+      schedule();
+    }
+  }
+
+  /**
+   * Discard the queued output and release the blocked producers, the tasks waiting for the bulk output are kept.
+   * When output was discarded, the terminal is resynchronized by cancelling the current escape sequence and
+   * resetting the graphic rendition.
+   *
+   * @return true when output was discarded
+   */
+  public boolean discard() {
+    boolean discarded = bulkPending.get() > 0;
+    epoch.incrementAndGet();
+    discarded |= output.discard();
+    if (discarded) {
+      write(RESYNC);
+    }
+    if (!bulkQueue.isEmpty()) {
+      // Drop the discarded chunks even when the output is stopped
+      schedule();
+    }
+    return discarded;
+  }
+
+  /**
+   * Discard the queued output and release the blocked producers.
+   */
+  public void close() {
+    closed = true;
+    synchronized (lock) {
+      lock.notifyAll();
+    }
+    output.close();
+    if (!bulkQueue.isEmpty()) {
+      schedule();
+    }
+  }
+}
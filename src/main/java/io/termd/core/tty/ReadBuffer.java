@@ -16,33 +16,146 @@
 
 package io.termd.core.tty;
 
+import io.termd.core.util.CodePointSink;
+
 import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
+ * Buffers the input of a connection when no read handler is set.<p>
+ *
+ * The buffer is bounded by watermarks: when the queued code points reach the high watermark the flow control handler
+ * is called with {@code true} so the transport stops reading, once they are drained below the low watermark it is
+ * called with {@code false} so the transport reads again. When a read handler is set, the queued input is delivered
+ * by executor tasks, each task drains a batch of at most the high watermark.
+ *
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
  */
-public class ReadBuffer implements Consumer<int[]> {
+public class ReadBuffer implements CodePointSink {
 
-  private final Queue<int[]> queue = new ArrayDeque<>(10);
+  public static final int DEFAULT_LOW_WATERMARK = 4 * 1024;
+  public static final int DEFAULT_HIGH_WATERMARK = 16 * 1024;
+
+  private final ArrayDeque<int[]> queue = new ArrayDeque<>(10);
   private final Executor executor;
+  private final int lowWatermark;
+  private final int highWatermark;
   private volatile Consumer<int[]> readHandler;
+  private volatile CodePointSink readSink;
+  private volatile Consumer<Boolean> flowControlHandler;
+  private int pending;
+  private boolean paused;
+  private boolean delivering;
 
   public ReadBuffer(Executor executor) {
+    this(executor, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+  }
+
+  /**
+   * Create a read buffer.
+   *
+   * @param executor the executor delivering queued input
+   * @param lowWatermark the number of queued code points below which reading is resumed
+   * @param highWatermark the number of queued code points above which reading is paused
+   */
+  public ReadBuffer(Executor executor, int lowWatermark, int highWatermark) {
+    if (lowWatermark < 0 || highWatermark < lowWatermark) {
+      throw new IllegalArgumentException("Invalid watermarks " + lowWatermark + "/" + highWatermark);
+    }
     this.executor = executor;
+    this.lowWatermark = lowWatermark;
+    this.highWatermark = Math.max(1, highWatermark);
   }
 
   @Override
-  public void accept(int[] data) {
-    queue.add(data);
-    while (readHandler != null && queue.size() > 0) {
-      data = queue.poll();
-      if (data != null) {
-        readHandler.accept(data);
+  public void accept(int[] data, int offset, int length) {
+    CodePointSink sink;
+    boolean pause = false;
+    synchronized (this) {
+      sink = readSink;
+      if (sink != null && !delivering && queue.isEmpty()) {
+        delivering = true;
+      } else {
+        queue.add(Arrays.copyOfRange(data, offset, offset + length));
+        pending += length;
+        if (!paused && pending >= highWatermark) {
+          paused = pause = true;
+        }
+        if (sink != null && !delivering) {
+          // A drain task is scheduled, deliver now to preserve ordering
+          delivering = true;
+          data = null;
+        } else {
+          sink = null;
+        }
       }
     }
+    if (pause) {
+      flowControl(true);
+    }
+    if (sink != null) {
+      boolean drained = false;
+      try {
+        if (data != null) {
+          sink.accept(data, offset, length);
+        }
+        drained = true;
+      } finally {
+        if (drained) {
+          drain(Integer.MAX_VALUE);
+        } else {
+          synchronized (this) {
+            delivering = false;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of queued code points
+   */
+  public synchronized int pending() {
+    return pending;
+  }
+
+  /**
+   * @return true when the transport has been asked to stop reading
+   */
+  public synchronized boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Discard the queued input.
+   */
+  public void discard() {
+    boolean resume;
+    synchronized (this) {
+      queue.clear();
+      pending = 0;
+      resume = paused;
+      paused = false;
+    }
+    if (resume) {
+      flowControl(false);
+    }
+  }
+
+  public Consumer<Boolean> getFlowControlHandler() {
+    return flowControlHandler;
+  }
+
+  /**
+   * Set the handler called with {@code true} when the transport should stop reading and with {@code false} when it
+   * can read again.
+   *
+   * @param handler the handler
+   */
+  public void setFlowControlHandler(Consumer<Boolean> handler) {
+    this.flowControlHandler = handler;
   }
 
   public Consumer<int[]> getReadHandler() {
@@ -50,29 +163,79 @@ public class ReadBuffer implements Consumer<int[]> {
   }
 
   public void setReadHandler(final Consumer<int[]> readHandler) {
-    if (readHandler != null) {
-      if (this.readHandler != null) {
-        this.readHandler = readHandler;
-      } else {
-        ReadBuffer.this.readHandler = readHandler;
-        drainQueue();
+    boolean drain;
+    synchronized (this) {
+      this.readHandler = readHandler;
+      this.readSink = CodePointSink.of(readHandler);
+      drain = readHandler != null && !delivering && queue.size() > 0;
+    }
+    if (drain) {
+      executor.execute(this::drainBatch);
+    }
+  }
+
+  private void drainBatch() {
+    synchronized (this) {
+      if (delivering) {
+        return;
       }
-    } else {
-      this.readHandler = null;
+      delivering = true;
     }
+    drain(highWatermark);
   }
 
-  private void drainQueue() {
-    if (queue.size() > 0 && readHandler != null) {
-      executor.execute(() -> {
-        if (readHandler != null) {
-          final int[] data = queue.poll();
-          if (data != null) {
-            readHandler.accept(data);
-            drainQueue();
+  /**
+   * Deliver queued input, the caller must own the delivery. Another task is scheduled when the budget is exhausted
+   * with input still queued.
+   *
+   * @param budget the maximum number of code points to deliver
+   */
+  private void drain(int budget) {
+    boolean reschedule;
+    boolean done = false;
+    try {
+      while (true) {
+        CodePointSink sink;
+        int[] chunk;
+        boolean resume = false;
+        synchronized (this) {
+          sink = readSink;
+          if (sink == null || queue.isEmpty() || budget <= 0) {
+            // Release the delivery with the lock held so input queued concurrently is not left behind
+            reschedule = sink != null && !queue.isEmpty();
+            delivering = false;
+            done = true;
+            break;
+          }
+          chunk = queue.poll();
+          pending -= chunk.length;
+          budget -= chunk.length;
+          if (paused && pending <= lowWatermark) {
+            paused = false;
+            resume = true;
           }
         }
-      });
+        if (resume) {
+          flowControl(false);
+        }
+        sink.accept(chunk);
+      }
+    } finally {
+      if (!done) {
+        synchronized (this) {
+          delivering = false;
+        }
+      }
+    }
+    if (reschedule) {
+      executor.execute(this::drainBatch);
+    }
+  }
+
+  private void flowControl(boolean pause) {
+    Consumer<Boolean> handler = flowControlHandler;
+    if (handler != null) {
+      handler.accept(pause);
     }
   }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.util.Flow;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the input of a connection to a single subscriber, the items are the code points read by the connection.<p>
+ *
+ * The stdin handler of the connection is set while the subscriber has demand and removed when the demand is
+ * exhausted: the connection then buffers the input and stops reading the transport once its read buffer is full.
+ * The subscription completes when the connection is closed, the {@link TtyEvent} are not published.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class StdinPublisher implements Flow.Publisher<int[]> {
+
+  private static final Flow.Subscription EMPTY = new Flow.Subscription() {
+    @Override
+    public void request(long n) {
+    }
+    @Override
+    public void cancel() {
+    }
+  };
+
+  private final TtyConnection conn;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  public StdinPublisher(TtyConnection conn) {
+    this.conn = conn;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super int[]> subscriber) {
+    Objects.requireNonNull(subscriber, "No null subscriber accepted");
+    if (!subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(EMPTY);
+      subscriber.onError(new IllegalStateException("Already subscribed"));
+      return;
+    }
+    StdinSubscription subscription = new StdinSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    conn.addCloseListener(subscription::complete);
+  }
+
+  /**
+   * The subscription state is guarded by the subscription monitor: the input is delivered serially by the read buffer
+   * of the connection while the requests, the cancellation and the close can happen on any thread. The subscriber is
+   * not called with the monitor held, a terminal signal raised during {@code onNext} is sent once it returns.
+   */
+  private class StdinSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super int[]> subscriber;
+    private final Consumer<int[]> stdinHandler = this::deliver;
+    private long demand;
+    private boolean reading;
+    private boolean done;
+    private boolean emitting;
+    private Runnable terminal;
+
+    StdinSubscription(Flow.Subscriber<? super int[]> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        terminate(() -> subscriber.onError(new IllegalArgumentException("Invalid demand " + n)));
+        return;
+      }
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        demand += n;
+        if (demand < 0) {
+          // Overflow, the demand is unbounded
+          demand = Long.MAX_VALUE;
+        }
+        if (!reading) {
+          reading = true;
+          conn.setStdinHandler(stdinHandler);
+        }
+      }
+    }
+
+    @Override
+    public void cancel() {
+      terminate(null);
+    }
+
+    private void complete() {
+      terminate(subscriber::onComplete);
+    }
+
+    /**
+     * Stop reading and send the terminal signal unless the subscription is done.
+     *
+     * @param signal the terminal signal or {@code null}
+     */
+    private void terminate(Runnable signal) {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+        if (reading) {
+          reading = false;
+          conn.setStdinHandler(null);
+        }
+        if (emitting) {
+          terminal = signal;
+          return;
+        }
+      }
+      if (signal != null) {
+        signal.run();
+      }
+    }
+
+    private void deliver(int[] codePoints) {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        if (demand != Long.MAX_VALUE) {
+          demand--;
+        }
+        if (demand == 0 && reading) {
+          // The input is buffered until the subscriber requests more
+          reading = false;
+          conn.setStdinHandler(null);
+        }
+        emitting = true;
+      }
+      Runnable signal;
+      try {
+        subscriber.onNext(codePoints);
+      } finally {
+        synchronized (this) {
+          emitting = false;
+          signal = terminal;
+          terminal = null;
+        }
+      }
+      if (signal != null) {
+        signal.run();
+      }
+    }
+  }
+}
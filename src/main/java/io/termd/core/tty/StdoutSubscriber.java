@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.util.Flow;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Writes the items of a publisher to the {@link TtyOutputLane#BULK} lane of a connection.<p>
+ *
+ * The subscriber requests items while the connection is {@link TtyConnection#isWritable() writable}, at most the
+ * batch size items are outstanding. The demand is replenished when half of the batch is written and the connection
+ * is still writable, otherwise once the bulk output queued so far is written since the bulk output is held while
+ * the connection is not writable, the writability handler of the connection is left to the application. The
+ * connection is closed once the output is written when the publisher completes or fails, the subscription is
+ * cancelled when the connection is closed.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class StdoutSubscriber implements Flow.Subscriber<int[]> {
+
+  public static final int DEFAULT_BATCH_SIZE = 16;
+
+  private final TtyConnection conn;
+  private final Consumer<int[]> stdout;
+  private final int batchSize;
+  private final AtomicLong outstanding = new AtomicLong();
+  private final AtomicBoolean waiting = new AtomicBoolean();
+  private final Runnable resume = this::resume;
+  private volatile Flow.Subscription subscription;
+  private volatile boolean done;
+
+  public StdoutSubscriber(TtyConnection conn) {
+    this(conn, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Create a subscriber.
+   *
+   * @param conn the connection
+   * @param batchSize the maximum number of outstanding items
+   */
+  public StdoutSubscriber(TtyConnection conn, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Invalid batch size " + batchSize);
+    }
+    this.conn = conn;
+    this.stdout = conn.stdoutHandler(TtyOutputLane.BULK);
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    Objects.requireNonNull(subscription, "No null subscription accepted");
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    conn.execute(() -> {
+      conn.addCloseListener(() -> {
+        if (!done) {
+          done = true;
+          subscription.cancel();
+        }
+      });
+      refill();
+    });
+  }
+
+  @Override
+  public void onNext(int[] item) {
+    Objects.requireNonNull(item, "No null item accepted");
+    if (done) {
+      return;
+    }
+    stdout.accept(item);
+    if (outstanding.decrementAndGet() <= batchSize / 2) {
+      refill();
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    Objects.requireNonNull(throwable, "No null throwable accepted");
+    end(1);
+  }
+
+  @Override
+  public void onComplete() {
+    end(0);
+  }
+
+  private void end(int exit) {
+    if (!done) {
+      done = true;
+      conn.executeAfterBulk(() -> conn.close(exit));
+    }
+  }
+
+  private void resume() {
+    waiting.set(false);
+    refill();
+  }
+
+  private void refill() {
+    while (!done) {
+      if (!conn.isWritable()) {
+        if (waiting.compareAndSet(false, true)) {
+          conn.executeAfterBulk(resume);
+        }
+        return;
+      }
+      long current = outstanding.get();
+      if (current > batchSize / 2) {
+        return;
+      }
+      if (outstanding.compareAndSet(current, batchSize)) {
+        subscription.request(batchSize - current);
+        return;
+      }
+    }
+  }
+}
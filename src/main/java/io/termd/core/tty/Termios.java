@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+/**
+ * The terminal settings of a connection, a subset of the POSIX termios used by the {@link LineDiscipline}.<p>
+ *
+ * Settings can be changed at any time, the line discipline reads them for each input it processes.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class Termios {
+
+  /**
+   * Canonical mode: input is edited and delivered a line at a time.
+   */
+  public static final int ICANON = 0x01;
+
+  /**
+   * Echo the input in canonical mode.
+   */
+  public static final int ECHO = 0x02;
+
+  /**
+   * Visually erase characters on {@code VERASE}, {@code VWERASE} and {@code VKILL}.
+   */
+  public static final int ECHOE = 0x04;
+
+  /**
+   * Translate CR to NL on input in canonical mode. Unlike POSIX the raw input is never translated, readline and
+   * the applications reading the raw input expect the CR sent by the enter key.
+   */
+  public static final int ICRNL = 0x08;
+
+  /**
+   * Output flow control: {@code VSTOP} stops the output and {@code VSTART} starts it again.
+   */
+  public static final int IXON = 0x10;
+
+  /**
+   * Do not discard the pending input and output on {@code VINTR}, {@code VQUIT} and {@code VSUSP}, only applies in
+   * canonical mode as the raw input is never flushed.
+   */
+  public static final int NOFLSH = 0x20;
+
+  private volatile int flags = ECHO | ECHOE | ICRNL;
+  private volatile int vintr = 'C' - 64;
+  private volatile int vquit = -1;
+  private volatile int verase = 127;
+  private volatile int vkill = 'U' - 64;
+  private volatile int veof = 'D' - 64;
+  private volatile int vwerase = 'W' - 64;
+  private volatile int vsusp = 'Z' - 64;
+  private volatile int vstart = 'Q' - 64;
+  private volatile int vstop = 'S' - 64;
+
+  public Termios() {
+  }
+
+  public Termios(Termios that) {
+    flags = that.flags;
+    vintr = that.vintr;
+    vquit = that.vquit;
+    verase = that.verase;
+    vkill = that.vkill;
+    veof = that.veof;
+    vwerase = that.vwerase;
+    vsusp = that.vsusp;
+    vstart = that.vstart;
+    vstop = that.vstop;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public Termios setFlags(int flags) {
+    this.flags = flags;
+    return this;
+  }
+
+  /**
+   * @param flag the flag to test
+   * @return true when the flag is set
+   */
+  public boolean isEnabled(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  /**
+   * Set or clear a flag.
+   *
+   * @param flag the flag
+   * @param enabled true to set the flag
+   * @return this object
+   */
+  public synchronized Termios setEnabled(int flag, boolean enabled) {
+    flags = enabled ? flags | flag : flags & ~flag;
+    return this;
+  }
+
+  public int getVintr() {
+    return vintr;
+  }
+
+  public Termios setVintr(int vintr) {
+    this.vintr = vintr;
+    return this;
+  }
+
+  public int getVquit() {
+    return vquit;
+  }
+
+  /**
+   * Set the character sending the {@link TtyEvent#QUIT} event, it is disabled by default so {@code Ctrl-\} is
+   * passed through to the application as regular input.
+   *
+   * @param vquit the character or {@code -1} to disable it
+   * @return this object
+   */
+  public Termios setVquit(int vquit) {
+    this.vquit = vquit;
+    return this;
+  }
+
+  public int getVerase() {
+    return verase;
+  }
+
+  public Termios setVerase(int verase) {
+    this.verase = verase;
+    return this;
+  }
+
+  public int getVkill() {
+    return vkill;
+  }
+
+  public Termios setVkill(int vkill) {
+    this.vkill = vkill;
+    return this;
+  }
+
+  public int getVeof() {
+    return veof;
+  }
+
+  public Termios setVeof(int veof) {
+    this.veof = veof;
+    return this;
+  }
+
+  public int getVwerase() {
+    return vwerase;
+  }
+
+  public Termios setVwerase(int vwerase) {
+    this.vwerase = vwerase;
+    return this;
+  }
+
+  public int getVsusp() {
+    return vsusp;
+  }
+
+  public Termios setVsusp(int vsusp) {
+    this.vsusp = vsusp;
+    return this;
+  }
+
+  public int getVstart() {
+    return vstart;
+  }
+
+  public Termios setVstart(int vstart) {
+    this.vstart = vstart;
+    return this;
+  }
+
+  public int getVstop() {
+    return vstop;
+  }
+
+  public Termios setVstop(int vstop) {
+    this.vstop = vstop;
+    return this;
+  }
+}
@@ -16,10 +16,15 @@
 
 package io.termd.core.tty;
 
+import io.termd.core.io.PreEncoded;
+import io.termd.core.jfr.EchoTracer;
+import io.termd.core.metrics.ConnectionMetrics;
+import io.termd.core.util.CodePointSink;
 import io.termd.core.util.Vector;
 import io.termd.core.util.Helper;
 
 import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -31,6 +36,13 @@ import java.util.function.Consumer;
  */
 public interface TtyConnection {
 
+  /**
+   * @return the id of this connection, unique in this JVM, the default implementation returns {@code 0}
+   */
+  default long id() {
+    return 0;
+  }
+
   /**
    * @return the last time this connection received input
    */
@@ -65,6 +77,28 @@ public interface TtyConnection {
    */
   void setTerminalTypeHandler(Consumer<String> handler);
 
+  /**
+   * @return the metrics recording the traffic of this connection, the default implementation records nothing
+   */
+  default ConnectionMetrics metrics() {
+    return ConnectionMetrics.NOOP;
+  }
+
+  /**
+   * @return the tracer of the echo latency of this connection, the default implementation traces nothing
+   */
+  default EchoTracer echoTracer() {
+    return EchoTracer.NOOP;
+  }
+
+  /**
+   * @return the terminal settings of this connection or {@code null} when the connection has no line discipline,
+   *         canonical mode is enabled by setting {@link Termios#ICANON}
+   */
+  default Termios termios() {
+    return null;
+  }
+
   Consumer<Vector> getSizeHandler();
 
   void setSizeHandler(Consumer<Vector> handler);
@@ -76,21 +110,127 @@ public interface TtyConnection {
   Consumer<int[]> getStdinHandler();
 
   /**
-   * Set the read handler on this connection.
+   * Set the read handler on this connection, a {@link CodePointSink} handler receives slices of the
+   * decoder buffer instead of copies.
    *
    * @param handler the event handler
    */
   void setStdinHandler(Consumer<int[]> handler);
 
+  /**
+   * Execute a task after the output written to the {@link TtyOutputLane#BULK} lane so far is written, the default
+   * implementation executes the task.
+   *
+   * @param task the task
+   */
+  default void executeAfterBulk(Runnable task) {
+    execute(task);
+  }
+
   /**
    * @return the stdout handler of this connection
    */
   Consumer<int[]> stdoutHandler();
 
+  /**
+   * Return whether the client keeps up with the output, when the output is stopped or the transport buffers are
+   * full, producers should pause until the connection is writable again. The default implementation returns true.
+   *
+   * @return true when the connection is writable
+   */
+  default boolean isWritable() {
+    return true;
+  }
+
+  default Consumer<Boolean> getWritabilityHandler() {
+    return null;
+  }
+
+  /**
+   * Set an handler called with the new value of {@link #isWritable()} when it changes, the default implementation
+   * never calls it.
+   *
+   * @param handler the handler
+   */
+  default void setWritabilityHandler(Consumer<Boolean> handler) {
+  }
+
+  /**
+   * Return a future completed when the output written so far has been written to the transport, the default
+   * implementation completes it once the {@link TtyOutputLane#BULK} output written so far is written.
+   *
+   * @return the future
+   */
+  default CompletableFuture<Void> whenWritten() {
+    CompletableFuture<Void> fut = new CompletableFuture<>();
+    executeAfterBulk(() -> fut.complete(null));
+    return fut;
+  }
+
+  /**
+   * Return the stdout handler of a lane, the {@link #stdoutHandler()} writes to the {@link TtyOutputLane#INTERACTIVE}
+   * lane. The handler of the {@link TtyOutputLane#BULK} lane can be used from any thread.<p>
+   *
+   * The default implementation has a single lane, the bulk handler writes to the {@link #stdoutHandler()} from a
+   * task executed by this connection.
+   *
+   * @param lane the output lane
+   * @return the stdout handler of the lane
+   */
+  default Consumer<int[]> stdoutHandler(TtyOutputLane lane) {
+    if (lane == TtyOutputLane.BULK) {
+      return codePoints -> execute(() -> stdoutHandler().accept(codePoints));
+    }
+    return stdoutHandler();
+  }
+
+  /**
+   * Write a slice of code points to the client, the slice is not retained by this connection.
+   *
+   * @param codePoints the code points
+   * @param offset the slice offset
+   * @param length the slice length
+   */
+  default TtyConnection write(int[] codePoints, int offset, int length) {
+    CodePointSink.of(stdoutHandler()).accept(codePoints, offset, length);
+    return this;
+  }
+
+  /**
+   * Write a pre encoded sequence to the client, connections encoding with a {@link io.termd.core.io.BinaryEncoder}
+   * write the cached bytes of the sequence instead of encoding it.
+   *
+   * @param sequence the sequence
+   */
+  default TtyConnection write(PreEncoded sequence) {
+    sequence.writeTo(CodePointSink.of(stdoutHandler()));
+    return this;
+  }
+
   void setCloseHandler(Consumer<Void> closeHandler);
 
   Consumer<Void> getCloseHandler();
 
+  /**
+   * Add a listener called when this connection is closed before the close handler, unlike the close handler the
+   * listeners are not replaced by the application: they are meant for the services watching the connection. A
+   * listener added once the connection is closed is called immediately.<p>
+   *
+   * The default implementation wraps the current close handler, the listener is lost when the close handler is set
+   * afterwards.
+   *
+   * @param listener the listener
+   */
+  default void addCloseListener(Runnable listener) {
+    Consumer<Void> closeHandler = getCloseHandler();
+    setCloseHandler(v -> {
+      listener.run();
+      if (closeHandler != null) {
+        closeHandler.accept(v);
+      }
+    });
+  }
+
   void close();
 
   default void close(int exit) {
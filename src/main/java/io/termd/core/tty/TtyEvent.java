@@ -25,7 +25,9 @@ public enum TtyEvent {
 
   EOF('D' - 64),
 
-  SUSP('Z' - 64);
+  SUSP('Z' - 64),
+
+  QUIT('\\' - 64);
 
   final int codePoint;
 
@@ -16,24 +16,33 @@
 
 package io.termd.core.tty;
 
+import io.termd.core.util.CodePointSink;
+
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
  */
-public class TtyEventDecoder implements Consumer<int[]> {
+public class TtyEventDecoder implements CodePointSink {
 
   private Consumer<int[]> readHandler;
+  private CodePointSink readSink;
   private BiConsumer<TtyEvent, Integer> eventHandler;
   private final int vintr;
   private final int veof;
   private final int vsusp;
+  private final int vquit;
 
   public TtyEventDecoder(int vintr, int vsusp, int veof) {
+    this(vintr, vsusp, veof, -1);
+  }
+
+  public TtyEventDecoder(int vintr, int vsusp, int veof, int vquit) {
     this.vintr = vintr;
     this.vsusp = vsusp;
     this.veof = veof;
+    this.vquit = vquit;
   }
 
   public Consumer<int[]> getReadHandler() {
@@ -42,6 +51,7 @@ public class TtyEventDecoder implements Consumer<int[]> {
 
   public TtyEventDecoder setReadHandler(Consumer<int[]> readHandler) {
     this.readHandler = readHandler;
+    this.readSink = CodePointSink.of(readHandler);
     return this;
   }
 
@@ -54,42 +64,58 @@ public class TtyEventDecoder implements Consumer<int[]> {
     return this;
   }
 
+  CodePointSink getReadSink() {
+    return readSink;
+  }
+
+  /**
+   * @return the event of a code point or {@code null} when it is not a signal character
+   */
+  TtyEvent eventOf(int val) {
+    if (val == vintr) {
+      return TtyEvent.INTR;
+    } else if (val == vsusp) {
+      return TtyEvent.SUSP;
+    } else if (val == veof) {
+      return TtyEvent.EOF;
+    } else if (val == vquit) {
+      return TtyEvent.QUIT;
+    }
+    return null;
+  }
+
+  /**
+   * Called before an event is dispatched to the event handler.
+   *
+   * @param event the event
+   */
+  void onEvent(TtyEvent event) {
+  }
+
   @Override
-  public void accept(int[] data) {
+  public void accept(int[] data, int offset, int length) {
+    int to = offset + length;
     if (eventHandler != null) {
-      int index = 0;
-      while (index < data.length) {
+      int index = offset;
+      while (index < to) {
         int val = data[index];
-        TtyEvent event = null;
-        if (val == vintr) {
-          event = TtyEvent.INTR;
-        } else if (val == vsusp) {
-          event = TtyEvent.SUSP;
-        } else if (val == veof) {
-          event = TtyEvent.EOF;
-        }
+        TtyEvent event = eventOf(val);
         if (event != null) {
           if (eventHandler != null) {
-            if (readHandler != null) {
-              int[] a = new int[index];
-              if (index > 0) {
-                System.arraycopy(data, 0, a, 0, index);
-                readHandler.accept(a);
-              }
+            if (readSink != null && index > offset) {
+              readSink.accept(data, offset, index - offset);
             }
+            onEvent(event);
             eventHandler.accept(event, val);
-            int[] a = new int[data.length - index - 1];
-            System.arraycopy(data, index + 1, a, 0, a.length);
-            data = a;
-            index = 0;
+            offset = ++index;
             continue;
           }
         }
         index++;
       }
     }
-    if (readHandler != null && data.length > 0) {
-      readHandler.accept(data);
+    if (readSink != null && to > offset) {
+      readSink.accept(data, offset, to - offset);
     }
   }
 }
@@ -16,48 +16,49 @@
 
 package io.termd.core.tty;
 
+import io.termd.core.util.CodePointSink;
+
 import java.util.function.Consumer;
 
 /**
+ * Translates {@code NL} to {@code CR-NL} in front of an arbitrary code point consumer. The built-in connections
+ * rather apply the translation in {@link io.termd.core.io.BinaryEncoder} which avoids splitting the output.
+ *
  * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
  */
-public class TtyOutputMode implements Consumer<int[]> {
+public class TtyOutputMode implements CodePointSink {
+
+  private static final int[] CRLF = {'\r', '\n'};
 
-  private final Consumer<int[]> readHandler;
+  private final CodePointSink readHandler;
 
   public TtyOutputMode(Consumer<int[]> readHandler) {
-    this.readHandler = readHandler;
+    this.readHandler = CodePointSink.of(readHandler);
   }
 
   @Override
-  public void accept(int[] data) {
-    if (readHandler != null && data.length > 0) {
-      int prev = 0;
-      int ptr = 0;
-      while (ptr < data.length) {
+  public void accept(int[] data, int offset, int length) {
+    if (readHandler != null && length > 0) {
+      int to = offset + length;
+      int prev = offset;
+      int ptr = offset;
+      while (ptr < to) {
         // Simple implementation that works only on system that uses /n as line terminator
         // equivalent to 'stty onlcr'
         int cp = data[ptr];
         if (cp == '\n') {
           if (ptr > prev) {
-            sendChunk(data, prev, ptr);
+            readHandler.accept(data, prev, ptr - prev);
           }
-          readHandler.accept(new int[]{'\r','\n'});
+          readHandler.accept(CRLF, 0, 2);
           prev = ++ptr;
         } else {
           ptr++;
         }
       }
       if (ptr > prev) {
-        sendChunk(data, prev, ptr);
+        readHandler.accept(data, prev, ptr - prev);
       }
     }
   }
-
-  private void sendChunk(int[] data, int prev, int ptr) {
-    int len = ptr - prev;
-    int[] buf = new int[len];
-    System.arraycopy(data, prev, buf, 0, len);
-    readHandler.accept(buf);
-  }
 }
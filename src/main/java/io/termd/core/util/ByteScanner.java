@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.util;
+
+/**
+ * Scans byte arrays a word at a time: eight bytes are loaded in a single {@code long} and tested together,
+ * the remaining bytes are tested one by one. The words are read from the array itself so a scan does not allocate.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class ByteScanner {
+
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long ONES = 0x0101010101010101L;
+
+  private ByteScanner() {
+  }
+
+  /**
+   * Find the first byte that is not ASCII, i.e with its high bit set.
+   *
+   * @param data the data to scan
+   * @param from the first index, inclusive
+   * @param to the last index, exclusive
+   * @return the index of the first non ASCII byte or {@code -1}
+   */
+  public static int indexOfNonAscii(byte[] data, int from, int to) {
+    int index = from;
+    if (to - from >= 8) {
+      for (;index <= to - 8;index += 8) {
+        long mask = getLong(data, index) & HIGH_BITS;
+        if (mask != 0) {
+          return index + (Long.numberOfLeadingZeros(mask) >>> 3);
+        }
+      }
+    }
+    for (;index < to;index++) {
+      if (data[index] < 0) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find the first occurrence of a byte.
+   *
+   * @param data the data to scan
+   * @param from the first index, inclusive
+   * @param to the last index, exclusive
+   * @param value the byte to find
+   * @return the index of the first occurrence or {@code -1}
+   */
+  public static int indexOf(byte[] data, int from, int to, byte value) {
+    int index = from;
+    if (to - from >= 8) {
+      long pattern = (value & 0xFFL) * ONES;
+      for (;index <= to - 8;index += 8) {
+        long word = getLong(data, index) ^ pattern;
+        // Sets the high bit of the zero bytes only, the sum cannot carry over a byte boundary
+        long mask = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+        if (mask != 0) {
+          return index + (Long.numberOfLeadingZeros(mask) >>> 3);
+        }
+      }
+    }
+    for (;index < to;index++) {
+      if (data[index] == value) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Big endian load: the first byte of the word is the most significant.
+   */
+  private static long getLong(byte[] data, int index) {
+    return ((long) data[index] << 56)
+        | ((data[index + 1] & 0xFFL) << 48)
+        | ((data[index + 2] & 0xFFL) << 40)
+        | ((data[index + 3] & 0xFFL) << 32)
+        | ((data[index + 4] & 0xFFL) << 24)
+        | ((data[index + 5] & 0xFFL) << 16)
+        | ((data[index + 6] & 0xFFL) << 8)
+        | (data[index + 7] & 0xFFL);
+  }
+}
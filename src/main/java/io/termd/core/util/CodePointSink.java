@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A consumer of code point slices.<p>
+ *
+ * A slice is only valid during the call, the producer is free to reuse the array afterwards: a sink
+ * keeping the code points must copy them. The {@link Consumer} contract is preserved, an array
+ * passed to {@link #accept(int[])} is a slice covering the whole array.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+@FunctionalInterface
+public interface CodePointSink extends Consumer<int[]> {
+
+  /**
+   * Adapt a consumer to a sink, slices are copied to an array for consumers that are not sinks.
+   *
+   * @param consumer the consumer to adapt
+   * @return the sink or {@code null} when the consumer is null
+   */
+  static CodePointSink of(Consumer<int[]> consumer) {
+    if (consumer == null || consumer instanceof CodePointSink) {
+      return (CodePointSink) consumer;
+    }
+    return (codePoints, offset, length) -> consumer.accept(Arrays.copyOfRange(codePoints, offset, offset + length));
+  }
+
+  /**
+   * Consume a slice of code points.
+   *
+   * @param codePoints the code points
+   * @param offset the slice offset
+   * @param length the slice length
+   */
+  void accept(int[] codePoints, int offset, int length);
+
+  @Override
+  default void accept(int[] codePoints) {
+    accept(codePoints, 0, codePoints.length);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.util;
+
+/**
+ * The reactive streams interfaces, declared with the same shape than {@code java.util.concurrent.Flow} that is not
+ * available on Java 8: a {@code java.util.concurrent.Flow} publisher or subscriber is adapted by delegating each
+ * method.
+ *
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public final class Flow {
+
+  private Flow() {
+  }
+
+  /**
+   * A producer of items received by subscribers according to their demand.
+   *
+   * @param <T> the item type
+   */
+  @FunctionalInterface
+  public interface Publisher<T> {
+
+    /**
+     * Add a subscriber, the subscriber receives a subscription with {@link Subscriber#onSubscribe(Subscription)}.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+
+  }
+
+  /**
+   * A receiver of items.
+   *
+   * @param <T> the item type
+   */
+  public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+
+  }
+
+  /**
+   * The link between a publisher and a subscriber.
+   */
+  public interface Subscription {
+
+    /**
+     * Add items to the demand of the subscriber.
+     *
+     * @param n the number of items, a value lower or equals to {@code 0} fails the subscription
+     */
+    void request(long n);
+
+    /**
+     * Stop receiving items.
+     */
+    void cancel();
+
+  }
+}
@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ServiceLoader;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.IntConsumer;
 
@@ -32,6 +33,15 @@ import java.util.function.IntConsumer;
  */
 public class Helper {
 
+  private static final AtomicLong CONNECTION_IDS = new AtomicLong();
+
+  /**
+   * @return a new connection id, unique in this JVM
+   */
+  public static long nextConnectionId() {
+    return CONNECTION_IDS.incrementAndGet();
+  }
+
   public static void uncheckedThrow(Throwable throwable) {
     Helper.<RuntimeException>throwIt(throwable);
   }
@@ -29,6 +29,8 @@ public final class Logging {
   public static final Logger IO_ERROR = Logger.getLogger("io.termd.core.io_error");
   public static final Logger READLINE = Logger.getLogger("io.termd.core.readline");
   public static final Logger TERMINFO = Logger.getLogger("io.termd.core.terminfo");
+  public static final Logger STALL = Logger.getLogger("io.termd.core.stall");
+  public static final Logger TTY = Logger.getLogger("io.termd.core.tty");
 
   /**
    * Log an io error reported by the IO layer that lead to closing the resource
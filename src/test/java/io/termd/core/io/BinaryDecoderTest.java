@@ -3,9 +3,13 @@ package io.termd.core.io;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -31,4 +35,95 @@ public class BinaryDecoderTest {
 
     Assert.assertEquals("fffd", hexes.get(0));
   }
+
+  @Test
+  public void testDecodeSplitSequence() {
+    List<Integer> codePoints = new ArrayList<>();
+    BinaryDecoder decoder = new BinaryDecoder(UTF_8, ints -> IntStream.of(ints).forEach(codePoints::add));
+    byte[] bytes = new StringBuilder().appendCodePoint(0x1F600).toString().getBytes(UTF_8);
+    for (byte b : bytes) {
+      Assert.assertEquals(0, codePoints.size());
+      decoder.write(new byte[]{b});
+    }
+    Assert.assertEquals(Arrays.asList(0x1F600), codePoints);
+  }
+
+  @Test
+  public void testDecodeMalformedSequences() {
+    assertDecode(new int[]{0xFFFD, 0xFFFD, 0xFFFD}, 0xED, 0xA0, 0x80); // Surrogate
+    assertDecode(new int[]{0xFFFD, 0xFFFD}, 0xC0, 0xAF); // Overlong
+    assertDecode(new int[]{0xFFFD, 'A'}, 0xE2, 0x82, 'A'); // Truncated
+    assertDecode(new int[]{0xFFFD, 0xFFFD, 0xFFFD, 0xFFFD}, 0xF4, 0x90, 0x80, 0x80); // Above U+10FFFF
+    assertDecode(new int[]{0xFFFD, 0x20AC}, 0xFF, 0xE2, 0x82, 0xAC);
+  }
+
+  @Test
+  public void testDecodeRandomSplits() {
+    Random random = new Random(0);
+    for (int i = 0;i < 1000;i++) {
+      int[] expected = new int[random.nextInt(16)];
+      for (int j = 0;j < expected.length;j++) {
+        int codePoint;
+        do {
+          codePoint = random.nextInt(Character.MAX_CODE_POINT + 1) >> random.nextInt(17);
+        } while (Character.isSurrogate((char) codePoint) && codePoint <= 0xFFFF);
+        expected[j] = codePoint;
+      }
+      byte[] bytes = new String(expected, 0, expected.length).getBytes(UTF_8);
+      List<Integer> codePoints = new ArrayList<>();
+      BinaryDecoder decoder = new BinaryDecoder(4, UTF_8, ints -> IntStream.of(ints).forEach(codePoints::add));
+      int from = 0;
+      while (from < bytes.length) {
+        int len = 1 + random.nextInt(bytes.length - from);
+        decoder.write(bytes, from, len);
+        from += len;
+      }
+      Assert.assertArrayEquals(expected, codePoints.stream().mapToInt(Integer::intValue).toArray());
+    }
+  }
+
+  @Test
+  public void testStreamingRandomSplits() {
+    Random random = new Random(0);
+    for (Charset charset : Arrays.asList(Charset.forName("UTF-16BE"), Charset.forName("GB18030"), Charset.forName("Shift_JIS"))) {
+      for (int i = 0;i < 200;i++) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = random.nextInt(64);j > 0;j--) {
+          int codePoint = "aZ\u00E9\u3042\u4E9C\uFF21".charAt(random.nextInt(6));
+          if (charset.newEncoder().canEncode((char) codePoint)) {
+            sb.appendCodePoint(codePoint);
+          }
+        }
+        if (charset.name().startsWith("UTF") && random.nextBoolean()) {
+          sb.appendCodePoint(0x1F600);
+        }
+        int[] expected = sb.codePoints().toArray();
+        byte[] bytes = sb.toString().getBytes(charset);
+        List<Integer> codePoints = new ArrayList<>();
+        int chunkSize = 2 + random.nextInt(6);
+        BinaryDecoder decoder = new BinaryDecoder(chunkSize, charset, ints -> {
+          Assert.assertTrue(ints.length <= chunkSize);
+          IntStream.of(ints).forEach(codePoints::add);
+        });
+        int from = 0;
+        while (from < bytes.length) {
+          int len = 1 + random.nextInt(bytes.length - from);
+          decoder.write(bytes, from, len);
+          from += len;
+        }
+        Assert.assertArrayEquals(charset.name(), expected, codePoints.stream().mapToInt(Integer::intValue).toArray());
+      }
+    }
+  }
+
+  private void assertDecode(int[] expected, int... bytes) {
+    List<Integer> codePoints = new ArrayList<>();
+    BinaryDecoder decoder = new BinaryDecoder(UTF_8, ints -> IntStream.of(ints).forEach(codePoints::add));
+    byte[] data = new byte[bytes.length];
+    for (int i = 0;i < bytes.length;i++) {
+      data[i] = (byte) bytes[i];
+    }
+    decoder.write(data);
+    Assert.assertArrayEquals(expected, codePoints.stream().mapToInt(Integer::intValue).toArray());
+  }
 }
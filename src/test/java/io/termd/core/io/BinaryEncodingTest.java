@@ -1,15 +1,20 @@
 package io.termd.core.io;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.termd.core.util.Helper;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -96,4 +101,75 @@ public class BinaryEncodingTest {
     assertEquals(1, codePoints.size());
     assertEquals('\u20AC', (int)codePoints.get(0));
   }
+
+  @Test
+  public void testByteBufChars() {
+    String s = "A\u00E9\u20AC" + new StringBuilder().appendCodePoint(66231) + "\uD800";
+    for (Charset charset : Arrays.asList(UTF8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE)) {
+      List<byte[]> bytes = new ArrayList<>();
+      new BinaryEncoder(charset, bytes::add).accept(Helper.toCodePoints(s));
+      assertArrayEquals(charset.name(), s.getBytes(charset), bytes.get(0));
+      List<ByteBuf> actual = new ArrayList<>();
+      new BinaryEncoder(charset, PooledByteBufAllocator.DEFAULT, actual::add).accept(Helper.toCodePoints(s));
+      assertEquals(1, actual.size());
+      ByteBuf buf = actual.get(0);
+      assertArrayEquals(charset.name(), s.getBytes(charset), ByteBufUtil.getBytes(buf));
+      assertEquals(1, buf.refCnt());
+      buf.release();
+    }
+  }
+
+  @Test
+  public void testInvalidCodePoints() {
+    int[] codePoints = {'a', -1, Integer.MIN_VALUE, Character.MAX_CODE_POINT + 1, 'b'};
+    for (Charset charset : Arrays.asList(UTF8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE)) {
+      // -1 is not mistaken for the expansion of a new line
+      assertEncode(charset, 0, codePoints, "a???b".getBytes(charset));
+      assertEncode(charset, BinaryEncoder.ONLCR, codePoints, "a???b".getBytes(charset));
+    }
+  }
+
+  @Test
+  public void testStatefulCharset() {
+    // The encoder flush switches back to ASCII after the kana
+    Charset charset = Charset.forName("ISO-2022-JP");
+    String s = "a\u3042\u3044";
+    assertEncode(charset, 0, Helper.toCodePoints(s), s.getBytes(charset));
+  }
+
+  private void assertEncode(Charset charset, int flags, int[] codePoints, byte[] expected) {
+    List<byte[]> bytes = new ArrayList<>();
+    new BinaryEncoder(charset, bytes::add).setFlags(flags).accept(codePoints);
+    assertArrayEquals(charset.name(), expected, bytes.get(0));
+    List<ByteBuf> actual = new ArrayList<>();
+    new BinaryEncoder(charset, PooledByteBufAllocator.DEFAULT, actual::add).setFlags(flags).accept(codePoints);
+    assertEquals(1, actual.size());
+    ByteBuf buf = actual.get(0);
+    assertArrayEquals(charset.name(), expected, ByteBufUtil.getBytes(buf));
+    buf.release();
+  }
+
+  @Test
+  public void testTranslate() {
+    String s = "a\nb\r\n\u20AC\n";
+    assertTranslate(s, 0, s);
+    assertTranslate(s, BinaryEncoder.ONLCR, "a\r\nb\r\r\n\u20AC\r\n");
+    assertTranslate(s, BinaryEncoder.OCRNL, "a\nb\n\n\u20AC\n");
+    assertTranslate(s, BinaryEncoder.ONLCR | BinaryEncoder.OCRNL, "a\r\nb\n\r\n\u20AC\r\n");
+  }
+
+  private void assertTranslate(String s, int flags, String expected) {
+    for (Charset charset : Arrays.asList(UTF8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE)) {
+      List<byte[]> bytes = new ArrayList<>();
+      new BinaryEncoder(charset, bytes::add).setFlags(flags).accept(Helper.toCodePoints(s));
+      assertEquals(1, bytes.size());
+      assertArrayEquals(charset.name(), expected.getBytes(charset), bytes.get(0));
+      List<ByteBuf> actual = new ArrayList<>();
+      new BinaryEncoder(charset, PooledByteBufAllocator.DEFAULT, actual::add).setFlags(flags).accept(Helper.toCodePoints(s));
+      assertEquals(1, actual.size());
+      ByteBuf buf = actual.get(0);
+      assertArrayEquals(charset.name(), expected.getBytes(charset), ByteBufUtil.getBytes(buf));
+      buf.release();
+    }
+  }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.io;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class PreEncodedTest {
+
+  @Test
+  public void testCache() {
+    PreEncoded sequence = PreEncoded.of("\u20AC\n");
+    byte[] utf8 = sequence.bytes(StandardCharsets.UTF_8, 0);
+    assertArrayEquals("\u20AC\n".getBytes(StandardCharsets.UTF_8), utf8);
+    assertSame(utf8, sequence.bytes(StandardCharsets.UTF_8, 0));
+    assertArrayEquals("\u20AC\r\n".getBytes(StandardCharsets.UTF_8), sequence.bytes(StandardCharsets.UTF_8, BinaryEncoder.ONLCR));
+    assertArrayEquals("?\n".getBytes(StandardCharsets.US_ASCII), sequence.bytes(StandardCharsets.US_ASCII, 0));
+  }
+
+  @Test
+  public void testWrite() {
+    List<byte[]> bytes = new ArrayList<>();
+    BinaryEncoder encoder = new BinaryEncoder(StandardCharsets.UTF_8, bytes::add).setFlags(BinaryEncoder.ONLCR);
+    encoder.write(PreEncoded.NEWLINE);
+    encoder.write(PreEncoded.NEWLINE);
+    assertEquals(2, bytes.size());
+    assertArrayEquals(new byte[]{'\r', '\n'}, bytes.get(0));
+    assertNotSame(bytes.get(0), bytes.get(1));
+    List<ByteBuf> buffers = new ArrayList<>();
+    encoder = new BinaryEncoder(StandardCharsets.UTF_8, PooledByteBufAllocator.DEFAULT, buffers::add);
+    encoder.write(PreEncoded.ERASE_TO_END_OF_LINE);
+    ByteBuf buffer = buffers.get(0);
+    assertTrue(buffer.isReadOnly());
+    assertArrayEquals("\033[K".getBytes(StandardCharsets.UTF_8), ByteBufUtil.getBytes(buffer));
+    buffer.release();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.io;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.termd.core.util.Helper;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class SingleByteCodecTest {
+
+  private static final List<Charset> CHARSETS = Arrays.asList(
+    Charset.forName("IBM437"),
+    StandardCharsets.US_ASCII,
+    StandardCharsets.ISO_8859_1,
+    Charset.forName("ISO-8859-15"),
+    Charset.forName("windows-1252"),
+    Charset.forName("KOI8-R"));
+
+  @Test
+  public void testForCharset() {
+    for (Charset charset : CHARSETS) {
+      assertNotNull(charset.name(), SingleByteCodec.forCharset(charset));
+    }
+    assertNull(SingleByteCodec.forCharset(StandardCharsets.UTF_8));
+    assertNull(SingleByteCodec.forCharset(StandardCharsets.UTF_16BE));
+    assertNull(SingleByteCodec.forCharset(TelnetCharset.INSTANCE));
+  }
+
+  @Test
+  public void testDecode() {
+    byte[] bytes = new byte[256];
+    for (int i = 0;i < bytes.length;i++) {
+      bytes[i] = (byte) i;
+    }
+    for (Charset charset : CHARSETS) {
+      StringBuilder actual = new StringBuilder();
+      BinaryDecoder decoder = new BinaryDecoder(100, charset, codePoints -> {
+        for (int codePoint : codePoints) {
+          actual.appendCodePoint(codePoint);
+        }
+      });
+      decoder.write(bytes);
+      assertEquals(charset.name(), new String(bytes, charset), actual.toString());
+    }
+  }
+
+  @Test
+  public void testEncode() {
+    Random random = new Random(0);
+    for (Charset charset : CHARSETS) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0;i < 1000;i++) {
+        int codePoint = random.nextInt(4) == 0 ? random.nextInt(0x3000) : random.nextInt(256);
+        if (!Character.isSurrogate((char) codePoint)) {
+          sb.appendCodePoint(codePoint);
+        }
+      }
+      sb.appendCodePoint(0x1F600);
+      String s = sb.toString();
+      List<byte[]> bytes = new ArrayList<>();
+      new BinaryEncoder(charset, bytes::add).accept(Helper.toCodePoints(s));
+      assertArrayEquals(charset.name(), s.getBytes(charset), bytes.get(0));
+      List<ByteBuf> buffers = new ArrayList<>();
+      new BinaryEncoder(charset, PooledByteBufAllocator.DEFAULT, buffers::add).accept(Helper.toCodePoints(s));
+      ByteBuf buffer = buffers.get(0);
+      assertArrayEquals(charset.name(), s.getBytes(charset), ByteBufUtil.getBytes(buffer));
+      buffer.release();
+    }
+  }
+}
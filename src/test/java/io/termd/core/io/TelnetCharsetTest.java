@@ -79,4 +79,26 @@ public class TelnetCharsetTest {
       assertEquals(Helper.list(expectedOutput[i]), codePoints);
     }
   }
+
+  @Test
+  public void testDecodeBulk() {
+    byte[] bytes = "0123456789\r\nabcdefghij\r\0klmnopqrst\r\rX\u00E9".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+    String expected = "0123456789\rabcdefghij\rklmnopqrst\r\rX\u00E9";
+    assertEquals(expected, TelnetCharset.INSTANCE.decode(ByteBuffer.wrap(bytes)).toString());
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    assertEquals(expected, TelnetCharset.INSTANCE.decode(direct).toString());
+    // Small output buffer
+    CharsetDecoder decoder = TelnetCharset.INSTANCE.newDecoder();
+    ByteBuffer in = ByteBuffer.wrap(bytes);
+    StringBuilder sb = new StringBuilder();
+    CharBuffer out = CharBuffer.allocate(3);
+    while (in.hasRemaining()) {
+      decoder.decode(in, out, false);
+      out.flip();
+      sb.append(out);
+      out.clear();
+    }
+    assertEquals(expected, sb.toString());
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class EchoTracerTest {
+
+  @Test
+  public void testDisabled() throws Exception {
+    EchoTracer tracer = EchoTracer.create(1, "telnet");
+    tracer.received();
+    tracer.decoded();
+    tracer.flushed();
+    try (Recording recording = new Recording()) {
+      recording.enable(EchoLatencyEvent.NAME);
+      recording.start();
+      // The trace started while the event was disabled is not committed
+      tracer.flushed();
+      recording.stop();
+      assertEquals(0, events(recording).size());
+    }
+  }
+
+  @Test
+  public void testTrace() throws Exception {
+    EchoTracer tracer = EchoTracer.create(2, "telnet");
+    try (Recording recording = new Recording()) {
+      recording.enable(EchoLatencyEvent.NAME);
+      recording.start();
+      tracer.flushed();
+      tracer.received();
+      tracer.flushed();
+      tracer.decoded();
+      tracer.matched();
+      tracer.handled();
+      tracer.flushed();
+      tracer.flushed();
+      recording.stop();
+      List<RecordedEvent> events = events(recording);
+      assertEquals(1, events.size());
+      RecordedEvent event = events.get(0);
+      assertEquals("telnet", event.getString("transport"));
+      assertEquals(2, event.getLong("connectionId"));
+      assertTrue(event.getDuration().toNanos() >= event.getLong("decodeTime"));
+    }
+  }
+
+  private static List<RecordedEvent> events(Recording recording) throws Exception {
+    Path path = Files.createTempFile("termd", ".jfr");
+    try {
+      recording.dump(path);
+      return RecordingFile.readAllEvents(path);
+    } finally {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+import io.termd.core.tty.TtyEvent;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class DefaultTtyMetricsTest {
+
+  @Test
+  public void testRecord() {
+    DefaultTtyMetrics metrics = new DefaultTtyMetrics();
+    DefaultTtyMetrics.Connection conn = (DefaultTtyMetrics.Connection) metrics.connectionOpened(TtyMetrics.TELNET);
+    conn.bytesRead(3);
+    conn.codePointsRead(2);
+    conn.bytesWritten(5);
+    conn.codePointsWritten(4);
+    conn.keystroke();
+    conn.event(TtyEvent.INTR);
+    conn.line();
+    conn.completion();
+    conn.outboundQueue(() -> 7);
+    assertEquals(3, conn.getBytesRead());
+    assertEquals(2, conn.getCodePointsRead());
+    assertEquals(5, conn.getBytesWritten());
+    assertEquals(4, conn.getCodePointsWritten());
+    assertEquals(1, conn.getKeystrokes());
+    assertEquals(1, conn.getEvents());
+    assertEquals(1, conn.getLines());
+    assertEquals(1, conn.getCompletions());
+    assertEquals(7, conn.getOutboundQueueDepth());
+    DefaultTtyMetrics.Transport telnet = metrics.transport(TtyMetrics.TELNET);
+    assertSame(telnet, conn.getTransport());
+    assertEquals(3, telnet.getBytesRead());
+    assertEquals(7, telnet.getOutboundQueueDepth());
+    assertEquals(1, telnet.getConnectionsActive());
+    assertNull(metrics.transport(TtyMetrics.SSH));
+  }
+
+  @Test
+  public void testConnections() {
+    DefaultTtyMetrics metrics = new DefaultTtyMetrics();
+    ConnectionMetrics conn1 = metrics.connectionOpened(TtyMetrics.TELNET);
+    ConnectionMetrics conn2 = metrics.connectionOpened(TtyMetrics.SSH);
+    conn1.bytesRead(3);
+    conn2.bytesRead(4);
+    conn1.outboundQueue(() -> 5);
+    assertEquals(7, metrics.global().getBytesRead());
+    assertEquals(5, metrics.global().getOutboundQueueDepth());
+    assertEquals(2, metrics.global().getConnectionsActive());
+    conn1.closed();
+    conn1.closed();
+    assertEquals(1, metrics.transport(TtyMetrics.TELNET).getConnectionsClosed());
+    assertEquals(0, metrics.transport(TtyMetrics.TELNET).getConnectionsActive());
+    assertEquals(0, metrics.global().getOutboundQueueDepth());
+    assertEquals(2, metrics.global().getConnectionsOpened());
+    assertEquals(1, metrics.global().getConnectionsActive());
+    assertEquals(7, metrics.global().getBytesRead());
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    DefaultTtyMetrics metrics = new DefaultTtyMetrics();
+    metrics.connectionOpened(TtyMetrics.TELNET).bytesRead(3);
+    metrics.registerMBeans(server);
+    metrics.connectionOpened(TtyMetrics.SSH).bytesRead(4);
+    assertEquals(7L, server.getAttribute(new ObjectName("io.termd:type=TtyMetrics"), "BytesRead"));
+    assertEquals(3L, server.getAttribute(new ObjectName("io.termd:type=TtyMetrics,transport=\"telnet\""), "BytesRead"));
+    assertEquals(1L, server.getAttribute(new ObjectName("io.termd:type=TtyMetrics,transport=\"ssh\""), "ConnectionsActive"));
+    metrics.unregisterMBeans();
+    assertFalse(server.isRegistered(new ObjectName("io.termd:type=TtyMetrics")));
+  }
+}
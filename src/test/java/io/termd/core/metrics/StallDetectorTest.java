@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class StallDetectorTest {
+
+  private StallDetector detector;
+  private ArrayBlockingQueue<StallDetector.Stall> stalls;
+
+  @Before
+  public void setUp() {
+    stalls = new ArrayBlockingQueue<>(10);
+    detector = new StallDetector().setThreshold(50, TimeUnit.MILLISECONDS).setStallHandler(stalls::add);
+  }
+
+  @After
+  public void tearDown() {
+    detector.stop();
+  }
+
+  @Test
+  public void testNotRunning() throws Exception {
+    Runnable task = () -> {};
+    assertSame(task, detector.wrap(1, TtyMetrics.TELNET, task));
+    detector.enter(1, TtyMetrics.TELNET);
+    Thread.sleep(100);
+    detector.exit();
+    assertEquals(0, detector.getStallCount());
+  }
+
+  @Test
+  public void testStall() throws Exception {
+    detector.start();
+    detector.wrap(1, TtyMetrics.TELNET, () -> {}).run();
+    // A task under the threshold is not a stall
+    assertEquals(0, detector.getMaxStallTime(TimeUnit.NANOSECONDS));
+    detector.enter(3, TtyMetrics.SSH);
+    try {
+      // Nested tasks are not timed
+      detector.enter(4, TtyMetrics.SSH);
+      detector.exit();
+      StallDetector.Stall stall = stalls.poll(10, TimeUnit.SECONDS);
+      assertNotNull(stall);
+      assertEquals(3, stall.getConnectionId());
+      assertEquals(TtyMetrics.SSH, stall.getTransport());
+      assertEquals(Thread.currentThread().getName(), stall.getThreadName());
+      assertTrue(stall.getDuration() >= TimeUnit.MILLISECONDS.toNanos(50));
+      assertNotNull(stall.getStackTrace());
+      boolean found = false;
+      for (StackTraceElement element : stall.getStackTrace()) {
+        found |= element.getMethodName().equals("testStall");
+      }
+      assertTrue(found);
+    } finally {
+      detector.exit();
+    }
+    assertEquals(1, detector.getStallCount());
+    assertTrue(detector.getMaxStallTime(TimeUnit.MILLISECONDS) >= 50);
+    List<StallDetector.Stall> recent = detector.getRecentStalls();
+    assertEquals(1, recent.size());
+    assertEquals(3, recent.get(0).getConnectionId());
+    detector.reset();
+    assertEquals(0, detector.getStallCount());
+  }
+}
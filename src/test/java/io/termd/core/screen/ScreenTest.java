@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.screen;
+
+import io.termd.core.util.Helper;
+import io.termd.core.util.Wcwidth;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class ScreenTest {
+
+  /**
+   * Interprets the sequences written by the screen.
+   */
+  static class Terminal {
+
+    final int width;
+    final int height;
+    final int[] codePoints;
+    final int[] attributes;
+    int x;
+    int y;
+    boolean pendingWrap;
+    int flags;
+    int foreground = -1;
+    int background = -1;
+    boolean cursorVisible = true;
+
+    Terminal(int width, int height) {
+      this.width = width;
+      this.height = height;
+      this.codePoints = new int[width * height];
+      this.attributes = new int[width * height];
+      // Garbage the screen must clear
+      Arrays.fill(codePoints, 'Z');
+    }
+
+    void accept(int[] data, int offset, int length) {
+      int end = offset + length;
+      int i = offset;
+      while (i < end) {
+        int cp = data[i++];
+        if (cp == '\r') {
+          x = 0;
+          pendingWrap = false;
+        } else if (cp == '\033') {
+          assertEquals('[', data[i++]);
+          boolean priv = data[i] == '?';
+          if (priv) {
+            i++;
+          }
+          int[] params = new int[8];
+          int count = 0;
+          boolean digits = false;
+          while (true) {
+            int c = data[i++];
+            if (c >= '0' && c <= '9') {
+              params[count] = params[count] * 10 + c - '0';
+              digits = true;
+            } else if (c == ';') {
+              count++;
+            } else {
+              if (digits || count > 0) {
+                count++;
+              }
+              csi(priv, c, params, count);
+              break;
+            }
+          }
+        } else {
+          assertFalse("Printing while the wrap is pending", pendingWrap);
+          int w = Wcwidth.of(cp);
+          assertTrue(w == 1 || w == 2);
+          int attrs = attributes();
+          codePoints[y * width + x] = cp;
+          attributes[y * width + x] = attrs;
+          if (w == 2) {
+            codePoints[y * width + x + 1] = 0;
+            attributes[y * width + x + 1] = attrs;
+          }
+          x += w;
+          if (x >= width) {
+            x = width - 1;
+            pendingWrap = true;
+          }
+        }
+      }
+    }
+
+    int attributes() {
+      int attrs = flags;
+      if (foreground >= 0) {
+        attrs |= Screen.foreground(foreground);
+      }
+      if (background >= 0) {
+        attrs |= Screen.background(background);
+      }
+      return attrs;
+    }
+
+    void csi(boolean priv, int c, int[] params, int count) {
+      int n = Math.max(1, params[0]);
+      if (priv) {
+        assertEquals(25, params[0]);
+        cursorVisible = c == 'h';
+        return;
+      }
+      pendingWrap = false;
+      switch (c) {
+        case 'H':
+          y = Math.max(1, params[0]) - 1;
+          x = Math.max(1, params[1]) - 1;
+          break;
+        case 'A':
+          y -= n;
+          break;
+        case 'B':
+          y += n;
+          break;
+        case 'C':
+          x += n;
+          break;
+        case 'D':
+          x -= n;
+          break;
+        case 'G':
+          x = n - 1;
+          break;
+        case 'K':
+          assertEquals(0, count);
+          for (int i = x;i < width;i++) {
+            codePoints[y * width + i] = ' ';
+            attributes[y * width + i] = attributes();
+          }
+          break;
+        case 'J':
+          assertEquals(2, params[0]);
+          Arrays.fill(codePoints, ' ');
+          Arrays.fill(attributes, attributes());
+          break;
+        case 'm':
+          sgr(params, Math.max(1, count));
+          break;
+        default:
+          fail("Unexpected sequence " + (char) c);
+      }
+      assertTrue(x >= 0 && x < width && y >= 0 && y < height);
+    }
+
+    void sgr(int[] params, int count) {
+      for (int i = 0;i < count;i++) {
+        int p = params[i];
+        if (p == 0) {
+          flags = 0;
+          foreground = -1;
+          background = -1;
+        } else if (p == 1) {
+          flags |= Screen.BOLD;
+        } else if (p == 4) {
+          flags |= Screen.UNDERLINE;
+        } else if (p == 5) {
+          flags |= Screen.BLINK;
+        } else if (p == 7) {
+          flags |= Screen.REVERSE;
+        } else if (p >= 30 && p <= 37) {
+          foreground = p - 30;
+        } else if (p >= 90 && p <= 97) {
+          foreground = p - 90 + 8;
+        } else if (p >= 40 && p <= 47) {
+          background = p - 40;
+        } else if (p >= 100 && p <= 107) {
+          background = p - 100 + 8;
+        } else if (p == 38) {
+          assertEquals(5, params[++i]);
+          foreground = params[++i];
+        } else if (p == 48) {
+          assertEquals(5, params[++i]);
+          background = params[++i];
+        } else {
+          fail("Unexpected attribute " + p);
+        }
+      }
+    }
+
+    void assertDisplays(Screen screen) {
+      for (int y = 0;y < height;y++) {
+        for (int x = 0;x < width;x++) {
+          assertEquals("Invalid code point at " + x + "," + y, screen.codePoint(x, y), codePoints[y * width + x]);
+          assertEquals("Invalid attributes at " + x + "," + y, screen.attributes(x, y), attributes[y * width + x]);
+        }
+      }
+    }
+  }
+
+  private String render(Screen screen, Terminal terminal) {
+    StringBuilder sb = new StringBuilder();
+    screen.render((codePoints, offset, length) -> {
+      terminal.accept(codePoints, offset, length);
+      Helper.appendCodePoints(Arrays.copyOfRange(codePoints, offset, offset + length), sb);
+    });
+    terminal.assertDisplays(screen);
+    return sb.toString();
+  }
+
+  @Test
+  public void testFirstFrame() {
+    Screen screen = new Screen(10, 3).setCursorVisible(false);
+    Terminal terminal = new Terminal(10, 3);
+    screen.print(0, 0, "hello", 0);
+    assertEquals("\033[?25l\033[0m\033[H\033[2Jhello", render(screen, terminal));
+    assertFalse(terminal.cursorVisible);
+  }
+
+  @Test
+  public void testUnchangedFrame() {
+    Screen screen = new Screen(10, 3);
+    Terminal terminal = new Terminal(10, 3);
+    screen.print(2, 1, "hello", Screen.BOLD);
+    screen.setCursor(4, 2);
+    render(screen, terminal);
+    assertEquals("", render(screen, terminal));
+    assertEquals(4, terminal.x);
+    assertEquals(2, terminal.y);
+  }
+
+  @Test
+  public void testChangedCell() {
+    Screen screen = new Screen(10, 3).setCursorVisible(false);
+    Terminal terminal = new Terminal(10, 3);
+    screen.print(0, 0, "hello", 0);
+    render(screen, terminal);
+    screen.set(4, 2, 'x');
+    assertEquals("\033[3;5Hx", render(screen, terminal));
+    screen.set(1, 2, 'y');
+    assertEquals("\033[4Dy", render(screen, terminal));
+  }
+
+  @Test
+  public void testRewriteGap() {
+    Screen screen = new Screen(20, 1).setCursorVisible(false);
+    Terminal terminal = new Terminal(20, 1);
+    screen.print(0, 0, "abcdefghij", 0);
+    render(screen, terminal);
+    screen.set(1, 0, 'B').set(3, 0, 'D').set(9, 0, 'J');
+    // The gap of one cell is rewritten, the gap of five cells is skipped
+    assertEquals("\033[9DBcD\033[5CJ", render(screen, terminal));
+  }
+
+  @Test
+  public void testEraseLine() {
+    Screen screen = new Screen(20, 2).setCursorVisible(false);
+    Terminal terminal = new Terminal(20, 2);
+    screen.print(0, 0, "abcdefghij", 0);
+    render(screen, terminal);
+    screen.clear().print(0, 0, "ab", 0);
+    assertEquals("\033[8D\033[K", render(screen, terminal));
+  }
+
+  @Test
+  public void testAttributes() {
+    Screen screen = new Screen(10, 1).setCursorVisible(false);
+    Terminal terminal = new Terminal(10, 1);
+    render(screen, terminal);
+    screen.set(0, 0, 'a', Screen.BOLD | Screen.foreground(1));
+    screen.set(1, 0, 'b', Screen.BOLD | Screen.foreground(1) | Screen.background(200));
+    screen.set(2, 0, 'c', Screen.foreground(9));
+    assertEquals("\033[1;31ma\033[48;5;200mb\033[0;91mc", render(screen, terminal));
+  }
+
+  @Test
+  public void testRandomFrames() {
+    Random random = new Random(0);
+    int[] codePoints = {'a', 'b', ' ', '\u2588', '\u4E2D', '\t'};
+    int[] attributes = {0, Screen.BOLD, Screen.REVERSE | Screen.foreground(2), Screen.background(4), Screen.foreground(160)};
+    Screen screen = new Screen(20, 6);
+    Terminal terminal = new Terminal(20, 6);
+    for (int frame = 0;frame < 2000;frame++) {
+      int op = random.nextInt(20);
+      if (op == 0) {
+        int width = 1 + random.nextInt(30);
+        int height = 1 + random.nextInt(10);
+        screen.resize(width, height);
+        boolean cursorVisible = terminal.cursorVisible;
+        terminal = new Terminal(width, height);
+        terminal.cursorVisible = cursorVisible;
+      } else if (op == 1) {
+        screen.clear();
+      } else {
+        for (int i = random.nextInt(40);i > 0;i--) {
+          screen.set(
+              random.nextInt(screen.width()),
+              random.nextInt(screen.height()),
+              codePoints[random.nextInt(codePoints.length)],
+              attributes[random.nextInt(attributes.length)]);
+        }
+      }
+      screen.setCursorVisible(random.nextBoolean());
+      screen.setCursor(random.nextInt(screen.width()), random.nextInt(screen.height()));
+      render(screen, terminal);
+      assertEquals(screen.isCursorVisible(), terminal.cursorVisible);
+      assertEquals("", render(screen, terminal));
+    }
+  }
+}
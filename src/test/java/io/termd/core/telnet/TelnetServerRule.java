@@ -17,6 +17,7 @@
 package io.termd.core.telnet;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
@@ -57,9 +58,11 @@ public class TelnetServerRule extends ExternalResource {
           }
         });
     try {
-      b.bind("localhost", 4000).sync();
+      Channel channel = b.bind("localhost", 4000).sync().channel();
       return () -> {
+        channel.close().syncUninterruptibly();
         bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
       };
     } catch (InterruptedException e) {
       throw TestBase.failure(e);
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class BlockingTtyConnectionTest {
+
+  @Test
+  public void testInputFlowControl() {
+    AtomicInteger received = new AtomicInteger();
+    ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    FrameSchedulerTest.TestConnection conn = new FrameSchedulerTest.TestConnection() {
+      Consumer<int[]> stdinHandler;
+      @Override
+      public Consumer<int[]> getStdinHandler() {
+        return stdinHandler;
+      }
+      @Override
+      public void setStdinHandler(Consumer<int[]> handler) {
+        stdinHandler = handler;
+      }
+    };
+    BlockingTtyConnection blocking = new BlockingTtyConnection(conn, tasks::add);
+    blocking.setStdinHandler(codePoints -> received.addAndGet(codePoints.length));
+    int[] chunk = new int[1024];
+    int count = 0;
+    while (conn.getStdinHandler() != null) {
+      conn.getStdinHandler().accept(chunk);
+      count++;
+    }
+    // The handler has not run, the wrapped connection buffers the input
+    assertEquals(ReadBuffer.DEFAULT_HIGH_WATERMARK / chunk.length, count);
+    assertEquals(0, received.get());
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+    assertEquals(count * chunk.length, received.get());
+    assertNotNull(conn.getStdinHandler());
+  }
+
+  @Test
+  public void testInputWatermarks() {
+    ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    FrameSchedulerTest.TestConnection conn = new FrameSchedulerTest.TestConnection() {
+      Consumer<int[]> stdinHandler;
+      @Override
+      public Consumer<int[]> getStdinHandler() {
+        return stdinHandler;
+      }
+      @Override
+      public void setStdinHandler(Consumer<int[]> handler) {
+        stdinHandler = handler;
+      }
+    };
+    BlockingTtyConnection blocking = new BlockingTtyConnection(conn, tasks::add, 2, 4);
+    List<Boolean> paused = new ArrayList<>();
+    blocking.setStdinHandler(codePoints -> paused.add(conn.getStdinHandler() == null));
+    for (int i = 0;i < 4;i++) {
+      assertNotNull(conn.getStdinHandler());
+      conn.getStdinHandler().accept(new int[]{'a'});
+    }
+    assertNull(conn.getStdinHandler());
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+    // The input is resumed once two code points are drained
+    assertEquals(Arrays.asList(true, true, false, false), paused);
+    assertNotNull(conn.getStdinHandler());
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class FlushSchedulerTest {
+
+  private LinkedBlockingQueue<Runnable> tasks;
+  private List<String> writes;
+  private List<String> flushes;
+  private StringBuilder unflushed;
+  private FlushScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    tasks = new LinkedBlockingQueue<>();
+    writes = new ArrayList<>();
+    flushes = new ArrayList<>();
+    unflushed = new StringBuilder();
+    FrameSchedulerTest.TestConnection conn = new FrameSchedulerTest.TestConnection() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+      @Override
+      public void schedule(Runnable task, long delay, TimeUnit unit) {
+        new Thread(() -> {
+          try {
+            unit.sleep(delay);
+          } catch (InterruptedException ignore) {
+          }
+          tasks.add(task);
+        }).start();
+      }
+    };
+    scheduler = new FlushScheduler(conn, buf -> {
+      synchronized (writes) {
+        String s = buf.toString(StandardCharsets.UTF_8);
+        writes.add(s);
+        unflushed.append(s);
+      }
+      buf.release();
+    }, () -> {
+      synchronized (writes) {
+        flushes.add(unflushed.toString());
+        unflushed.setLength(0);
+      }
+    });
+  }
+
+  private static ByteBuf buffer(String s) {
+    return Unpooled.copiedBuffer(s, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCoalesce() {
+    ByteBuf a = buffer("a");
+    scheduler.accept(a);
+    scheduler.accept(buffer("b"));
+    scheduler.accept(buffer("c"));
+    // The buffers are written right away and not retained
+    assertEquals(0, a.refCnt());
+    assertEquals(3, writes.size());
+    assertEquals(0, flushes.size());
+    assertEquals(1, tasks.size());
+    tasks.poll().run();
+    assertEquals(1, flushes.size());
+    assertEquals("abc", flushes.get(0));
+    scheduler.accept(buffer("d"));
+    assertEquals(1, tasks.size());
+    tasks.poll().run();
+    assertEquals("d", flushes.get(1));
+  }
+
+  @Test
+  public void testMaxBatchSize() {
+    scheduler.setMaxBatchSize(4);
+    scheduler.accept(buffer("ab"));
+    scheduler.accept(buffer("cd"));
+    assertEquals(1, flushes.size());
+    assertEquals("abcd", flushes.get(0));
+    scheduler.accept(buffer("efghij"));
+    assertEquals(2, flushes.size());
+    assertEquals("efghij", flushes.get(1));
+    tasks.poll().run();
+    assertEquals(2, flushes.size());
+  }
+
+  @Test
+  public void testFlush() {
+    scheduler.accept(buffer("ab"));
+    scheduler.flush();
+    assertEquals(1, flushes.size());
+    assertEquals("ab", flushes.get(0));
+    tasks.poll().run();
+    assertEquals(1, flushes.size());
+  }
+
+  @Test
+  public void testMaxDelay() throws Exception {
+    scheduler.setMaxDelay(20);
+    long now = System.nanoTime();
+    scheduler.accept(buffer("ab"));
+    scheduler.accept(buffer("cd"));
+    Runnable task = tasks.poll(10, TimeUnit.SECONDS);
+    assertNotNull(task);
+    assertTrue(System.nanoTime() - now >= TimeUnit.MILLISECONDS.toNanos(20));
+    task.run();
+    assertEquals(1, flushes.size());
+    assertEquals("abcd", flushes.get(0));
+  }
+}
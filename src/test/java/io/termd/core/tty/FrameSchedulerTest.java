@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.util.Vector;
+import io.termd.core.util.Wait;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class FrameSchedulerTest {
+
+  /**
+   * A connection completing the writes on demand.
+   */
+  static class TestConnection implements TtyConnection {
+
+    volatile CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+    volatile boolean writable = true;
+    final CloseListeners closeListeners = new CloseListeners();
+    Consumer<Void> closeHandler;
+
+    @Override
+    public CompletableFuture<Void> whenWritten() {
+      return written;
+    }
+
+    @Override
+    public boolean isWritable() {
+      return writable;
+    }
+
+    @Override
+    public long lastAccessedTime() {
+      return 0;
+    }
+
+    @Override
+    public Vector size() {
+      return new Vector(80, 24);
+    }
+
+    @Override
+    public Charset inputCharset() {
+      return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public Charset outputCharset() {
+      return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public String terminalType() {
+      return null;
+    }
+
+    @Override
+    public Consumer<String> getTerminalTypeHandler() {
+      return null;
+    }
+
+    @Override
+    public void setTerminalTypeHandler(Consumer<String> handler) {
+    }
+
+    @Override
+    public Consumer<Vector> getSizeHandler() {
+      return null;
+    }
+
+    @Override
+    public void setSizeHandler(Consumer<Vector> handler) {
+    }
+
+    @Override
+    public BiConsumer<TtyEvent, Integer> getEventHandler() {
+      return null;
+    }
+
+    @Override
+    public void setEventHandler(BiConsumer<TtyEvent, Integer> handler) {
+    }
+
+    @Override
+    public Consumer<int[]> getStdinHandler() {
+      return null;
+    }
+
+    @Override
+    public void setStdinHandler(Consumer<int[]> handler) {
+    }
+
+    @Override
+    public Consumer<int[]> stdoutHandler() {
+      return codePoints -> {};
+    }
+
+    @Override
+    public void setCloseHandler(Consumer<Void> closeHandler) {
+      this.closeHandler = closeHandler;
+    }
+
+    @Override
+    public Consumer<Void> getCloseHandler() {
+      return closeHandler;
+    }
+
+    @Override
+    public void addCloseListener(Runnable listener) {
+      closeListeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+      closeListeners.close();
+      Consumer<Void> handler = closeHandler;
+      if (handler != null) {
+        handler.accept(null);
+      }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  public void testFrames() throws Exception {
+    FrameScheduler scheduler = new FrameScheduler(1, TimeUnit.MILLISECONDS);
+    TestConnection conn = new TestConnection();
+    AtomicInteger frames = new AtomicInteger();
+    FrameScheduler.Session session = scheduler.register(conn, 100, frames::incrementAndGet);
+    Wait.forCondition(() -> frames.get() >= 10, 10, ChronoUnit.SECONDS);
+    // The writes complete immediately, the session keeps the maximum frame rate
+    assertEquals(0, session.getSkippedFrames());
+    assertEquals(100.0, session.getFrameRate(), 0.1);
+    // Setting the close handler after the registration keeps the cancellation
+    conn.setCloseHandler(v -> {});
+    conn.close();
+    assertTrue(session.isCancelled());
+    assertEquals(0, scheduler.getSessionCount());
+    // A frame already running when the session is cancelled can still complete
+    int count = frames.get();
+    Thread.sleep(50);
+    assertTrue(frames.get() <= count + 1);
+  }
+
+  @Test
+  public void testSkipFrames() throws Exception {
+    FrameScheduler scheduler = new FrameScheduler(1, TimeUnit.MILLISECONDS);
+    TestConnection conn = new TestConnection();
+    conn.written = new CompletableFuture<>();
+    AtomicInteger frames = new AtomicInteger();
+    FrameScheduler.Session session = scheduler.register(conn, 100, 2, frames::incrementAndGet);
+    // The interval doubles on each skipped frame until the minimum frame rate
+    Wait.forCondition(() -> session.getFrameRate() < 2.1, 10, ChronoUnit.SECONDS);
+    // The first frame is never written
+    assertEquals(1, frames.get());
+    assertTrue(session.getSkippedFrames() > 0);
+    conn.written.complete(null);
+    conn.written = CompletableFuture.completedFuture(null);
+    Wait.forCondition(() -> session.getFrameRate() > 50, 10, ChronoUnit.SECONDS);
+    assertTrue(frames.get() > 1);
+    conn.close();
+    assertTrue(session.isCancelled());
+    assertEquals(0, scheduler.getSessionCount());
+  }
+
+  @Test
+  public void testNotWritable() throws Exception {
+    FrameScheduler scheduler = new FrameScheduler(1, TimeUnit.MILLISECONDS);
+    TestConnection conn = new TestConnection();
+    conn.writable = false;
+    AtomicInteger frames = new AtomicInteger();
+    FrameScheduler.Session session = scheduler.register(conn, 100, frames::incrementAndGet);
+    Wait.forCondition(() -> session.getSkippedFrames() > 0, 10, ChronoUnit.SECONDS);
+    assertEquals(0, frames.get());
+    conn.writable = true;
+    Wait.forCondition(() -> frames.get() > 0, 10, ChronoUnit.SECONDS);
+    session.cancel();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.util.Helper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class LineDisciplineTest {
+
+  private Termios termios;
+  private LineDiscipline discipline;
+  private List<String> lines;
+  private List<TtyEvent> events;
+  private StringBuilder echo;
+
+  @Before
+  public void setUp() {
+    termios = new Termios().setFlags(Termios.ICANON | Termios.ECHO | Termios.ECHOE | Termios.ICRNL);
+    lines = new ArrayList<>();
+    events = new ArrayList<>();
+    echo = new StringBuilder();
+    discipline = new LineDiscipline(termios)
+        .setReadHandler(cps -> lines.add(Helper.fromCodePoints(cps)))
+        .setEchoHandler(cps -> echo.append(Helper.fromCodePoints(cps)));
+    discipline.setEventHandler((event, cp) -> events.add(event));
+  }
+
+  @Test
+  public void testLine() {
+    discipline.accept(Helper.toCodePoints("hel"));
+    assertEquals(0, lines.size());
+    discipline.accept(Helper.toCodePoints("lo\rwor"));
+    assertEquals(1, lines.size());
+    assertEquals("hello\n", lines.get(0));
+    assertEquals("hello\nwor", echo.toString());
+  }
+
+  @Test
+  public void testNoIcrnl() {
+    termios.setEnabled(Termios.ICRNL, false);
+    discipline.accept(Helper.toCodePoints("a\rb\n"));
+    assertEquals(1, lines.size());
+    assertEquals("a\rb\n", lines.get(0));
+  }
+
+  @Test
+  public void testErase() {
+    discipline.accept(Helper.toCodePoints("abc\u007F\u007Fd\r"));
+    assertEquals("ad\n", lines.get(0));
+    assertEquals("abc\b \b\b \bd\n", echo.toString());
+  }
+
+  @Test
+  public void testEraseWide() {
+    discipline.accept(new int[]{'a', 0x4E2D, 127});
+    assertEquals("a\u4E2D\b \b\b \b", echo.toString());
+  }
+
+  @Test
+  public void testEraseEmptyLine() {
+    discipline.accept(new int[]{127, 'a', '\r'});
+    assertEquals("a\n", lines.get(0));
+    assertEquals("a\n", echo.toString());
+  }
+
+  @Test
+  public void testWordErase() {
+    discipline.accept(Helper.toCodePoints("foo bar  \u0017juu\r"));
+    assertEquals("foo juu\n", lines.get(0));
+  }
+
+  @Test
+  public void testKill() {
+    discipline.accept(Helper.toCodePoints("foo bar\u0015juu\r"));
+    assertEquals("juu\n", lines.get(0));
+  }
+
+  @Test
+  public void testNoEcho() {
+    termios.setEnabled(Termios.ECHO, false);
+    discipline.accept(Helper.toCodePoints("secret\r"));
+    assertEquals("secret\n", lines.get(0));
+    assertEquals("", echo.toString());
+  }
+
+  @Test
+  public void testEchoWithoutEchoe() {
+    termios.setEnabled(Termios.ECHOE, false);
+    discipline.accept(Helper.toCodePoints("ab\u007F"));
+    assertEquals("ab\u007F", echo.toString());
+  }
+
+  @Test
+  public void testSignalDiscardsLine() {
+    termios.setVquit('\\' - 64);
+    discipline.accept(Helper.toCodePoints("foo\u0003bar\u001C\r"));
+    assertEquals(1, lines.size());
+    assertEquals("\n", lines.get(0));
+    assertEquals(2, events.size());
+    assertEquals(TtyEvent.INTR, events.get(0));
+    assertEquals(TtyEvent.QUIT, events.get(1));
+  }
+
+  @Test
+  public void testFlush() {
+    AtomicInteger flushes = new AtomicInteger();
+    discipline.setFlushHandler(flushes::incrementAndGet);
+    termios.setVquit('\\' - 64);
+    discipline.accept(Helper.toCodePoints("foo\u0004\u0003\u001C\u001A"));
+    assertEquals(3, flushes.get());
+  }
+
+  @Test
+  public void testRawModeNoFlush() {
+    AtomicInteger flushes = new AtomicInteger();
+    discipline.setFlushHandler(flushes::incrementAndGet);
+    termios.setEnabled(Termios.ICANON, false);
+    discipline.accept(Helper.toCodePoints("a\u0003b"));
+    assertEquals(0, flushes.get());
+    assertEquals(2, lines.size());
+    assertEquals("a", lines.get(0));
+    assertEquals("b", lines.get(1));
+    assertEquals(TtyEvent.INTR, events.get(0));
+  }
+
+  @Test
+  public void testNoFlush() {
+    AtomicInteger flushes = new AtomicInteger();
+    discipline.setFlushHandler(flushes::incrementAndGet);
+    termios.setEnabled(Termios.NOFLSH, true);
+    discipline.accept(Helper.toCodePoints("foo\u0003bar\r"));
+    assertEquals(0, flushes.get());
+    assertEquals("foobar\n", lines.get(0));
+    assertEquals(TtyEvent.INTR, events.get(0));
+  }
+
+  @Test
+  public void testEofDeliversLine() {
+    discipline.accept(Helper.toCodePoints("foo\u0004"));
+    assertEquals(1, lines.size());
+    assertEquals("foo", lines.get(0));
+    assertEquals(0, events.size());
+    discipline.accept(Helper.toCodePoints("\u0004"));
+    assertEquals(1, lines.size());
+    assertEquals(1, events.size());
+    assertEquals(TtyEvent.EOF, events.get(0));
+  }
+
+  @Test
+  public void testQuitDisabled() {
+    discipline.accept(Helper.toCodePoints("\u001C\r"));
+    assertEquals(0, events.size());
+    assertEquals("\u001C\n", lines.get(0));
+  }
+
+  @Test
+  public void testRawMode() {
+    termios.setEnabled(Termios.ICANON, false);
+    discipline.accept(Helper.toCodePoints("a\r\u007F\u0003b"));
+    assertEquals(2, lines.size());
+    assertEquals("a\r\u007F", lines.get(0));
+    assertEquals("b", lines.get(1));
+    assertEquals(TtyEvent.INTR, events.get(0));
+    assertEquals("", echo.toString());
+  }
+
+  @Test
+  public void testLeaveCanonicalMode() {
+    discipline.accept(Helper.toCodePoints("foo"));
+    termios.setEnabled(Termios.ICANON, false);
+    discipline.accept(Helper.toCodePoints("b"));
+    assertEquals(2, lines.size());
+    assertEquals("foo", lines.get(0));
+    assertEquals("b", lines.get(1));
+  }
+
+  @Test
+  public void testChangeSignalCharacters() {
+    termios.setVintr('X' - 64).setVeof(-1);
+    discipline.accept(new int[]{'a', 'C' - 64, 'D' - 64, 'X' - 64});
+    assertEquals(1, events.size());
+    assertEquals(TtyEvent.INTR, events.get(0));
+    termios.setEnabled(Termios.ICANON, false);
+    discipline.accept(new int[]{'C' - 64, 'X' - 64});
+    assertEquals(2, events.size());
+    assertEquals(TtyEvent.INTR, events.get(1));
+    assertEquals("\u0003", lines.get(lines.size() - 1));
+  }
+}
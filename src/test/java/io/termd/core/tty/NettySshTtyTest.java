@@ -59,16 +59,26 @@ public class NettySshTtyTest extends SshTtyTestBase {
   @Override
   protected TtyCommand createConnection(Consumer<TtyConnection> onConnect) {
     return new TtyCommand(charset, onConnect) {
+      private volatile EventLoop eventLoop;
       @Override
       public void execute(Runnable task) {
-        // Need this trick now since we cannot get the event loop from the session
-        for (EventExecutor eventExecutor : eventLoopGroup) {
-            EventLoop el = (EventLoop) eventExecutor;
-            if (el.inEventLoop()) {
-                el.execute(task);
-                break;
+        EventLoop el = eventLoop;
+        if (el == null) {
+          // Need this trick now since we cannot get the event loop from the session
+          for (EventExecutor eventExecutor : eventLoopGroup) {
+            if (eventExecutor.inEventLoop()) {
+              el = (EventLoop) eventExecutor;
+              break;
             }
+          }
+          if (el == null) {
+            // Task submitted from another thread before the connection used its event loop
+            el = eventLoopGroup.next();
+          } else {
+            eventLoop = el;
+          }
         }
+        el.execute(task);
       }
     };
   }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.io.BinaryEncoder;
+import io.termd.core.io.PreEncoded;
+import io.termd.core.util.Helper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class OutputFlowControlTest {
+
+  private ByteArrayOutputStream out;
+  private OutputFlowControl control;
+
+  @Before
+  public void setUp() {
+    out = new ByteArrayOutputStream();
+    control = new OutputFlowControl(new BinaryEncoder(StandardCharsets.UTF_8, bytes -> {
+      synchronized (out) {
+        out.write(bytes, 0, bytes.length);
+      }
+    }), 4);
+  }
+
+  private String output() {
+    synchronized (out) {
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testStopStart() {
+    control.accept(Helper.toCodePoints("ab"));
+    control.setStopped(true);
+    control.accept(Helper.toCodePoints("cd"));
+    control.write(PreEncoded.BELL);
+    assertEquals("ab", output());
+    assertEquals(3, control.pending());
+    control.setStopped(false);
+    assertEquals("abcd\u0007", output());
+    assertEquals(0, control.pending());
+    control.accept(Helper.toCodePoints("e"));
+    assertEquals("abcd\u0007e", output());
+  }
+
+  @Test
+  public void testOwnerIsNotBlocked() {
+    control.setStopped(true);
+    control.accept(Helper.toCodePoints("abcdef"));
+    control.accept(Helper.toCodePoints("ghi"));
+    assertEquals(9, control.pending());
+    control.setStopped(false);
+    assertEquals("abcdefghi", output());
+  }
+
+  @Test
+  public void testBlockProducer() throws Exception {
+    control.setStopped(true);
+    CountDownLatch written = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      control.accept(Helper.toCodePoints("abcd"));
+      control.accept(Helper.toCodePoints("ef"));
+      written.countDown();
+    });
+    producer.start();
+    assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(4, control.pending());
+    control.setStopped(false);
+    assertTrue(written.await(10, TimeUnit.SECONDS));
+    assertEquals("abcdef", output());
+  }
+
+  @Test
+  public void testCloseReleasesProducer() throws Exception {
+    control.setStopped(true);
+    CountDownLatch written = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      control.accept(Helper.toCodePoints("abcd"));
+      control.accept(Helper.toCodePoints("ef"));
+      written.countDown();
+    });
+    producer.start();
+    assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+    control.close();
+    assertTrue(written.await(10, TimeUnit.SECONDS));
+    assertEquals("ef", output());
+    control.setStopped(true);
+    assertFalse(control.isStopped());
+  }
+
+  @Test
+  public void testLineDiscipline() {
+    Termios termios = new Termios().setFlags(Termios.IXON);
+    StringBuilder input = new StringBuilder();
+    LineDiscipline discipline = new LineDiscipline(termios)
+        .setReadHandler(cps -> input.append(Helper.fromCodePoints(cps)))
+        .setStopHandler(control::setStopped);
+    discipline.accept(Helper.toCodePoints("a\u0013b"));
+    assertTrue(control.isStopped());
+    control.accept(Helper.toCodePoints("out"));
+    assertEquals("", output());
+    discipline.accept(Helper.toCodePoints("c\u0011d"));
+    assertFalse(control.isStopped());
+    assertEquals("out", output());
+    assertEquals("abcd", input.toString());
+    termios.setEnabled(Termios.IXON, false);
+    discipline.accept(Helper.toCodePoints("\u0013"));
+    assertFalse(control.isStopped());
+    assertEquals("abcd\u0013", input.toString());
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.io.BinaryEncoder;
+import io.termd.core.util.Helper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class OutputSchedulerTest {
+
+  private ByteArrayOutputStream out;
+  private LinkedBlockingQueue<Runnable> tasks;
+  private OutputScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    out = new ByteArrayOutputStream();
+    tasks = new LinkedBlockingQueue<>();
+    OutputFlowControl output = new OutputFlowControl(new BinaryEncoder(StandardCharsets.UTF_8, bytes -> {
+      synchronized (out) {
+        out.write(bytes, 0, bytes.length);
+      }
+    }));
+    scheduler = new OutputScheduler(output, tasks::add, 4, 8);
+  }
+
+  private String output() {
+    synchronized (out) {
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testInteractivePreemptsBulk() {
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abc"));
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("def"));
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("ghi"));
+    assertEquals(1, tasks.size());
+    scheduler.lane(TtyOutputLane.INTERACTIVE).accept(Helper.toCodePoints("1"));
+    assertEquals("", output());
+    tasks.poll().run();
+    assertEquals("1abcdef", output());
+    scheduler.accept(Helper.toCodePoints("2"));
+    assertEquals("1abcdef", output());
+    assertEquals(1, tasks.size());
+    tasks.poll().run();
+    assertEquals("1abcdef2ghi", output());
+    assertEquals(0, tasks.size());
+    assertEquals(0, scheduler.bulkPending());
+  }
+
+  @Test
+  public void testWriteIdle() {
+    scheduler.accept(Helper.toCodePoints("1"));
+    assertEquals("1", output());
+    assertEquals(0, tasks.size());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    int producers = 4;
+    int chunks = 1000;
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    StringBuilder written = new StringBuilder();
+    OutputFlowControl output = new OutputFlowControl(new BinaryEncoder(StandardCharsets.UTF_8, bytes -> {
+      written.append(new String(bytes, StandardCharsets.UTF_8));
+    }));
+    OutputScheduler scheduler = new OutputScheduler(output, executor, 16, 64);
+    Thread[] threads = new Thread[producers];
+    for (int i = 0;i < producers;i++) {
+      int base = 0x4E00 + i * chunks;
+      int key = 'A' + i;
+      threads[i] = new Thread(() -> {
+        for (int j = 0;j < chunks;j++) {
+          scheduler.lane(TtyOutputLane.BULK).accept(new int[] { base + j });
+          scheduler.accept(new int[] { key });
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+    CountDownLatch done = new CountDownLatch(1);
+    scheduler.executeAfterBulk(done::countDown);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    executor.shutdown();
+    int[] codePoints = written.codePoints().toArray();
+    assertEquals(2 * producers * chunks, codePoints.length);
+    int[] next = new int[producers];
+    int[] interactive = new int[producers];
+    for (int codePoint : codePoints) {
+      if (codePoint < 0x4E00) {
+        interactive[codePoint - 'A']++;
+      } else {
+        int producer = (codePoint - 0x4E00) / chunks;
+        assertEquals(next[producer]++, (codePoint - 0x4E00) % chunks);
+      }
+    }
+    for (int i = 0;i < producers;i++) {
+      assertEquals(chunks, next[i]);
+      assertEquals(chunks, interactive[i]);
+    }
+  }
+
+  @Test
+  public void testStop() {
+    scheduler.setStopped(true);
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abc"));
+    assertEquals(0, tasks.size());
+    scheduler.accept(Helper.toCodePoints("1"));
+    assertEquals("", output());
+    scheduler.setStopped(false);
+    assertEquals("1", output());
+    assertEquals(1, tasks.size());
+    tasks.poll().run();
+    assertEquals("1abc", output());
+  }
+
+  @Test
+  public void testTransportWritability() {
+    List<Boolean> changes = new ArrayList<>();
+    scheduler.setWritabilityHandler(changes::add);
+    scheduler.setTransportWritable(false);
+    assertFalse(scheduler.isWritable());
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abc"));
+    scheduler.accept(Helper.toCodePoints("1"));
+    while (tasks.size() > 0) {
+      tasks.poll().run();
+    }
+    assertEquals("1", output());
+    assertEquals(Collections.singletonList(false), changes);
+    scheduler.setTransportWritable(true);
+    assertTrue(scheduler.isWritable());
+    while (tasks.size() > 0) {
+      tasks.poll().run();
+    }
+    assertEquals("1abc", output());
+    assertEquals(Arrays.asList(false, true), changes);
+    scheduler.setStopped(true);
+    scheduler.setStopped(false);
+    while (tasks.size() > 0) {
+      tasks.poll().run();
+    }
+    assertEquals(Arrays.asList(false, true), changes);
+  }
+
+  @Test
+  public void testExecuteAfterBulk() {
+    StringBuilder order = new StringBuilder();
+    scheduler.executeAfterBulk(() -> order.append("a"));
+    assertEquals(1, tasks.size());
+    tasks.poll().run();
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abcd"));
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("ef"));
+    scheduler.executeAfterBulk(() -> order.append(output()));
+    tasks.poll().run();
+    assertEquals("a", order.toString());
+    tasks.poll().run();
+    assertEquals("aabcdef", order.toString());
+  }
+
+  @Test
+  public void testBlockProducer() throws Exception {
+    CountDownLatch written = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abcd"));
+      scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("efgh"));
+      scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("ij"));
+      written.countDown();
+    });
+    producer.start();
+    assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(8, scheduler.bulkPending());
+    tasks.poll(10, TimeUnit.SECONDS).run();
+    assertTrue(written.await(10, TimeUnit.SECONDS));
+    while (scheduler.bulkPending() > 0) {
+      tasks.poll(10, TimeUnit.SECONDS).run();
+    }
+    assertEquals("abcdefghij", output());
+  }
+
+  @Test
+  public void testDiscard() {
+    StringBuilder order = new StringBuilder();
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abc"));
+    scheduler.executeAfterBulk(() -> order.append("done"));
+    assertTrue(scheduler.discard());
+    assertEquals("", output());
+    tasks.poll().run();
+    assertEquals(0, scheduler.bulkPending());
+    assertEquals("done", order.toString());
+    assertEquals("\030\033[0m", output());
+    assertFalse(scheduler.discard());
+  }
+
+  @Test
+  public void testDiscardStopped() {
+    scheduler.setStopped(true);
+    scheduler.accept(Helper.toCodePoints("abc"));
+    assertTrue(scheduler.discard());
+    scheduler.setStopped(false);
+    assertEquals("\030\033[0m", output());
+  }
+
+  @Test
+  public void testClose() {
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("abc"));
+    scheduler.close();
+    tasks.poll().run();
+    assertEquals("", output());
+    scheduler.lane(TtyOutputLane.BULK).accept(Helper.toCodePoints("def"));
+    assertEquals(0, tasks.size());
+  }
+}
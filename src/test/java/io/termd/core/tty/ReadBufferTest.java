@@ -5,6 +5,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 
@@ -82,17 +84,55 @@ public class ReadBufferTest extends TestBase {
     assertEquals(0, reads.size());
     assertEquals(1, commands.size());
     commands.poll().run();
-    assertEquals(1, reads.size());
-    assertEquals(1, commands.size());
+    assertEquals(2, reads.size());
+    assertEquals(0, commands.size());
     assertEquals(reads.get(0), new int[]{'f', 'o', 'o'});
+    assertEquals(reads.get(1), new int[]{'b', 'a', 'r'});
     buf.accept(new int[]{'j', 'u', 'u'});
     assertEquals(3, reads.size());
+    assertEquals(0, commands.size());
+    assertEquals(reads.get(2), new int[]{'j', 'u', 'u'});
+  }
+
+  @Test
+  public void testAcceptBeforeDrain() throws Exception {
+    buf.accept(new int[]{'f', 'o', 'o'});
+    buf.setReadHandler(event -> reads.add(event));
     assertEquals(1, commands.size());
+    buf.accept(new int[]{'b', 'a', 'r'});
+    assertEquals(2, reads.size());
+    assertEquals(reads.get(0), new int[]{'f', 'o', 'o'});
     assertEquals(reads.get(1), new int[]{'b', 'a', 'r'});
-    assertEquals(reads.get(2), new int[]{'j', 'u', 'u'});
     commands.poll().run();
+    assertEquals(2, reads.size());
+  }
+
+  @Test
+  public void testWatermarks() throws Exception {
+    commands = new ArrayBlockingQueue<>(10);
+    buf = new ReadBuffer(commands::add, 2, 6);
+    ArrayList<Boolean> signals = new ArrayList<>();
+    buf.setFlowControlHandler(signals::add);
+    buf.accept(new int[]{'a', 'b', 'c'});
+    buf.accept(new int[]{'d', 'e'});
+    assertEquals(0, signals.size());
+    buf.accept(new int[]{'f', 'g'});
+    assertEquals(7, buf.pending());
+    assertTrue(buf.isPaused());
+    assertEquals(Collections.singletonList(true), signals);
+    buf.accept(new int[]{'h'});
+    assertEquals(Collections.singletonList(true), signals);
+    buf.setReadHandler(event -> reads.add(event));
+    commands.poll().run();
+    // The first batch drains the high watermark
     assertEquals(3, reads.size());
-    assertEquals(0, commands.size());
+    assertEquals(1, buf.pending());
+    assertEquals(Arrays.asList(true, false), signals);
+    assertEquals(1, commands.size());
+    commands.poll().run();
+    assertEquals(4, reads.size());
+    assertEquals(0, buf.pending());
+    assertFalse(buf.isPaused());
   }
 
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.tty;
+
+import io.termd.core.util.Flow;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class StdoutSubscriberTest {
+
+  @Test
+  public void testRefillWhenWritable() {
+    List<Runnable> afterBulk = new ArrayList<>();
+    List<int[]> output = new ArrayList<>();
+    FrameSchedulerTest.TestConnection conn = new FrameSchedulerTest.TestConnection() {
+      @Override
+      public void executeAfterBulk(Runnable task) {
+        afterBulk.add(task);
+      }
+      @Override
+      public Consumer<int[]> stdoutHandler() {
+        return output::add;
+      }
+    };
+    conn.writable = false;
+    List<Long> requests = new ArrayList<>();
+    StdoutSubscriber subscriber = new StdoutSubscriber(conn, 4);
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        requests.add(n);
+      }
+      @Override
+      public void cancel() {
+      }
+    });
+    // Nothing is requested until the bulk output is written
+    assertEquals(0, requests.size());
+    assertEquals(1, afterBulk.size());
+    conn.writable = true;
+    afterBulk.remove(0).run();
+    assertEquals(1, requests.size());
+    assertEquals(4, (long) requests.get(0));
+    for (int i = 0; i < 2; i++) {
+      subscriber.onNext(new int[]{'a'});
+    }
+    assertEquals(2, output.size());
+    assertEquals(2, requests.size());
+    assertEquals(2, (long) requests.get(1));
+    // Not writable anymore, a single refill waits for the bulk output
+    conn.writable = false;
+    for (int i = 0; i < 4; i++) {
+      subscriber.onNext(new int[]{'a'});
+    }
+    assertEquals(2, requests.size());
+    assertEquals(1, afterBulk.size());
+    conn.writable = true;
+    afterBulk.remove(0).run();
+    assertEquals(3, requests.size());
+    assertEquals(4, (long) requests.get(2));
+  }
+}
@@ -16,6 +16,7 @@
 
 package io.termd.core.tty;
 
+import io.termd.core.util.CodePointSink;
 import io.termd.core.util.Helper;
 import org.junit.Test;
 
@@ -38,6 +39,18 @@ public class TtyOutputModeTest {
     assertOutput("a\r\nb\r\nc", "a\nb\nc");
   }
 
+  @Test
+  public void testTranslateSlice() {
+    StringBuilder sb = new StringBuilder();
+    TtyOutputMode out = new TtyOutputMode((CodePointSink) (codePoints, offset, length) -> {
+      for (int i = offset;i < offset + length;i++) {
+        sb.appendCodePoint(codePoints[i]);
+      }
+    });
+    out.accept(Helper.toCodePoints("ab\ncd\nef"), 1, 6);
+    assertEquals("b\r\ncd\r\ne", sb.toString());
+  }
+
   private void assertOutput(String expected, String actual) {
     Stream.Builder<int[]> builder = Stream.<int[]>builder();
     TtyOutputMode out = new TtyOutputMode(builder);
@@ -17,6 +17,7 @@
 package io.termd.core.tty;
 
 import io.termd.core.TestBase;
+import io.termd.core.util.Flow;
 import io.termd.core.util.Helper;
 import org.junit.Test;
 
@@ -27,6 +28,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -310,6 +312,32 @@ public abstract class TtyTestBase extends TestBase {
     await();
   }
 
+  @Test
+  public void testWhenWritten() throws Exception {
+    int[] chunk = new int[1024];
+    Arrays.fill(chunk, 'a');
+    int count = 64;
+    server(conn -> {
+      assertTrue(conn.isWritable());
+      new Thread(() -> {
+        for (int i = 0;i < count;i++) {
+          conn.stdoutHandler(TtyOutputLane.BULK).accept(chunk);
+        }
+        conn.whenWritten().whenComplete((v, err) -> {
+          if (err != null) {
+            fail(err);
+          } else {
+            testComplete();
+          }
+        });
+      }).start();
+    });
+    assertConnect();
+    String s = assertReadString(count * chunk.length);
+    assertEquals((long) count * chunk.length, s.chars().filter(c -> c == 'a').count());
+    await();
+  }
+
   @Test
   public void testScheduleThread() throws Exception {
     server(conn -> {
@@ -362,6 +390,141 @@ public abstract class TtyTestBase extends TestBase {
     await();
   }
 
+  @Test
+  public void testIdleTimeout() throws Exception {
+    AtomicInteger warnings = new AtomicInteger();
+    IdleTimeout idleTimeout = new IdleTimeout()
+        .setIdleTimeout(600)
+        .setWarningDelay(300)
+        .setWarningMessage("bye")
+        .setWarningHandler((conn, reason) -> {
+          assertEquals(IdleTimeout.Reason.IDLE, reason);
+          warnings.incrementAndGet();
+        })
+        .setTimeoutHandler((conn, reason) -> assertEquals(IdleTimeout.Reason.IDLE, reason));
+    server(idleTimeout.wrap(conn -> {
+      conn.setCloseHandler(v -> {
+        assertEquals(1, warnings.get());
+        testComplete();
+      });
+    }));
+    assertConnect();
+    assertEquals("bye", assertReadString(3));
+    await();
+  }
+
+  @Test(timeout = 30000)
+  public void testBlockingHandler() throws Exception {
+    StringBuilder buffer = new StringBuilder();
+    server(BlockingTtyConnection.wrap(conn -> {
+      conn.setStdinHandler(data -> {
+        Helper.appendCodePoints(data, buffer);
+        if (buffer.toString().equals("hello")) {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            fail(e);
+          }
+        } else if (buffer.toString().equals("hellobye")) {
+          conn.write("done");
+          testComplete();
+        }
+      });
+    }, BlockingTtyConnection.virtualThreadExecutor()));
+    assertConnect();
+    assertWrite("hello");
+    assertWrite("bye");
+    await();
+    assertEquals("done", assertReadString(4));
+  }
+
+  @Test
+  public void testStdinPublisher() throws Exception {
+    StringBuilder buffer = new StringBuilder();
+    AtomicInteger items = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+    server(conn -> new StdinPublisher(conn).subscribe(new Flow.Subscriber<int[]>() {
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        subscription.set(s);
+        s.request(1);
+      }
+      @Override
+      public void onNext(int[] item) {
+        Helper.appendCodePoints(item, buffer);
+        if (items.incrementAndGet() == 1) {
+          latch.countDown();
+        } else if (buffer.toString().equals("hellobye")) {
+          testComplete();
+        }
+      }
+      @Override
+      public void onError(Throwable throwable) {
+        fail(throwable);
+      }
+      @Override
+      public void onComplete() {
+      }
+    }));
+    assertConnect();
+    assertWrite("hello");
+    awaitLatch(latch);
+    assertWrite("bye");
+    Thread.sleep(50);
+    assertEquals(1, items.get());
+    subscription.get().request(Long.MAX_VALUE);
+    await();
+  }
+
+  @Test
+  public void testStdoutSubscriber() throws Exception {
+    int[] chunk = new int[1024];
+    Arrays.fill(chunk, 'a');
+    int count = 64;
+    AtomicReference<Flow.Subscriber<? super int[]>> subscriberRef = new AtomicReference<>();
+    CountDownLatch emitted = new CountDownLatch(1);
+    Flow.Publisher<int[]> publisher = subscriber -> {
+      subscriberRef.set(subscriber);
+      subscriber.onSubscribe(new Flow.Subscription() {
+        long demand;
+        int sent;
+        boolean emitting;
+        @Override
+        public synchronized void request(long n) {
+          demand += n;
+          if (emitting) {
+            return;
+          }
+          emitting = true;
+          while (demand > 0 && sent < count) {
+            demand--;
+            sent++;
+            subscriber.onNext(chunk.clone());
+          }
+          emitting = false;
+          if (sent == count) {
+            emitted.countDown();
+          }
+        }
+        @Override
+        public void cancel() {
+        }
+      });
+    };
+    server(conn -> {
+      conn.setCloseHandler(v -> testComplete());
+      publisher.subscribe(new StdoutSubscriber(conn));
+    });
+    assertConnect();
+    awaitLatch(emitted);
+    String s = assertReadString(count * chunk.length);
+    assertEquals((long) count * chunk.length, s.chars().filter(c -> c == 'a').count());
+    // Complete once everything is read, the close would race with the delivery of the last chunk otherwise
+    subscriberRef.get().onComplete();
+    await();
+  }
+
   @Test
   public void testDifferentCharset() throws Exception {
     charset = StandardCharsets.ISO_8859_1;
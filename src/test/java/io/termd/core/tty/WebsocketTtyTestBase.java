@@ -89,7 +89,12 @@ import java.util.concurrent.CountDownLatch;
       public void onClose(Session sess, CloseReason closeReason) {
         session = null;
         endpoint = null;
-        in = null;
+        try {
+          // The reader reads the pending data and then the end of stream
+          out.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
       }
       @Override
       public void onError(Session session, Throwable thr) {
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Julien Viet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.termd.core.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:julien@julienviet.com">Julien Viet</a>
+ */
+public class ByteScannerTest {
+
+  @Test
+  public void testIndexOf() {
+    byte[] data = "abcdefghijklmnopqrstuvwxyz".getBytes();
+    assertEquals(0, ByteScanner.indexOf(data, 0, data.length, (byte) 'a'));
+    assertEquals(8, ByteScanner.indexOf(data, 0, data.length, (byte) 'i'));
+    assertEquals(25, ByteScanner.indexOf(data, 0, data.length, (byte) 'z'));
+    assertEquals(-1, ByteScanner.indexOf(data, 0, 25, (byte) 'z'));
+    assertEquals(-1, ByteScanner.indexOf(data, 9, data.length, (byte) 'i'));
+    data[3] = (byte) 0xFF;
+    data[4] = (byte) 0xFE;
+    assertEquals(3, ByteScanner.indexOf(data, 0, data.length, (byte) 0xFF));
+    assertEquals(4, ByteScanner.indexOf(data, 0, data.length, (byte) 0xFE));
+    assertEquals(3, ByteScanner.indexOfNonAscii(data, 0, data.length));
+    assertEquals(4, ByteScanner.indexOfNonAscii(data, 4, data.length));
+    assertEquals(-1, ByteScanner.indexOfNonAscii(data, 5, data.length));
+  }
+
+  @Test
+  public void testRandom() {
+    Random random = new Random(0);
+    for (int i = 0;i < 1000;i++) {
+      byte[] data = new byte[random.nextInt(40)];
+      for (int j = 0;j < data.length;j++) {
+        // Mostly ASCII with a few high bytes
+        data[j] = (byte) (random.nextInt(8) == 0 ? 0x80 + random.nextInt(128) : random.nextInt(128));
+      }
+      int from = data.length == 0 ? 0 : random.nextInt(data.length);
+      byte value = data.length == 0 ? 0 : data[random.nextInt(data.length)];
+      int expected = -1;
+      int expectedNonAscii = -1;
+      for (int j = data.length - 1;j >= from;j--) {
+        if (data[j] == value) {
+          expected = j;
+        }
+        if (data[j] < 0) {
+          expectedNonAscii = j;
+        }
+      }
+      assertEquals(expected, ByteScanner.indexOf(data, from, data.length, value));
+      assertEquals(expectedNonAscii, ByteScanner.indexOfNonAscii(data, from, data.length));
+    }
+  }
+}